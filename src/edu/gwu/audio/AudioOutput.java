@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
+
+/**
+ * The sound card line of a session. It is opened once and kept open; the
+ * players hand it the sound they play as {@link Voice}s, and a thread mixes
+ * the voices and writes them to the line, or writes silence when there is
+ * nothing to play. Opening a line for every sound file is slow and clicks on
+ * some sound cards.
+ *
+ * The line has one format (16 bit PCM, mono, at the OutputSampleRate
+ * property of the session, 44100 Hz if not set); everything played is
+ * converted to it.
+ */
+public class AudioOutput {
+
+	// of the line, in seconds: how much sound is queued ahead
+	private static final float LINE_BUFFER = 0.1f;
+	// mixed at a time, in seconds
+	private static final float BLOCK = 0.01f;
+
+	private final AudioFormat format;
+	private final SourceDataLine line;
+	private final List<Voice> voices = new ArrayList<Voice>();
+	private volatile boolean open = true;
+
+	/**
+	 * Sound played on an AudioOutput: clips one after the other, or a stream
+	 */
+	public class Voice {
+		private ByteBuffer[] clips;
+		private int clip = 0;
+		private AudioInputStream stream;
+		private volatile boolean stopped = false;
+		// frame of the line the voice ends at, once it is all written
+		private volatile long end = -1;
+
+		private Voice(ByteBuffer[] clips, AudioInputStream stream) {
+			this.clips = clips;
+			this.stream = stream;
+		}
+
+		/**
+		 * @return whether the voice is still heard
+		 */
+		public boolean isPlaying() {
+			if (stopped)
+				return false;
+			return end < 0 || line.getLongFramePosition() < end;
+		}
+
+		/**
+		 * Stops the voice; if nothing else is playing, what was already
+		 * written to the line is thrown away, so the sound stops at once
+		 */
+		public void stop() {
+			stopped = true;
+			synchronized (voices) {
+				voices.remove(this);
+				if (voices.isEmpty())
+					line.flush();
+			}
+			close();
+		}
+
+		/**
+		 * @return bytes read, less than len only at the end of the voice
+		 */
+		private synchronized int read(byte[] b, int len) {
+			int n = 0;
+			try {
+				while (n < len && !stopped) {
+					int r;
+					if (stream != null)
+						r = stream.read(b, n, len - n);
+					else if (clip < clips.length) {
+						r = Math.min(len - n, clips[clip].remaining());
+						clips[clip].get(b, n, r);
+						if (!clips[clip].hasRemaining())
+							clip++;
+					} else
+						r = -1;
+					if (r < 0)
+						break;
+					n += r;
+				}
+			} catch (IOException e) {
+				Print.debug("AudioOutput: " + e);
+			}
+			return n;
+		}
+
+		private synchronized void close() {
+			if (stream != null)
+				try {
+					// so the file can be deleted
+					stream.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+		}
+	}
+
+	/**
+	 * Opens the line and starts writing to it
+	 *
+	 * @param format
+	 *            the format of the line, 16 bit signed PCM
+	 */
+	public AudioOutput(AudioFormat format) {
+		this.format = format;
+		try {
+			line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(
+					SourceDataLine.class, format));
+			line.open(format, (int) (format.getFrameRate() * LINE_BUFFER)
+					* format.getFrameSize());
+		} catch (LineUnavailableException e) {
+			throw new AudioPlayerException(e);
+		} catch (IllegalArgumentException e) {
+			// no line for the format
+			throw new AudioPlayerException(e);
+		}
+		line.start();
+
+		Thread mixer = new Thread("AudioOutput") {
+			public void run() {
+				mix();
+			}
+		};
+		mixer.setDaemon(true);
+		mixer.start();
+	}
+
+	/**
+	 * @return the format of the output of a session, at its OutputSampleRate
+	 */
+	public static AudioFormat getDefaultFormat(VotingSession session) {
+		String rate = session.getProperty("OutputSampleRate");
+		return new AudioFormat(rate == null ? 44100 : Float.parseFloat(rate
+				.trim()), 16, 1, true, false);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Plays clips back to back, without gaps
+	 *
+	 * @param clips
+	 *            samples in the format of the output
+	 * @return the voice playing them
+	 */
+	public Voice play(ByteBuffer[] clips) {
+		ByteBuffer[] own = new ByteBuffer[clips.length];
+		for (int i = 0; i < clips.length; i++)
+			own[i] = clips[i].duplicate();
+		return add(new Voice(own, null));
+	}
+
+	/**
+	 * Plays a stream, converted to the format of the output
+	 *
+	 * @return the voice playing it
+	 */
+	public Voice play(AudioInputStream stream) {
+		if (!stream.getFormat().matches(format))
+			stream = AudioSystem.getAudioInputStream(format, stream);
+		return add(new Voice(null, stream));
+	}
+
+	private Voice add(Voice voice) {
+		synchronized (voices) {
+			voices.add(voice);
+		}
+		return voice;
+	}
+
+	/**
+	 * Sets the volume of everything played, the way BasicPlayer does
+	 *
+	 * @param gain
+	 *            between 0 and 1
+	 */
+	public void setGain(double gain) {
+		if (!line.isControlSupported(FloatControl.Type.MASTER_GAIN))
+			return;
+		FloatControl control = (FloatControl) line
+				.getControl(FloatControl.Type.MASTER_GAIN);
+		double minGainDB = control.getMinimum();
+		double ampGainDB = ((10.0f / 20.0f) * control.getMaximum())
+				- minGainDB;
+		double cste = Math.log(10.0) / 20;
+		double valueDB = minGainDB + (1 / cste)
+				* Math.log(1 + (Math.exp(cste * ampGainDB) - 1) * gain);
+		control.setValue((float) valueDB);
+	}
+
+	/**
+	 * Stops every voice and closes the line
+	 */
+	public void close() {
+		open = false;
+		synchronized (voices) {
+			for (Voice voice : voices) {
+				voice.stopped = true;
+				voice.close();
+			}
+			voices.clear();
+		}
+		line.stop();
+		line.flush();
+		line.close();
+	}
+
+	private void mix() {
+		int frames = (int) (format.getFrameRate() * BLOCK);
+		int samples = frames * format.getChannels();
+		byte[] block = new byte[samples * 2];
+		byte[] read = new byte[samples * 2];
+		int[] sum = new int[samples];
+		List<Voice> playing = new ArrayList<Voice>();
+
+		while (open) {
+			synchronized (voices) {
+				playing.clear();
+				playing.addAll(voices);
+			}
+			Arrays.fill(sum, 0);
+			// frame of the line this block starts at
+			long start = line.getLongFramePosition()
+					+ (line.getBufferSize() - line.available())
+					/ format.getFrameSize();
+			for (Voice voice : playing) {
+				int n = voice.read(read, read.length);
+				for (int i = 0; i < n / 2; i++)
+					sum[i] += (short) ((read[2 * i] & 0xff) | (read[2 * i + 1] << 8));
+				if (n < read.length && !voice.stopped) {
+					// all written: heard until the line gets past its end
+					voice.end = start + n / format.getFrameSize();
+					synchronized (voices) {
+						voices.remove(voice);
+					}
+					voice.close();
+				}
+			}
+			for (int i = 0; i < samples; i++) {
+				int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+						sum[i]));
+				block[2 * i] = (byte) s;
+				block[2 * i + 1] = (byte) (s >> 8);
+			}
+			line.write(block, 0, block.length);
+		}
+	}
+}
@@ -15,7 +15,7 @@ public interface AudioPlayer {
 	/**
 	 * Initializes the AudioPlayer on a specific file. Should default to
 	 * allowing the use of variable speed (i.e. recording.wav becomes
-	 * recording_X.wav by default, where X is Globals.SOUND_SPEED).
+	 * recording_X.wav by default, where X is the sound speed of the session).
 	 * 
 	 * @param filename
 	 *            The file to be opened
@@ -10,7 +10,12 @@
  ******************************************************************************/
 package edu.gwu.audio;
 
+import java.io.IOException;
+
+import javax.sound.sampled.LineUnavailableException;
+
 import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
 
 public class AudioPlayerFactory {
 	public AudioPlayerFactory(){}
@@ -21,18 +26,50 @@ public class AudioPlayerFactory {
 	 * This method and class can be updated if and when we add support for more audio file types. 
 	 */
 	public static AudioPlayer getAudioPlayer(String file, boolean speedOption) {
+		return getAudioPlayer(file, speedOption, VotingSession.getDefault());
+	}
+
+	/**
+	 * Same as {@link #getAudioPlayer(String, boolean)}, taking the sound speed
+	 * and gain from the given session
+	 */
+	public static AudioPlayer getAudioPlayer(String file, boolean speedOption,
+			VotingSession session) {
+		return session.getAudioPlayerFactory().newAudioPlayer(file,
+				speedOption, session);
+	}
+
+	/**
+	 * Makes the player for a file of the session. Every player a session gets
+	 * comes from its factory, so a test can hand out players that make no
+	 * sound.
+	 */
+	public AudioPlayer newAudioPlayer(String file, boolean speedOption,
+			VotingSession session) {
 		AudioPlayer player=null;
 		
 		String[] fileName = file.split("\\.");
 		String suffix = fileName[fileName.length - 1]; //the last part of the filename, should be the file extension. 
 		
 		
-		//TODO: in case of audioplayerexception, try automatically creating a different player
+		boolean known = suffix.compareToIgnoreCase("wav") == 0
+				|| suffix.compareToIgnoreCase("mp3") == 0;
+		// recordings are deleted right after being played, keep them out of
+		// the cache
+		ClipCache cache = ClipCache.forSession(session);
+		if (known && cache.isEnabled() && !file.contains("recording.wav")) {
+			try {
+				return new AudioPlayerPCM(file, speedOption, session, cache);
+			} catch (AudioPlayerException e) {
+				Print.debug("Could not decode " + file + ", playing it from disk: " + e);
+			}
+		}
+
 		if(suffix.compareToIgnoreCase("wav") == 0){
-			player = new AudioPlayerWav(file, speedOption);
+			player = new AudioPlayerWav(file, speedOption, session);
 		}		
 		else if(suffix.compareToIgnoreCase("mp3") == 0){
-			player = new AudioPlayerJlGUI(file, speedOption);
+			player = new AudioPlayerJlGUI(file, speedOption, session);
 		}
 		else {
 			Print.debug("NO COMPATIBLE AUDIO PLAYER: " + file);
@@ -40,4 +77,30 @@ public class AudioPlayerFactory {
 		}
 		return player;
 	}
+
+	/**
+	 * Joins the players of the files of a state into one player that plays
+	 * them back to back, without gaps
+	 * 
+	 * @return the joined player, null if these players can't be joined (the
+	 *         state then starts each one when the one before is over)
+	 */
+	public AudioPlayer newPlaylist(AudioPlayer[] players, VotingSession session) {
+		return AudioPlayerPCM.join(players, session);
+	}
+
+	/**
+	 * Records a write-in from the microphone, in the background. Recordings
+	 * go through the factory of the session too, so a test can record
+	 * without a microphone.
+	 * 
+	 * @param seconds
+	 *            length of the recording
+	 * @param file
+	 *            the wav file to write
+	 */
+	public void record(int seconds, String file)
+			throws LineUnavailableException, IOException {
+		AudioCapture.captureAndSaveToFile(seconds, file);
+	}
 }
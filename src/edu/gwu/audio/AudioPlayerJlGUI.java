@@ -2,20 +2,13 @@ package edu.gwu.audio;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
-
-import org.tritonus.share.sampled.file.TAudioFileFormat;
-
 import javazoom.jlgui.basicplayer.*;
 
-import edu.gwu.election.Globals;
 import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
 
 public class AudioPlayerJlGUI implements AudioPlayer {
 
@@ -24,7 +17,19 @@ public class AudioPlayerJlGUI implements AudioPlayer {
 	File file;
 	boolean withSpeed;
 
+	VotingSession session;
+
 	public AudioPlayerJlGUI(String filename, boolean speedOption) {
+		this(filename, speedOption, VotingSession.getDefault());
+	}
+
+	/**
+	 * @param session
+	 *            the session giving the sound speed and gain
+	 */
+	public AudioPlayerJlGUI(String filename, boolean speedOption,
+			VotingSession session) {
+		this.session = session;
 
 		Logger.getLogger(BasicPlayer.class.getName()).setLevel(Level.OFF);
 		if (player == null) {
@@ -33,7 +38,7 @@ public class AudioPlayerJlGUI implements AudioPlayer {
 
 		if (speedOption && !filename.contains("+")) {
 			filename = "" + filename.substring(0, filename.length() - 4) + "_"
-					+ Integer.toString(Globals.SOUND_SPEED) + ".mp3";
+					+ Integer.toString(session.getSoundSpeed()) + ".mp3";
 		}
 
 		withSpeed = speedOption;
@@ -86,7 +91,7 @@ public class AudioPlayerJlGUI implements AudioPlayer {
 		}
 		try {
 			player.play();
-			player.setGain(Globals.GAIN);
+			player.setGain(session.getGain());
 		} catch (BasicPlayerException e) {
 			e.printStackTrace();
 		}
@@ -111,33 +116,7 @@ public class AudioPlayerJlGUI implements AudioPlayer {
 	}
 
 	public long getDuration() {
-		AudioFileFormat fileFormat;
-		try {
-			fileFormat = AudioSystem.getAudioFileFormat(file);
-			// System.out.println(fileFormat.getClass().getName());
-			if (fileFormat instanceof TAudioFileFormat) {
-				Map<?, ?> properties = ((TAudioFileFormat) fileFormat)
-						.properties();
-				String key = "duration";
-				// System.out.println("properties: " + properties);
-				Long microseconds = (Long) properties.get(key);
-				long mili = (microseconds / 1000);
-				// int milis = (int) mili;
-				// int sec = (milis / 1000) % 60;
-				// int min = (milis / 1000) / 60;
-				// System.out.println("time = " + min + ":" + sec);
-				return mili;
-			} else {
-				Print.debug("ERROR IN GETDURATION");
-			}
-		} catch (UnsupportedAudioFileException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return -1;
+		return DurationIndex.getDefault().getDuration(file);
 	}
 
 	public void releaseResources() {
@@ -21,19 +21,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Map;
-
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
 
 import javazoom.jl.decoder.JavaLayerException;
 import javazoom.jl.player.advanced.AdvancedPlayer;
 
-import org.tritonus.share.sampled.file.TAudioFileFormat;
-
-import edu.gwu.election.Globals;
 import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
 
 /**
  * @author John Wittrock
@@ -48,10 +41,19 @@ public class AudioPlayerMPEG implements AudioPlayer {
 	int start = 0;
 
 	public AudioPlayerMPEG(String filename, boolean speedOption) {
+		this(filename, speedOption, VotingSession.getDefault());
+	}
+
+	/**
+	 * @param session
+	 *            the session giving the sound speed
+	 */
+	public AudioPlayerMPEG(String filename, boolean speedOption,
+			VotingSession session) {
 		// file = filename;
 		if (speedOption && !filename.contains("+")) {
 			filename = "" + filename.substring(0, filename.length() - 4) + "_"
-					+ Integer.toString(Globals.SOUND_SPEED) + ".mp3";
+					+ Integer.toString(session.getSoundSpeed()) + ".mp3";
 		}
 		file = filename;
 		if (speedOption)
@@ -61,38 +63,11 @@ public class AudioPlayerMPEG implements AudioPlayer {
 	}
 
 	/**
-	 * @return 0 if there was an error or the file actually has a duration of
-	 *         zero, the duration of the file otherwise.
-	 * @throws UnsupportedAudioFileException
+	 * @return -1 if there was an error, the duration of the file in
+	 *         milliseconds otherwise.
 	 */
 	public long getDuration() {
-		AudioFileFormat fileFormat;
-		try {
-			fileFormat = AudioSystem.getAudioFileFormat(new File(file));
-			// System.out.println(fileFormat.getClass().getName());
-			if (fileFormat instanceof TAudioFileFormat) {
-				Map<?, ?> properties = ((TAudioFileFormat) fileFormat)
-						.properties();
-				String key = "duration";
-				// System.out.println("properties: " + properties);
-				Long microseconds = (Long) properties.get(key);
-				long mili = (microseconds / 1000);
-				// int milis = (int) mili;
-				// int sec = (milis / 1000) % 60;
-				// int min = (milis / 1000) / 60;
-				// System.out.println("time = " + min + ":" + sec);
-				return mili;
-			} else {
-				Print.debug("ERROR IN GETDURATION");
-			}
-		} catch (UnsupportedAudioFileException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return -1;
+		return DurationIndex.getDefault().getDuration(new File(file));
 	}
 
 	/*
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import edu.gwu.election.ContentManifest;
+import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
+
+/**
+ * Plays wav and mp3 files from their decoded samples in a {@link ClipCache},
+ * so a file played again starts without being read or decoded. The clips
+ * are played on the {@link AudioOutput} of the session.
+ *
+ * A player can also play several clips back to back ({@link #join}): the
+ * samples of the next clip are mixed right after the ones of the clip
+ * before, so there is no gap between them. Stopping throws away what was
+ * queued, so the sound stops at once.
+ */
+public class AudioPlayerPCM implements AudioPlayer {
+
+	private PcmClip[] clips;
+	private volatile AudioOutput.Voice voice;
+	private VotingSession session;
+	// frame the next start plays from, counted over all the clips
+	private long startFrame = 0;
+
+	/**
+	 * Opens the file and decodes it, unless the cache has it
+	 *
+	 * @param file
+	 *            the file, before the speed is added to its name
+	 * @param speedOption
+	 *            whether to play the file for the speed of the session
+	 * @param session
+	 *            the session giving the sound speed and gain
+	 * @param cache
+	 *            the decoded clips
+	 */
+	public AudioPlayerPCM(String file, boolean speedOption,
+			VotingSession session, ClipCache cache) {
+		this.session = session;
+		File resolved = resolve(file, speedOption, session.getSoundSpeed());
+		Print.debug("Opening file: " + resolved);
+		try {
+			clips = new PcmClip[] { cache.get(resolved, session
+					.getSoundSpeed()) };
+		} catch (UnsupportedAudioFileException e) {
+			throw new AudioPlayerException(e);
+		} catch (IOException e) {
+			throw new AudioPlayerException(e);
+		}
+	}
+
+	private AudioPlayerPCM(PcmClip[] clips, VotingSession session) {
+		this.clips = clips;
+		this.session = session;
+	}
+
+	/**
+	 * @param players
+	 *            the players of the files, in order
+	 * @param session
+	 *            the session giving the gain
+	 * @return one player playing the clips of all the players without gaps,
+	 *         null if some of them are not AudioPlayerPCMs
+	 */
+	public static AudioPlayerPCM join(AudioPlayer[] players,
+			VotingSession session) {
+		int n = 0;
+		for (AudioPlayer player : players) {
+			if (!(player instanceof AudioPlayerPCM))
+				return null;
+			n += ((AudioPlayerPCM) player).clips.length;
+		}
+		PcmClip[] joined = new PcmClip[n];
+		n = 0;
+		for (AudioPlayer player : players) {
+			PcmClip[] clips = ((AudioPlayerPCM) player).clips;
+			System.arraycopy(clips, 0, joined, n, clips.length);
+			n += clips.length;
+		}
+		return new AudioPlayerPCM(joined, session);
+	}
+
+	/**
+	 * Finds the file the other players would play in the
+	 * {@link ContentManifest}: the one for the speed, or the same name with
+	 * the other extension
+	 */
+	static File resolve(String filename, boolean speedOption, int speed) {
+		ContentManifest manifest = ContentManifest.getDefault();
+		String file = speedOption ? manifest.resolve(filename, speed)
+				: manifest.resolve(filename);
+		if (file == null) {
+			Print.debug("File does not exist in any supported file types: "
+					+ new File(filename).getAbsolutePath());
+			throw new AudioPlayerException(new IOException("No sound file "
+					+ filename));
+		}
+		return new File(file);
+	}
+
+	// the clip is opened in the constructor
+	public void openFile(String filename) {
+	}
+
+	public void openFileNoSpeedOption(String fileName) {
+	}
+
+	public void startPlaying() {
+		ByteBuffer[] data = new ByteBuffer[clips.length];
+		long skip = startFrame;
+		for (int i = 0; i < clips.length; i++) {
+			data[i] = clips[i].getData();
+			long skipped = Math.min(skip, clips[i].getFrames());
+			data[i].position((int) skipped
+					* clips[i].getFormat().getFrameSize());
+			skip -= skipped;
+		}
+		AudioOutput output = session.getAudioOutput();
+		// like the other players, start at the volume of the session
+		output.setGain(session.getGain());
+		voice = output.play(data);
+	}
+
+	public boolean isPlaying() {
+		AudioOutput.Voice playing = voice;
+		return playing != null && playing.isPlaying();
+	}
+
+	public void stop() {
+		AudioOutput.Voice playing = voice;
+		if (playing != null)
+			playing.stop();
+	}
+
+	/**
+	 * Sets where the next {@link #startPlaying} starts; the clips are played
+	 * from a buffer of their own each time, so a voice already playing is
+	 * not moved
+	 *
+	 * @param frame
+	 *            the frame, counted from the start of the first clip
+	 */
+	public void setFramePosition(int frame) {
+		startFrame = Math.max(0, frame);
+	}
+
+	/**
+	 * @return duration in milliseconds, of all the clips
+	 */
+	public long getDuration() {
+		// added up in frames, so no millisecond is lost per clip
+		long frames = 0;
+		for (PcmClip clip : clips)
+			frames += clip.getFrames();
+		return (long) (frames * 1000 / clips[0].getFormat().getFrameRate());
+	}
+
+	public void releaseResources() {
+		stop();
+	}
+
+	/**
+	 * Sets the volume of the output of the session
+	 *
+	 * @param gain
+	 *            between 0 and 1
+	 */
+	public void setGain(double gain) {
+		session.getAudioOutput().setGain(gain);
+	}
+}
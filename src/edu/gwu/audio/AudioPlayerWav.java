@@ -16,13 +16,10 @@ import java.io.IOException;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
-import edu.gwu.election.Globals;
 import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
 
 /**
  * @author John Wittrock
@@ -30,18 +27,22 @@ import edu.gwu.election.Print;
  */
 public class AudioPlayerWav implements AudioPlayer {
 
-	private static final int EXTERNAL_BUFFER_SIZE = 1024; // A variable which
-															// allows us to set
-															// the size of the
-															// buffer that will
-															// hold audio data.
-	private SourceDataLine line;
 	private AudioInputStream audioInputStream;
 	AudioFormat audioFormat;
-	private boolean isPlaying = false;
-	Thread playThread;
+	// the file playing on the output of the session
+	private volatile AudioOutput.Voice voice;
+	private VotingSession session;
 
 	public AudioPlayerWav() {
+		this(VotingSession.getDefault());
+	}
+
+	/**
+	 * @param session
+	 *            the session giving the sound speed
+	 */
+	public AudioPlayerWav(VotingSession session) {
+		this.session = session;
 	}
 
 	/**
@@ -50,6 +51,19 @@ public class AudioPlayerWav implements AudioPlayer {
 	 * @param speedOption
 	 */
 	public AudioPlayerWav(String file, boolean speedOption) {
+		this(file, speedOption, VotingSession.getDefault());
+	}
+
+	/**
+	 * @param file
+	 *            Automatically tries to open the file given.
+	 * @param speedOption
+	 * @param session
+	 *            the session giving the sound speed
+	 */
+	public AudioPlayerWav(String file, boolean speedOption,
+			VotingSession session) {
+		this.session = session;
 		if (speedOption)
 			openFile(file);
 		else
@@ -68,7 +82,7 @@ public class AudioPlayerWav implements AudioPlayer {
 	private void doOpenFile(String filename, boolean speedOption) {
 		if (speedOption && !filename.contains("recording.wav") && !filename.contains("+")) {
 			filename = "" + filename.substring(0, filename.length() - 4) + "_"
-					+ Integer.toString(Globals.SOUND_SPEED) + ".wav";
+					+ Integer.toString(session.getSoundSpeed()) + ".wav";
 		}
 		try {
 			File file = new File(filename);
@@ -86,17 +100,10 @@ public class AudioPlayerWav implements AudioPlayer {
 			}
 			audioInputStream = AudioSystem.getAudioInputStream(file);
 			audioFormat = audioInputStream.getFormat();
-			DataLine.Info info = new DataLine.Info(SourceDataLine.class,
-					audioFormat);
-			line = (SourceDataLine) AudioSystem.getLine(info);
-			line.open(audioFormat);
-			line.start(); // activate the line to pass data to the sound card.
 		} catch (UnsupportedAudioFileException e) {
 			throw new AudioPlayerException(e);
 		} catch (IOException e) {
 			throw new AudioPlayerException(e);
-		} catch (LineUnavailableException e) {
-			throw new AudioPlayerException(e);
 		}
 	}
 
@@ -112,47 +119,14 @@ public class AudioPlayerWav implements AudioPlayer {
 	 */
 	public void startPlaying() {
 		//Print.debug("Playing wav!");
-		playThread = new Thread() {
-			public void run() {
-				isPlaying = true;
-				int nBytesRead = 0;
-				byte[] abData = new byte[EXTERNAL_BUFFER_SIZE];
-				while (nBytesRead != -1 && isPlaying) {
-
-					try {
-						nBytesRead = audioInputStream.read(abData, 0,
-								abData.length);
-					} catch (IOException e) {
-						// throw new AudioPlayerException(
-						// "Caught IOException in AudioPlayerWav.startPlaying",
-						// e);
-					}
-					if (nBytesRead >= 0) {
-						line.write(abData, 0, nBytesRead);
-					}
-				}
-				if (line != null) {
-					line.drain();
-				}
-				if (line != null) {
-					line.close();
-				}
-				try {
-					if (audioInputStream != null)
-						audioInputStream.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				audioInputStream = null;
-				line = null;
-				// have to run the garbage collector to be able to delete the
-				// file later. specifically recording.wav
-				System.gc();
-				isPlaying = false;
-			}
-		};
-		playThread.start();
+		try {
+			// converted to the format of the output, which closes the file
+			// once it is played
+			voice = session.getAudioOutput().play(audioInputStream);
+		} catch (IllegalArgumentException e) {
+			// no conversion to the format of the output
+			throw new AudioPlayerException(e);
+		}
 	}
 
 	/*
@@ -161,7 +135,8 @@ public class AudioPlayerWav implements AudioPlayer {
 	 * @see edu.gwu.audio.AudioPlayer#isPlaying()
 	 */
 	public boolean isPlaying() {
-		return isPlaying;
+		AudioOutput.Voice playing = voice;
+		return playing != null && playing.isPlaying();
 	}
 
 	/*
@@ -172,18 +147,13 @@ public class AudioPlayerWav implements AudioPlayer {
 	public void stop() {
 		// line.drain();
 		if (isPlaying()) {
-			isPlaying = false;
-			line.stop();
-			// line.drain();
-			line.flush();
-			line.close();
+			voice.stop();
 			try {
 				audioInputStream.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 			audioInputStream = null;
-			line = null;
 			// have to run the garbage collector to be able to delete the
 			// file later. specifically recording.wav
 			System.gc();
@@ -231,9 +201,8 @@ public class AudioPlayerWav implements AudioPlayer {
 
 	public void releaseResources() {
 
-		if (line != null) {
-			line.flush();
-			line.close();
+		if (voice != null) {
+			voice.stop();
 		}
 		if (audioInputStream != null) {
 			try {
@@ -244,7 +213,6 @@ public class AudioPlayerWav implements AudioPlayer {
 			}
 		}
 		audioInputStream = null;
-		line = null;
 		// have to run the garbage collector to be able to delete the
 		// file later. specifically recording.wav
 		System.gc();
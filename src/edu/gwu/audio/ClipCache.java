@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import edu.gwu.election.ContentManifest;
+import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
+
+/**
+ * Decoded sound files, so the prompts played over and over (ToContinue,
+ * the candidate names) are read and decoded once. The clips are kept up to a
+ * number of bytes of samples; past that the least recently played ones are
+ * dropped.
+ *
+ * The samples are converted to the format of the {@link AudioOutput} they
+ * are played on.
+ *
+ * Clips are found by the path of the file actually played and the sound
+ * speed. The file is not looked at again once decoded: a file rewritten
+ * while the booth runs (the answer files the election copies for each voter)
+ * must be {@link #invalidate}d.
+ */
+public class ClipCache {
+
+	// by the settings of the sessions using them
+	private static Map<String, ClipCache> caches = new HashMap<String, ClipCache>();
+
+	private final long budget;
+	private final boolean offHeap;
+	private final AudioFormat format;
+	private long size = 0;
+	private int hits = 0;
+	private int misses = 0;
+	// in access order, the eldest is the least recently played
+	private LinkedHashMap<String, PcmClip> clips = new LinkedHashMap<String, PcmClip>(
+			64, 0.75f, true);
+
+	/**
+	 * @param budget
+	 *            bytes of samples to keep, 0 to keep none
+	 * @param offHeap
+	 *            true to keep the samples outside of the Java heap
+	 * @param format
+	 *            the format to convert the clips to
+	 */
+	public ClipCache(long budget, boolean offHeap, AudioFormat format) {
+		this.budget = budget;
+		this.offHeap = offHeap;
+		this.format = format;
+	}
+
+	/**
+	 * @return the cache of a session, sized by its ClipCacheMB (32 if not
+	 *         set, 0 to play every file from disk) and ClipCacheOffHeap
+	 *         properties, converting to the format of its AudioOutput.
+	 *         Sessions with the same settings share one cache.
+	 */
+	public static synchronized ClipCache forSession(VotingSession session) {
+		String megabytes = session.getProperty("ClipCacheMB");
+		String offHeap = session.getProperty("ClipCacheOffHeap");
+		long budget = (megabytes == null ? 32 : Long.parseLong(megabytes
+				.trim())) * 1024 * 1024;
+		boolean direct = offHeap != null
+				&& offHeap.trim().equalsIgnoreCase("TRUE");
+		AudioFormat format = AudioOutput.getDefaultFormat(session);
+		String settings = budget + "|" + direct + "|" + format;
+		ClipCache cache = caches.get(settings);
+		if (cache == null) {
+			cache = new ClipCache(budget, direct, format);
+			caches.put(settings, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Drops every clip of a file from the caches of all the sessions
+	 *
+	 * @param file
+	 *            a file that was rewritten or deleted
+	 */
+	public static void invalidateAll(File file) {
+		ClipCache[] all;
+		synchronized (ClipCache.class) {
+			all = caches.values().toArray(new ClipCache[caches.size()]);
+		}
+		for (ClipCache cache : all)
+			cache.invalidate(file);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public boolean isEnabled() {
+		return budget > 0;
+	}
+
+	/**
+	 * @param file
+	 *            the file to play, after the speed and extension are chosen
+	 * @param speed
+	 *            the sound speed it is played at
+	 * @return the decoded clip, decoded now if it is not kept yet
+	 */
+	public PcmClip get(File file, int speed) throws IOException,
+			UnsupportedAudioFileException {
+		String key = ContentManifest.key(file) + "|" + speed;
+		synchronized (this) {
+			PcmClip clip = clips.get(key);
+			if (clip != null) {
+				hits++;
+				return clip;
+			}
+			misses++;
+		}
+
+		// decoded outside of the lock, so other sessions can go on playing
+		PcmClip clip = PcmClip.decode(file, offHeap, format);
+		if (clip.size() <= budget)
+			synchronized (this) {
+				PcmClip old = clips.put(key, clip);
+				if (old != null)
+					size -= old.size();
+				size += clip.size();
+				evict();
+			}
+		return clip;
+	}
+
+	/**
+	 * Drops every clip of a file, whatever its speed
+	 *
+	 * @param file
+	 *            a file that was rewritten or deleted
+	 */
+	public synchronized void invalidate(File file) {
+		String prefix = ContentManifest.key(file) + "|";
+		Iterator<Map.Entry<String, PcmClip>> i = clips.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<String, PcmClip> entry = i.next();
+			if (entry.getKey().startsWith(prefix)) {
+				size -= entry.getValue().size();
+				i.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		clips.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return bytes of samples kept
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	private void evict() {
+		Iterator<PcmClip> i = clips.values().iterator();
+		while (size > budget && i.hasNext()) {
+			PcmClip clip = i.next();
+			size -= clip.size();
+			i.remove();
+			Print.debug("ClipCache: dropped a clip, " + size + " bytes kept");
+		}
+	}
+}
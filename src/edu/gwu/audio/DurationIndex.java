@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.audio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+import org.tritonus.share.sampled.file.TAudioFileFormat;
+
+import edu.gwu.election.ContentManifest;
+import edu.gwu.election.Print;
+
+/**
+ * Durations of the sound files, so the players don't parse the header of a
+ * file every time its duration is asked for. The files of a content folder
+ * are measured once, in parallel, and the durations are saved next to them
+ * (in durations.idx); the next start only measures the files that were
+ * added or changed since.
+ *
+ * A file rewritten while the booth runs must be {@link #invalidate}d.
+ */
+public class DurationIndex {
+
+	public static final String FILE_NAME = "durations.idx";
+	private static final int VERSION = 1;
+
+	private static DurationIndex defaultIndex = null;
+
+	private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private Set<String> indexed = new HashSet<String>();
+
+	private static class Entry {
+		long lastModified;
+		long length;
+		long duration;
+
+		Entry(long lastModified, long length, long duration) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.duration = duration;
+		}
+
+		boolean matches(File file) {
+			return file.lastModified() == lastModified
+					&& file.length() == length;
+		}
+	}
+
+	/**
+	 * @return the index of the booth
+	 */
+	public static synchronized DurationIndex getDefault() {
+		if (defaultIndex == null)
+			defaultIndex = new DurationIndex();
+		return defaultIndex;
+	}
+
+	/**
+	 * Measures the sound files of a folder and its subfolders that are not
+	 * in its saved index, or that changed since, and saves the index again.
+	 * A folder is only indexed once.
+	 *
+	 * @param folder
+	 *            the content folder
+	 */
+	public void index(File folder) {
+		String key = ContentManifest.key(folder);
+		synchronized (indexed) {
+			if (!indexed.add(key))
+				return;
+		}
+		long start = System.currentTimeMillis();
+		File saved = new File(folder, FILE_NAME);
+		Map<String, Entry> known = read(saved);
+
+		List<File> files = new ArrayList<File>();
+		list(folder, files);
+		final List<File> toMeasure = new ArrayList<File>();
+		for (File file : files) {
+			Entry entry = known.get(relative(folder, file));
+			if (entry != null && entry.matches(file))
+				entries.put(ContentManifest.key(file), entry);
+			else
+				toMeasure.add(file);
+		}
+
+		if (!toMeasure.isEmpty()) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<?>> parts = new ArrayList<Future<?>>();
+				for (final File file : toMeasure)
+					parts.add(pool.submit(new Callable<Object>() {
+						public Object call() {
+							entries.put(ContentManifest.key(file), new Entry(
+									file.lastModified(), file.length(),
+									measure(file)));
+							return null;
+						}
+					}));
+				for (Future<?> part : parts)
+					part.get();
+			} catch (Exception e) {
+				Print.debug("Could not measure the sound files of " + folder
+						+ ": " + e);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		if (!toMeasure.isEmpty() || known.size() != files.size())
+			write(saved, folder, files);
+		Print.debug("Indexed " + files.size() + " sound files of " + folder
+				+ ", measured " + toMeasure.size() + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return the duration in milliseconds, measured now if the file is not
+	 *         in the index; -1 if it can't be read
+	 */
+	public long getDuration(File file) {
+		String key = ContentManifest.key(file);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(file.lastModified(), file.length(),
+					measure(file));
+			entries.put(key, entry);
+		}
+		return entry.duration;
+	}
+
+	/**
+	 * Forgets the duration of a file that was rewritten or deleted
+	 */
+	public void invalidate(File file) {
+		entries.remove(ContentManifest.key(file));
+	}
+
+	/**
+	 * Reads the duration from the header of a file
+	 *
+	 * @return the duration in milliseconds, -1 if it can't be read
+	 */
+	public static long measure(File file) {
+		try {
+			AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+			if (fileFormat instanceof TAudioFileFormat) {
+				Long microseconds = (Long) ((TAudioFileFormat) fileFormat)
+						.properties().get("duration");
+				if (microseconds != null)
+					return microseconds / 1000;
+			}
+			AudioFormat format = fileFormat.getFormat();
+			if (fileFormat.getFrameLength() > 0 && format.getFrameRate() > 0)
+				return (long) (fileFormat.getFrameLength() * 1000L / format
+						.getFrameRate());
+		} catch (Exception e) {
+			Print.debug("Could not read the duration of " + file + ": " + e);
+		}
+		return -1;
+	}
+
+	private static void list(File folder, List<File> files) {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		for (File child : children) {
+			String name = child.getName().toLowerCase();
+			if (child.isDirectory())
+				list(child, files);
+			else if (name.endsWith(".mp3") || name.endsWith(".wav"))
+				files.add(child);
+		}
+	}
+
+	private static Map<String, Entry> read(File saved) {
+		Map<String, Entry> known = new ConcurrentHashMap<String, Entry>();
+		if (!saved.exists())
+			return known;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(saved)));
+			try {
+				if (in.readInt() != VERSION)
+					return known;
+				int n = in.readInt();
+				for (int i = 0; i < n; i++) {
+					String name = in.readUTF();
+					known.put(name, new Entry(in.readLong(), in.readLong(), in
+							.readLong()));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Print.debug("Could not read " + saved + ": " + e);
+			known.clear();
+		}
+		return known;
+	}
+
+	// failing to save is not fatal, the files are measured again next time
+	private void write(File saved, File folder, List<File> files) {
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(saved)));
+			try {
+				out.writeInt(VERSION);
+				List<File> measured = new ArrayList<File>();
+				for (File file : files)
+					if (entries.containsKey(ContentManifest.key(file)))
+						measured.add(file);
+				out.writeInt(measured.size());
+				for (File file : measured) {
+					Entry entry = entries.get(ContentManifest.key(file));
+					out.writeUTF(relative(folder, file));
+					out.writeLong(entry.lastModified);
+					out.writeLong(entry.length);
+					out.writeLong(entry.duration);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Print.debug("Could not save " + saved + ": " + e);
+		}
+	}
+
+	private static String relative(File folder, File file) {
+		return file.getPath().substring(folder.getPath().length());
+	}
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.audio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A sound file decoded to PCM, kept in memory so it can be played again
+ * without reading or decoding the file. The samples are never changed once
+ * decoded, so one clip can be played by several players at once.
+ */
+public class PcmClip {
+
+	private static final int EXTERNAL_BUFFER_SIZE = 16 * 1024;
+
+	private final AudioFormat format;
+	private final ByteBuffer data;
+
+	PcmClip(AudioFormat format, ByteBuffer data) {
+		this.format = format;
+		this.data = data;
+	}
+
+	/**
+	 * Decodes a wav or mp3 file to PCM
+	 *
+	 * @param file
+	 *            the sound file
+	 * @param offHeap
+	 *            true to keep the samples in a direct buffer, outside of the
+	 *            Java heap
+	 * @param target
+	 *            the format to convert the samples to (sample rate, channels),
+	 *            null for signed 16 bit PCM at the rate of the file (wav files
+	 *            already in PCM are kept as they are)
+	 */
+	public static PcmClip decode(File file, boolean offHeap,
+			AudioFormat target) throws IOException,
+			UnsupportedAudioFileException {
+		AudioInputStream in = AudioSystem.getAudioInputStream(file);
+		AudioInputStream pcm = null;
+		try {
+			AudioFormat base = in.getFormat();
+			if (base.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+					|| base.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED)
+				pcm = in;
+			else
+				pcm = AudioSystem.getAudioInputStream(new AudioFormat(
+						AudioFormat.Encoding.PCM_SIGNED, base.getSampleRate(),
+						16, base.getChannels(), base.getChannels() * 2, base
+								.getSampleRate(), false), in);
+			if (target != null && !pcm.getFormat().matches(target))
+				pcm = AudioSystem.getAudioInputStream(target, pcm);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[EXTERNAL_BUFFER_SIZE];
+			int n;
+			while ((n = pcm.read(buffer, 0, buffer.length)) != -1)
+				bytes.write(buffer, 0, n);
+
+			byte[] samples = bytes.toByteArray();
+			ByteBuffer data;
+			if (offHeap) {
+				data = ByteBuffer.allocateDirect(samples.length);
+				data.put(samples);
+				data.flip();
+			} else
+				data = ByteBuffer.wrap(samples);
+			return new PcmClip(pcm.getFormat(), data.asReadOnlyBuffer());
+		} finally {
+			// closed right away, so the file can be deleted or rewritten
+			if (pcm != null && pcm != in)
+				pcm.close();
+			in.close();
+		}
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return a buffer over the samples, with its own position, for one
+	 *         reader
+	 */
+	public ByteBuffer getData() {
+		return data.duplicate();
+	}
+
+	/**
+	 * @return size of the samples in bytes
+	 */
+	public int size() {
+		return data.capacity();
+	}
+
+	public long getFrames() {
+		return data.capacity() / format.getFrameSize();
+	}
+
+	/**
+	 * @return duration in milliseconds
+	 */
+	public long getDuration() {
+		return (long) (getFrames() * 1000 / format.getFrameRate());
+	}
+}
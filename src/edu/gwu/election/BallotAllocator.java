@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the pids of a ward in increasing order. The pids are kept in a
+ * sorted array with a cursor, so claiming a pid is constant time and safe to
+ * do from several threads, and resuming after a restart is a binary search
+ * for the last pid used.
+ */
+public class BallotAllocator {
+
+	public static final int NONE = -1;
+
+	private int[] pids;
+	private AtomicInteger cursor = new AtomicInteger(0);
+
+	/**
+	 * @param pids
+	 *            the pids that can be handed out, in any order
+	 */
+	public BallotAllocator(int[] pids) {
+		this.pids = pids.clone();
+		Arrays.sort(this.pids);
+	}
+
+	/**
+	 * @return an allocator for the pids 0 .. count-1
+	 */
+	public static BallotAllocator range(int count) {
+		int[] pids = new int[count];
+		for (int i = 0; i < count; i++)
+			pids[i] = i;
+		return new BallotAllocator(pids);
+	}
+
+	/**
+	 * Claims the next unused pid
+	 *
+	 * @return the pid, or NONE if every pid has been handed out
+	 */
+	public int claimNext() {
+		for (;;) {
+			int i = cursor.get();
+			if (i >= pids.length)
+				return NONE;
+			if (cursor.compareAndSet(i, i + 1))
+				return pids[i];
+		}
+	}
+
+	/**
+	 * Marks every pid up to and including lastUsed as used. The cursor only
+	 * moves forward.
+	 *
+	 * @param lastUsed
+	 *            the last pid known to be handed out
+	 */
+	public void skipPast(int lastUsed) {
+		int i = Arrays.binarySearch(pids, lastUsed);
+		int next = i >= 0 ? i + 1 : -i - 1;
+		for (;;) {
+			int current = cursor.get();
+			if (current >= next || cursor.compareAndSet(current, next))
+				return;
+		}
+	}
+
+	/**
+	 * Claims every pid not handed out yet, e.g. to give them back to a lease
+	 * service
+	 *
+	 * @return the pids, in increasing order
+	 */
+	public int[] drain() {
+		int i = cursor.getAndSet(pids.length);
+		if (i >= pids.length)
+			return new int[0];
+		return Arrays.copyOfRange(pids, i, pids.length);
+	}
+
+	/**
+	 * @return the number of pids not handed out yet
+	 */
+	public int remaining() {
+		return Math.max(0, pids.length - cursor.get());
+	}
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import edu.gwu.election.authoring.BallotCodeStore;
+import edu.gwu.election.authoring.BallotRow;
+
+/**
+ * Compiled form of a MeetingTwoPrints.xml file. The prints file is parsed
+ * once and written as a versioned binary file next to it; later starts map
+ * that file instead of parsing the XML again.
+ *
+ * The cache records the length, modification time and CRC32 of the XML it
+ * was compiled from. It is used only while those still match, otherwise it is
+ * compiled again.
+ *
+ * Layout (big endian): header, one (serial, offset) index entry per ballot,
+ * then one record per ballot holding its BallotRow and codes.
+ */
+public class BallotCache {
+
+	public static final String SUFFIX = ".cache";
+
+	private static final int MAGIC = 0x44524542; // "DREB"
+	static final int VERSION = 1;
+
+	private BallotCache() {
+	}
+
+	/**
+	 * @return the name of the cache file that belongs to a prints file
+	 */
+	public static String cacheFileFor(String pathToPrintsFile) {
+		return pathToPrintsFile + SUFFIX;
+	}
+
+	/**
+	 * Parses the prints file and writes its cache
+	 *
+	 * @throws Exception
+	 *             if the XML can't be parsed or the cache can't be written
+	 */
+	public static void compile(String pathToPrintsFile, String field,
+			boolean serial) throws Exception {
+		File source = new File(pathToPrintsFile);
+		long length = source.length();
+		long modified = source.lastModified();
+		long crc = checksum(source);
+
+		BallotPrintsHandler prints = BallotPrintsHandler.parse(
+				pathToPrintsFile, field, serial);
+		BallotCodeStore store = prints.getCodes();
+		TreeMap<Integer, BallotRow> rows = prints.getBallotRows();
+		int[] serials = prints.getSerialNumbers();
+		int numBallots = serials.length;
+
+		// records first, so the index can point into them
+		ByteArrayOutputStream records = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream out = new DataOutputStream(records);
+		int[] offsets = new int[numBallots];
+		for (int b = 0; b < numBallots; b++) {
+			offsets[b] = out.size();
+			writeBallotRow(out, rows.get(b));
+			TreeMap<Integer, TreeMap<Integer, String>> ballot = store
+					.getBallotCodes(serials[b]);
+			out.writeInt(ballot.size());
+			for (Map.Entry<Integer, TreeMap<Integer, String>> question : ballot
+					.entrySet()) {
+				out.writeInt(question.getKey());
+				out.writeInt(question.getValue().size());
+				for (Map.Entry<Integer, String> symbol : question.getValue()
+						.entrySet()) {
+					out.writeInt(symbol.getKey());
+					writeCode(out, symbol.getValue(), store.getCodeWidth());
+				}
+			}
+		}
+		out.flush();
+
+		File target = new File(cacheFileFor(pathToPrintsFile));
+		File temp = new File(target.getPath() + ".tmp");
+		DataOutputStream file = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			file.writeInt(MAGIC);
+			file.writeInt(VERSION);
+			file.writeLong(length);
+			file.writeLong(modified);
+			file.writeLong(crc);
+			writeString(file, field);
+			file.writeBoolean(serial);
+			file.writeInt(numBallots);
+			file.writeInt(store.getCodeWidth());
+			for (int b = 0; b < numBallots; b++) {
+				file.writeInt(serials[b]);
+				file.writeInt(offsets[b]);
+			}
+			records.writeTo(file);
+		} finally {
+			file.close();
+		}
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Could not replace " + target);
+		}
+		if (!temp.renameTo(target)) {
+			throw new IOException("Could not write " + target);
+		}
+	}
+
+	/**
+	 * Maps a cache file, once its header was checked against the prints file
+	 *
+	 * @return the mapped cache positioned after the header, or null if the
+	 *         cache is missing or stale
+	 */
+	static ByteBuffer map(String pathToPrintsFile, String field,
+			boolean serial) throws IOException {
+		File source = new File(pathToPrintsFile);
+		File cache = new File(cacheFileFor(pathToPrintsFile));
+		if (!cache.exists() || !source.exists())
+			return null;
+
+		// a stale cache is never mapped: a mapped file can't be deleted on
+		// Windows until the mapping is collected, so compile could not replace it
+		int headerLength = readHeader(source, cache, field, serial);
+		if (headerLength < 0)
+			return null;
+
+		MappedByteBuffer in;
+		RandomAccessFile file = new RandomAccessFile(cache, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+		in.position(headerLength);
+		return in;
+	}
+
+	/**
+	 * Reads the header of a cache file with a plain stream
+	 *
+	 * @return the length of the header, or -1 if the cache was compiled from a
+	 *         different file, field or version
+	 */
+	private static int readHeader(File source, File cache, String field,
+			boolean serial) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(cache), 256));
+		try {
+			if (cache.length() < 32 || in.readInt() != MAGIC
+					|| in.readInt() != VERSION)
+				return -1;
+			long length = in.readLong();
+			long modified = in.readLong();
+			long crc = in.readLong();
+			int fieldLength = in.readInt();
+			if (fieldLength < 0 || fieldLength > 256)
+				return -1;
+			byte[] fieldBytes = new byte[fieldLength];
+			in.readFully(fieldBytes);
+			if (!field.equals(new String(fieldBytes, "UTF-8"))
+					|| serial != in.readBoolean())
+				return -1;
+			if (length != source.length())
+				return -1;
+			// same size and timestamp is taken as unchanged, otherwise only the
+			// contents decide (e.g. the file was copied to the booth)
+			if (modified != source.lastModified() && crc != checksum(source))
+				return -1;
+			return 32 + 4 + fieldLength + 1;
+		} finally {
+			in.close();
+		}
+	}
+
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				crc.update(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	static void readCodes(ByteBuffer in, int codeWidth,
+			BallotCodeStore.Builder builder) {
+		char[] code = new char[codeWidth];
+		int numQuestions = in.getInt();
+		for (int q = 0; q < numQuestions; q++) {
+			builder.startQuestion(in.getInt());
+			int numSymbols = in.getInt();
+			for (int s = 0; s < numSymbols; s++) {
+				int symbolId = in.getInt();
+				int length = 0;
+				for (int i = 0; i < codeWidth; i++) {
+					byte c = in.get();
+					if (c != 0)
+						code[length++] = (char) (c & 0xff);
+				}
+				builder.addSymbol(symbolId, length == 0 ? null : new String(
+						code, 0, length));
+			}
+		}
+	}
+
+	private static void writeCode(DataOutputStream out, String code, int width)
+			throws IOException {
+		int length = code == null ? 0 : code.length();
+		for (int i = 0; i < width; i++)
+			out.writeByte(i < length ? code.charAt(i) : 0);
+	}
+
+	private static void writeBallotRow(DataOutputStream out, BallotRow row)
+			throws IOException {
+		out.writeInt(row.getPid());
+		writeString(out, row.getBarcodeSerial());
+		writeBytes(out, row.getBarcodeSerialCommitment());
+		writeBytes(out, row.getBarcodeSerialSalt());
+		writeString(out, row.getWebSerial());
+		writeBytes(out, row.getWebSerialCommitment());
+		writeBytes(out, row.getWebSerialSalt());
+		writeString(out, row.getStubSerial());
+		writeBytes(out, row.getStubSerialCommitment());
+		writeBytes(out, row.getStubSerialSalt());
+	}
+
+	static BallotRow readBallotRow(ByteBuffer in) {
+		BallotRow row = new BallotRow();
+		row.setPid(in.getInt());
+		row.setBarcodeSerial(readString(in));
+		row.setBarcodeSerialCommitment(readBytes(in));
+		row.setBarcodeSerialSalt(readBytes(in));
+		row.setWebSerial(readString(in));
+		row.setWebSerialCommitment(readBytes(in));
+		row.setWebSerialSalt(readBytes(in));
+		row.setStubSerial(readString(in));
+		row.setStubSerialCommitment(readBytes(in));
+		row.setStubSerialSalt(readBytes(in));
+		return row;
+	}
+
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		writeBytes(out, s == null ? null : s.getBytes("UTF-8"));
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = readBytes(in);
+		if (bytes == null)
+			return null;
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (IOException e) {
+			throw new ScantegrityException(e);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes)
+			throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Compiles the cache of the given prints files ahead of time
+	 *
+	 * @param args
+	 *            paths to MeetingTwoPrints.xml files
+	 */
+	public static void main(String[] args) throws Exception {
+		for (String prints : args) {
+			long start = System.currentTimeMillis();
+			compile(prints, "code", true);
+			System.out.println("Compiled " + cacheFileFor(prints) + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import edu.gwu.election.authoring.BallotCodeStore;
+import edu.gwu.election.authoring.BallotRow;
+
+/**
+ * Lazy view of a compiled prints file ({@link BallotCache}). Only the mapped
+ * index is kept; a ballot's row and codes are decoded when it is asked for,
+ * so the heap used does not depend on the number of ballots in the ward.
+ */
+public class BallotIndex {
+
+	private ByteBuffer cache;
+	private int numBallots;
+	private int codeWidth;
+
+	// absolute positions of the (serial, offset) table and of the records
+	private int indexStart;
+	private int recordStart;
+
+	private BallotIndex(ByteBuffer cache) {
+		this.cache = cache;
+		numBallots = cache.getInt();
+		codeWidth = cache.getInt();
+		indexStart = cache.position();
+		recordStart = indexStart + 8 * numBallots;
+	}
+
+	/**
+	 * Maps the cache of a prints file, compiling it first if it is missing or
+	 * out of date
+	 *
+	 * @param pathToPrintsFile
+	 *            path to XML file
+	 * @param field
+	 *            the symbol attribute that is requested
+	 * @param serial
+	 *            whether ballots are keyed by barcode serial (true) or pid
+	 *            (false)
+	 * @throws Exception
+	 *             if the XML can't be parsed or the cache can't be written
+	 */
+	public static BallotIndex open(String pathToPrintsFile, String field,
+			boolean serial) throws Exception {
+		ByteBuffer cache = null;
+		try {
+			cache = BallotCache.map(pathToPrintsFile, field, serial);
+		} catch (IOException e) {
+			Print.debug("Ignoring unreadable ballot cache: " + e);
+		}
+		if (cache == null) {
+			Print.debug("Compiling ballot cache for " + pathToPrintsFile);
+			BallotCache.compile(pathToPrintsFile, field, serial);
+			cache = BallotCache.map(pathToPrintsFile, field, serial);
+			if (cache == null) {
+				throw new IOException("Could not read back the ballot cache "
+						+ BallotCache.cacheFileFor(pathToPrintsFile));
+			}
+		}
+		return new BallotIndex(cache);
+	}
+
+	/**
+	 * @param electionFolder
+	 *            the folder of the election, ending in a separator
+	 * @return the private prints file of a ward
+	 */
+	public static String getPrintsFile(String electionFolder, String ward) {
+		return electionFolder + "private/" + ward + "/MeetingTwoPrints.xml";
+	}
+
+	/**
+	 * @return number of ballots in the prints file
+	 */
+	public int size() {
+		return numBallots;
+	}
+
+	/**
+	 * @param index
+	 *            position of the ballot in the prints file
+	 * @return its printed serial
+	 */
+	public int getSerial(int index) {
+		checkIndex(index);
+		return cache.getInt(indexStart + 8 * index);
+	}
+
+	/**
+	 * Decodes the row of a single ballot
+	 *
+	 * @param index
+	 *            position of the ballot in the prints file
+	 */
+	public BallotRow getBallotRow(int index) {
+		return BallotCache.readBallotRow(seek(index));
+	}
+
+	/**
+	 * Decodes the codes of a single ballot
+	 *
+	 * @param index
+	 *            position of the ballot in the prints file
+	 * @return a store holding only that ballot, under its printed serial
+	 */
+	public BallotCodeStore getBallotCodes(int index) {
+		ByteBuffer record = seek(index);
+		BallotCache.readBallotRow(record);
+		BallotCodeStore.Builder builder = new BallotCodeStore.Builder();
+		builder.startBallot(getSerial(index));
+		BallotCache.readCodes(record, codeWidth, builder);
+		return builder.build();
+	}
+
+	private ByteBuffer seek(int index) {
+		checkIndex(index);
+		// each caller gets its own position over the shared mapping
+		ByteBuffer record = cache.duplicate();
+		record.position(recordStart + cache.getInt(indexStart + 8 * index + 4));
+		return record;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= numBallots)
+			throw new ScantegrityException("No ballot " + index + " of "
+					+ numBallots + " in the prints file");
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the ballots (pids) handed out in a ward. Each entry
+ * is a fixed size record of the pid and its CRC32, so the last pid is found by
+ * reading the end of the file only, and a record torn by a crash is detected
+ * and skipped.
+ *
+ * Records are forced to disk every JournalSyncEvery appends (1 by default,
+ * i.e. every voter); a larger value trades the last few records on power loss
+ * for fewer disk syncs.
+ *
+ * The booths of a process share one journal per ward ({@link #open}), so
+ * their records are appended one after the other instead of written over
+ * each other at the position each booth opened the file at.
+ */
+public class BallotJournal {
+
+	private static final int RECORD = 8;
+	public static final int NONE = -1;
+
+	// journals open in the process, by ward
+	private static HashMap<String, BallotJournal> journals = new HashMap<String, BallotJournal>();
+
+	private String ward;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer record = ByteBuffer.allocate(RECORD);
+	private int syncEvery;
+	private int unsynced = 0;
+	private int lastPid;
+	// booths that opened the journal and did not close it yet
+	private int users = 0;
+
+	/**
+	 * Opens (or creates) the journal of a ward and recovers its last pid, or
+	 * shares the one already open in the process. Each open must be matched
+	 * by a {@link #close}.
+	 *
+	 * @param ward
+	 *            the ward the journal belongs to
+	 * @throws IOException
+	 *             if the journal can't be opened
+	 */
+	public static BallotJournal open(String ward) throws IOException {
+		synchronized (journals) {
+			BallotJournal journal = journals.get(ward);
+			if (journal == null) {
+				journal = new BallotJournal(ward);
+				journals.put(ward, journal);
+			}
+			journal.users++;
+			return journal;
+		}
+	}
+
+	private BallotJournal(String ward) throws IOException {
+		this.ward = ward;
+		String every = Globals.PROPERTIES.getProperty("JournalSyncEvery");
+		syncEvery = every == null ? 1 : Math.max(1, Integer.parseInt(every
+				.trim()));
+		file = new RandomAccessFile(getFile(ward), "rw");
+		channel = file.getChannel();
+		lastPid = recover();
+	}
+
+	/**
+	 * @return the file holding the journal of a ward
+	 */
+	public static File getFile(String ward) {
+		return new File("DreBallots" + ward + ".journal");
+	}
+
+	/**
+	 * The last pid used in a ward according to the properties file, for
+	 * wards that were voted in before they had a journal
+	 *
+	 * @return the pid, or NONE if the properties don't have one
+	 */
+	public static int getLastUsedBallot(Properties properties, String ward) {
+		String lastUsed = properties.getProperty("LastUsedBallot" + ward);
+		if (lastUsed == null)
+			return NONE;
+		// the file held the pid before the last one handed out
+		return Integer.parseInt(lastUsed.trim()) + 1;
+	}
+
+	/**
+	 * @return the ward of this journal
+	 */
+	public String getWard() {
+		return ward;
+	}
+
+	/**
+	 * @return the last pid recorded by any booth, or NONE if the journal is
+	 *         empty
+	 */
+	public int getLastPid() {
+		return lastPid;
+	}
+
+	/**
+	 * Records a pid as used
+	 *
+	 * @throws IOException
+	 *             if the record can't be written
+	 */
+	public synchronized void append(int pid) throws IOException {
+		record.clear();
+		record.putInt(pid);
+		record.putInt(checksum(pid));
+		record.flip();
+		while (record.hasRemaining())
+			channel.write(record);
+		lastPid = pid;
+		if (++unsynced >= syncEvery)
+			sync();
+	}
+
+	/**
+	 * Forces the records written so far to disk
+	 *
+	 * @throws IOException
+	 *             if the journal can't be synced
+	 */
+	public synchronized void sync() throws IOException {
+		if (unsynced > 0) {
+			channel.force(false);
+			unsynced = 0;
+		}
+	}
+
+	/**
+	 * Syncs the journal, and closes it once every booth that opened it closed
+	 * it
+	 *
+	 * @throws IOException
+	 *             if the journal can't be synced
+	 */
+	public void close() throws IOException {
+		synchronized (journals) {
+			if (--users > 0) {
+				sync();
+				return;
+			}
+			journals.remove(ward);
+			try {
+				sync();
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * Finds the last intact record from the end of the file and positions
+	 * the journal after it, dropping anything torn behind it
+	 */
+	private int recover() throws IOException {
+		long end = channel.size() / RECORD * RECORD;
+		for (; end > 0; end -= RECORD) {
+			record.clear();
+			while (record.hasRemaining()
+					&& channel.read(record, end - RECORD + record.position()) > 0)
+				;
+			record.flip();
+			if (record.remaining() == RECORD) {
+				int pid = record.getInt();
+				if (record.getInt() == checksum(pid)) {
+					truncate(end);
+					return pid;
+				}
+			}
+			Print.debug("Skipping torn ballot journal record at "
+					+ (end - RECORD));
+		}
+		truncate(0);
+		return NONE;
+	}
+
+	private void truncate(long end) throws IOException {
+		if (channel.size() > end)
+			channel.truncate(end);
+		channel.position(end);
+	}
+
+	private static int checksum(int pid) {
+		CRC32 crc = new CRC32();
+		crc.update(pid >>> 24);
+		crc.update(pid >>> 16);
+		crc.update(pid >>> 8);
+		crc.update(pid);
+		return (int) crc.getValue();
+	}
+}
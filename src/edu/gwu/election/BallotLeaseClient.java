@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/**
+ * Booth side of a {@link BallotLeaseServer}. A connection is opened per
+ * request, which only happens once per block of ballots.
+ */
+public class BallotLeaseClient implements BallotLeases {
+
+	private String host;
+	private int port;
+
+	/**
+	 * @param host
+	 *            host of the lease server
+	 * @param port
+	 *            port of the lease server
+	 */
+	public BallotLeaseClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public int[] lease(String ward, String booth, int lastUsed, int count)
+			throws IOException {
+		String[] reply = request("LEASE " + ward + " " + booth + " "
+				+ lastUsed + " " + count);
+		int[] pids = new int[reply.length - 1];
+		for (int i = 0; i < pids.length; i++)
+			pids[i] = Integer.parseInt(reply[i + 1]);
+		return pids;
+	}
+
+	public void release(String ward, String booth, int[] pids)
+			throws IOException {
+		StringBuilder request = new StringBuilder("RELEASE " + ward + " "
+				+ booth);
+		for (int pid : pids)
+			request.append(' ').append(pid);
+		request(request.toString());
+	}
+
+	private String[] request(String request) throws IOException {
+		Socket socket = new Socket(host, port);
+		try {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					socket.getOutputStream(), "UTF-8"), true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			out.println(request);
+			String reply = in.readLine();
+			if (reply == null)
+				throw new IOException("The ballot lease server hung up");
+			if (!reply.startsWith("OK"))
+				throw new IOException("Ballot lease server: " + reply);
+			return reply.trim().split("\\s+");
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Serves a {@link LocalBallotLeases} to the booths of a polling place over a
+ * local socket. One request per line:
+ *
+ * <pre>
+ * LEASE ward booth lastUsed count ->  OK pid pid ...
+ * RELEASE ward booth pid pid ...   ->  OK
+ * </pre>
+ *
+ * Errors are answered with ERR and a message.
+ */
+public class BallotLeaseServer implements Runnable {
+
+	public static final int DEFAULT_PORT = 4747;
+
+	private LocalBallotLeases leases;
+	private ServerSocket server;
+
+	/**
+	 * Listens on the loopback interface
+	 *
+	 * @param leases
+	 *            the service answering the requests
+	 * @param port
+	 *            port to listen on
+	 * @throws IOException
+	 *             if the port can't be bound
+	 */
+	public BallotLeaseServer(LocalBallotLeases leases, int port)
+			throws IOException {
+		this.leases = leases;
+		server = new ServerSocket(port, 50, InetAddress.getByName(null));
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts booths until the server is closed, each on its own thread
+	 */
+	public void run() {
+		while (!server.isClosed()) {
+			try {
+				final Socket booth = server.accept();
+				Thread handler = new Thread(new Runnable() {
+					public void run() {
+						serve(booth);
+					}
+				}, "ballot lease " + booth.getRemoteSocketAddress());
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				if (!server.isClosed())
+					Print.debug("Ballot lease server: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting booths and syncs the lease journals
+	 */
+	public void close() throws IOException {
+		server.close();
+		leases.close();
+	}
+
+	private void serve(Socket booth) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					booth.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					booth.getOutputStream(), "UTF-8"), true);
+			String line;
+			while ((line = in.readLine()) != null) {
+				try {
+					out.println(answer(line.trim().split("\\s+")));
+				} catch (Exception e) {
+					out.println("ERR " + e.getMessage());
+				}
+			}
+		} catch (IOException e) {
+			Print.debug("Ballot lease connection: " + e);
+		} finally {
+			try {
+				booth.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private String answer(String[] request) throws IOException {
+		StringBuilder reply = new StringBuilder("OK");
+		if (request[0].equals("LEASE") && request.length == 5) {
+			int[] pids = leases.lease(request[1], request[2],
+					Integer.parseInt(request[3]), Integer.parseInt(request[4]));
+			for (int pid : pids)
+				reply.append(' ').append(pid);
+		} else if (request[0].equals("RELEASE") && request.length >= 3) {
+			int[] pids = new int[request.length - 3];
+			for (int i = 0; i < pids.length; i++)
+				pids[i] = Integer.parseInt(request[i + 3]);
+			leases.release(request[1], request[2], pids);
+		} else {
+			throw new IllegalArgumentException("Unknown request " + request[0]);
+		}
+		return reply.toString();
+	}
+
+	/**
+	 * Runs the lease server of a polling place
+	 *
+	 * @param args
+	 *            [properties file [port]], defaults to DreProperties.properties
+	 *            and to its BallotServerPort property or 4747
+	 */
+	public static void main(String[] args) throws Exception {
+		FileInputStream in = new FileInputStream(args.length > 0 ? args[0]
+				: "DreProperties.properties");
+		Globals.PROPERTIES = new Properties();
+		try {
+			Globals.PROPERTIES.load(in);
+		} finally {
+			in.close();
+		}
+		if (Globals.PROPERTIES.getProperty("Debug") != null)
+			Globals.updateDebugStatus();
+		int port = DEFAULT_PORT;
+		if (args.length > 1)
+			port = Integer.parseInt(args[1]);
+		else if (Globals.PROPERTIES.getProperty("BallotServerPort") != null)
+			port = Integer.parseInt(Globals.PROPERTIES
+					.getProperty("BallotServerPort"));
+		final BallotLeaseServer server = new BallotLeaseServer(
+				new LocalBallotLeases(Globals.PROPERTIES), port);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					server.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		System.out.println("Leasing ballots on port " + server.getPort());
+		server.run();
+	}
+}
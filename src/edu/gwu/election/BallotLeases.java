@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.IOException;
+
+/**
+ * Shares the pids of a ward between several booths. A booth leases a block of
+ * pids, hands them out to its voters without asking again, and gives back
+ * the ones it did not use when it shuts down.
+ */
+public interface BallotLeases {
+
+	/**
+	 * Leases a block of pids no other booth holds or has used. The service
+	 * knows the number of ballots of each ward itself.
+	 *
+	 * @param ward
+	 *            the ward of the ballots
+	 * @param booth
+	 *            name of the booth asking
+	 * @param lastUsed
+	 *            the highest pid the booth has used (e.g. before the ward was
+	 *            leased), BallotJournal.NONE if none; no pid up to it is
+	 *            leased from then on
+	 * @param count
+	 *            number of pids wanted
+	 * @return the pids, fewer than count (possibly none) when the ward runs
+	 *         out
+	 * @throws IOException
+	 *             if the service can't be reached
+	 */
+	public int[] lease(String ward, String booth, int lastUsed, int count)
+			throws IOException;
+
+	/**
+	 * Gives back leased pids that were not used
+	 *
+	 * @throws IOException
+	 *             if the service can't be reached
+	 */
+	public void release(String ward, String booth, int[] pids)
+			throws IOException;
+}
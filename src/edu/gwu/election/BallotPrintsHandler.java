@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import edu.gwu.election.authoring.BallotCodeStore;
+import edu.gwu.election.authoring.BallotFieldStore;
+import edu.gwu.election.authoring.BallotRow;
+
+/**
+ * SAX handler for the MeetingTwoPrints.xml file. Fills a packed
+ * ballots->questions->symbols code store, or a store of any set of symbol
+ * attributes, in one forward pass, so the document is never held in memory.
+ */
+public class BallotPrintsHandler extends DefaultHandler {
+
+	private static final String BALLOT = "ballot";
+	private static final String QUESTION = "question";
+	private static final String SYMBOL = "symbol";
+	private static final String ID = "id";
+
+	// the symbol attribute that is stored for each symbol
+	private String field;
+
+	// whether ballots are keyed by barcode serial (true) or by pid (false)
+	private boolean serial;
+
+	// the codes of the requested field, null when several fields are read
+	private BallotCodeStore.Builder codes = null;
+
+	// the symbol attributes collected into a field store, null if none are
+	private BallotFieldStore.Builder fields = null;
+	private String[] fieldNames;
+	private String[] values;
+	private TreeMap<Integer, BallotRow> ballotRows = new TreeMap<Integer, BallotRow>();
+	private int[] serialNumbers = new int[256];
+	private int numBallots = 0;
+
+	// the ballot and question currently being read
+	private int printedSerial = -1;
+	private boolean inBallot = false;
+	private boolean inQuestion = false;
+
+	/**
+	 * @param field
+	 *            the symbol attribute that is requested
+	 * @param serial
+	 *            whether the XML contains ballots refered to by serial (true)
+	 *            or pid (false)
+	 */
+	public BallotPrintsHandler(String field, boolean serial) {
+		this.field = field;
+		this.serial = serial;
+		codes = new BallotCodeStore.Builder();
+	}
+
+	/**
+	 * @param fields
+	 *            the symbol attributes that are requested
+	 * @param serial
+	 *            whether the XML contains ballots refered to by serial (true)
+	 *            or pid (false)
+	 */
+	public BallotPrintsHandler(String[] fields, boolean serial) {
+		this.serial = serial;
+		this.fields = new BallotFieldStore.Builder(fields);
+		fieldNames = fields.clone();
+		values = new String[fields.length];
+	}
+
+	/**
+	 * Parses a prints file in one pass
+	 *
+	 * @param pathToPrintsFile
+	 *            path to XML file
+	 * @param field
+	 *            the specific field that is requested
+	 * @param serial
+	 *            whether the XML contains ballots refered to by serial (true)
+	 *            or pid (false)
+	 * @return the handler holding the parsed ballots
+	 * @throws Exception
+	 *             if the file can't be read or parsed
+	 */
+	public static BallotPrintsHandler parse(String pathToPrintsFile,
+			String field, boolean serial) throws Exception {
+		BallotPrintsHandler handler = new BallotPrintsHandler(field, serial);
+		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+		parser.parse(new File(pathToPrintsFile), handler);
+		return handler;
+	}
+
+	/**
+	 * Parses any set of symbol attributes of a prints file in one pass
+	 *
+	 * @param pathToPrintsFile
+	 *            path to XML file
+	 * @param fields
+	 *            the symbol attributes that are requested, e.g. code, salt, id
+	 * @param serial
+	 *            whether the XML contains ballots refered to by serial (true)
+	 *            or pid (false)
+	 * @return the store holding the requested attributes
+	 * @throws Exception
+	 *             if the file can't be read or parsed
+	 */
+	public static BallotFieldStore parseFields(String pathToPrintsFile,
+			String[] fields, boolean serial) throws Exception {
+		BallotPrintsHandler handler = new BallotPrintsHandler(fields, serial);
+		SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+		parser.parse(new File(pathToPrintsFile), handler);
+		return handler.getFields();
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		if (qName.equals(BALLOT)) {
+			BallotRow ballotRow;
+			try {
+				ballotRow = new BallotRow(attributes);
+			} catch (Exception e) {
+				throw new SAXException(e);
+			}
+			if (serial) {
+				// removes the ward number and dash
+				printedSerial = Integer.parseInt(ballotRow.getBarcodeSerial()
+						.substring(2));
+			} else {
+				printedSerial = ballotRow.getPid();
+			}
+			ballotRows.put(numBallots, ballotRow);
+			if (fields != null)
+				fields.startBallot(printedSerial);
+			else
+				codes.startBallot(printedSerial);
+			inBallot = true;
+		} else if (qName.equals(QUESTION) && inBallot) {
+			int questionId = Integer.parseInt(attributes.getValue(ID));
+			if (fields != null)
+				fields.startQuestion(questionId);
+			else
+				codes.startQuestion(questionId);
+			inQuestion = true;
+		} else if (qName.equals(SYMBOL) && inQuestion) {
+			int symbolId = Integer.parseInt(attributes.getValue(ID));
+			if (fields != null) {
+				for (int f = 0; f < fieldNames.length; f++)
+					values[f] = attributes.getValue(fieldNames[f]);
+				fields.addSymbol(symbolId, values);
+			} else {
+				codes.addSymbol(symbolId, attributes.getValue(field));
+			}
+		}
+	}
+
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if (qName.equals(BALLOT)) {
+			if (numBallots == serialNumbers.length) {
+				serialNumbers = Arrays.copyOf(serialNumbers, numBallots * 2);
+			}
+			serialNumbers[numBallots++] = printedSerial;
+			inBallot = false;
+		} else if (qName.equals(QUESTION)) {
+			inQuestion = false;
+		}
+	}
+
+	/**
+	 * @return the packed ballots->questions->field store, null if the handler
+	 *         was created for several fields
+	 */
+	public BallotCodeStore getCodes() {
+		return codes == null ? null : codes.build();
+	}
+
+	/**
+	 * @return the store of requested attributes, null if the handler was
+	 *         created for a single code field
+	 */
+	public BallotFieldStore getFields() {
+		return fields == null ? null : fields.build();
+	}
+
+	/**
+	 * @return the ballot rows, keyed by their position in the file
+	 */
+	public TreeMap<Integer, BallotRow> getBallotRows() {
+		return ballotRows;
+	}
+
+	/**
+	 * @return the printed serial of each ballot, in file order
+	 */
+	public int[] getSerialNumbers() {
+		return Arrays.copyOf(serialNumbers, numBallots);
+	}
+
+	public int getNumBallots() {
+		return numBallots;
+	}
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election;
+
+import java.util.TimerTask;
+
+/**
+ * The time a session runs on. The states schedule their sound files and
+ * timeouts through it and the FSM waits on it, so a test can replace the
+ * wall clock with one it moves forward itself.
+ */
+public interface Clock {
+
+	/**
+	 * Tasks scheduled together and cancelled together, like a
+	 * {@link java.util.Timer}
+	 */
+	public interface Schedule {
+
+		/**
+		 * @param task
+		 *            the task
+		 * @param delay
+		 *            milliseconds from now
+		 */
+		public void schedule(TimerTask task, long delay);
+
+		/**
+		 * Drops every task not run yet; nothing can be scheduled afterwards
+		 */
+		public void cancel();
+	}
+
+	/**
+	 * @return the time in milliseconds
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * Waits on the calling thread
+	 * 
+	 * @param millis
+	 *            milliseconds to wait
+	 */
+	public void sleep(long millis) throws InterruptedException;
+
+	/**
+	 * @return a new, empty schedule
+	 */
+	public Schedule newSchedule();
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The sound files of the content folders, listed once when the election is
+ * loaded, so finding the file to play for a state is a lookup instead of a
+ * few File.exists() calls per file.
+ *
+ * A state names a file like extras/ToContinue.mp3; the file played is the
+ * first of ToContinue_&lt;speed&gt;.mp3, ToContinue_&lt;speed&gt;.wav,
+ * ToContinue.mp3 and ToContinue.wav that exists. Answer files (with a + in
+ * their name) and recordings have no speed. Files outside of the listed
+ * folders are looked for on disk, as before.
+ *
+ * Every player and index finds its files here, so they all play and measure
+ * the same file for a state.
+ */
+public class ContentManifest {
+
+	// resolve a name that already has its speed, or has none
+	private static final int NO_SPEED = -1;
+
+	private static ContentManifest defaultManifest = null;
+
+	private Set<String> files = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private List<String> folders = new CopyOnWriteArrayList<String>();
+	// resolved names, by name and speed
+	private Map<String, String> resolved = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return the manifest of the booth
+	 */
+	public static synchronized ContentManifest getDefault() {
+		if (defaultManifest == null)
+			defaultManifest = new ContentManifest();
+		return defaultManifest;
+	}
+
+	/**
+	 * Lists the files of a folder and its subfolders. A folder is only
+	 * listed once.
+	 *
+	 * @param folder
+	 *            a content folder
+	 */
+	public synchronized void index(File folder) {
+		String key = key(folder) + File.separator;
+		if (folders.contains(key))
+			return;
+		list(folder);
+		folders.add(key);
+		resolved.clear();
+	}
+
+	/**
+	 * @param filename
+	 *            the file as a state names it, with its directory
+	 * @param speed
+	 *            the sound speed
+	 * @return the file to play, null if there is none
+	 */
+	public String resolve(String filename, int speed) {
+		String key = filename + "|" + speed;
+		String file = resolved.get(key);
+		if (file == null) {
+			file = find(filename, speed);
+			if (file == null)
+				return null;
+			resolved.put(key, file);
+		}
+		return file;
+	}
+
+	/**
+	 * @param filename
+	 *            a file that already has the speed in its name, or plays at
+	 *            any speed
+	 * @return the file itself or the same name with the other extension,
+	 *         null if there is none
+	 */
+	public String resolve(String filename) {
+		return resolve(filename, NO_SPEED);
+	}
+
+	/**
+	 * @return the key of a file in the manifest and the sound caches: the
+	 *         same file always gives the same key, whatever the ../ in its
+	 *         path
+	 */
+	public static String key(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	/**
+	 * Adds a file written while the booth runs (the answer files)
+	 */
+	public void add(File file) {
+		if (isIndexed(key(file)))
+			files.add(key(file));
+		// a name resolved before may now find this file first
+		resolved.clear();
+	}
+
+	/**
+	 * Removes a deleted or renamed file
+	 */
+	public void remove(File file) {
+		files.remove(key(file));
+		// even outside of the listed folders, a resolved name may be this file
+		resolved.clear();
+	}
+
+	private String find(String filename, int speed) {
+		if (filename.length() < 4)
+			return null;
+		String base = filename.substring(0, filename.length() - 4);
+		String extension = filename.substring(filename.length() - 4);
+		String other = extension.equalsIgnoreCase(".wav") ? ".mp3" : ".wav";
+
+		List<String> candidates = new ArrayList<String>();
+		if (speed != NO_SPEED && !filename.contains("+")
+				&& !filename.contains("recording.wav")) {
+			candidates.add(base + "_" + speed + extension);
+			candidates.add(base + "_" + speed + other);
+		}
+		candidates.add(filename);
+		candidates.add(base + other);
+
+		for (String candidate : candidates) {
+			String key = key(new File(candidate));
+			if (isIndexed(key) ? files.contains(key) : new File(candidate)
+					.exists())
+				return candidate;
+		}
+		return null;
+	}
+
+	private boolean isIndexed(String key) {
+		for (String folder : folders)
+			if (key.startsWith(folder))
+				return true;
+		return false;
+	}
+
+	private void list(File folder) {
+		File[] children = folder.listFiles();
+		if (children == null)
+			return;
+		for (File child : children) {
+			if (child.isDirectory())
+				list(child);
+			else
+				files.add(key(child));
+		}
+	}
+}
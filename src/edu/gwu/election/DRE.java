@@ -16,7 +16,6 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Frame;
 import java.awt.GridLayout;
-import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -25,8 +24,8 @@ import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
@@ -35,13 +34,18 @@ import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.spec.SecretKeySpec;
 import javax.swing.JButton;
@@ -53,13 +57,13 @@ import javax.swing.SwingWorker;
 
 import org.gwu.voting.standardFormat.electionSpecification.ElectionSpecification;
 import org.gwu.voting.standardFormat.electionSpecification.exceptions.ESException;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import org.scantegrity.common.Util;
+import edu.gwu.election.authoring.BallotCodeStore;
+import edu.gwu.election.authoring.BallotFieldStore;
 import edu.gwu.election.authoring.BallotRow;
 import edu.gwu.election.authoring.PrintableBallotMarker;
 import edu.gwu.election.fsm.FiniteStateMachine;
+import edu.gwu.election.fsm.KeyInputSource;
 import edu.gwu.election.fsm.State;
 import edu.gwu.election.fsm.StateAction;
 
@@ -71,31 +75,72 @@ import edu.gwu.election.fsm.StateAction;
  * 
  */
 public class DRE extends JFrame implements ActionListener {
-	KeyEventDispatcher dispatcher;
+	MyDispatcher dispatcher;
 	boolean haveQuit = false;
 	int fontsize = 20;
 
 	/**
 	 * This internal class allows global Keyboard shortcuts. With a KeyListener,
 	 * only the individual component that has focus receives KeyEvents.
+	 * 
+	 * Key codes are translated through a table built once from the KeyMapping
+	 * property, and presses are handled in order on one dispatch thread. A key
+	 * held down is only taken once; every other press is kept, and a press
+	 * arriving while the thread is MAX_PENDING behind waits for room in the
+	 * queue.
 	 */
-	private class MyDispatcher implements KeyEventDispatcher {
+	private class MyDispatcher extends KeyInputSource {
+		// actions of the keys that are not FSM inputs
+		private static final int NO_INPUT = -1;
+		private static final int GAIN_UP = -2;
+		private static final int GAIN_DOWN = -3;
+		private static final int SPEED_UP = -4;
+		private static final int SLOW_DOWN = -5;
+
+		private static final int MAX_PENDING = 4;
+
 		// the mappings for keys 0-9, and star, respectively.
 		private int[] keyMap = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
-		private DRE dre;
 
 		// reversed keyMap
 		// private int[] keyMap = { 0, 7, 8, 9, 4, 5, 6, 1, 2, 3, 10 };
 
-		public MyDispatcher(DRE dreParam) {
+		// key code -> FSM input (after keyMap) or one of the actions above
+		private int[] keyTable = new int[256];
+		// key codes currently held down
+		private boolean[] held = new boolean[256];
+
+		private ExecutorService keyDispatch;
+
+		public MyDispatcher() {
 			super();
-			dre = dreParam;
+			setKeyMap();
+			keyDispatch = new ThreadPoolExecutor(1, 1, 0L,
+					TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+							MAX_PENDING), new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "DRE keys");
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new RejectedExecutionHandler() {
+						// the presses are distinct keys, none may be lost
+						public void rejectedExecution(Runnable press,
+								ThreadPoolExecutor executor) {
+							if (executor.isShutdown())
+								return;
+							try {
+								executor.getQueue().put(press);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					});
 		}
 
-		private boolean keyMapSet = false;
-
 		public void setKeyMap() {
-			if (properties.getProperty("KeyMapping").equals("Reversed")) {
+			String mapping = properties.getProperty("KeyMapping");
+			if ("Reversed".equals(mapping)) {
 				// keyMap[0] = { 0, 7, 8, 9, 4, 5, 6, 1, 2, 3, 10 };
 				keyMap[0] = 0;
 				keyMap[1] = 7;
@@ -110,185 +155,142 @@ public class DRE extends JFrame implements ActionListener {
 				keyMap[10] = 10;
 				keyMap[11] = 11;
 			}
-			if (properties.getProperty("KeyMapping").equals("Bonkers")) {
-				// keyMap[0] = { 0, 7, 8, 9, 4, 5, 6, 1, 2, 3, 10 };
-				keyMap[0] = 0;
-				keyMap[1] = 1;
-				keyMap[2] = 2;
-				keyMap[3] = 3;
-				keyMap[4] = 4;
-				keyMap[5] = 5;
-				keyMap[6] = 6;
-				keyMap[7] = 7;
-				keyMap[8] = 8;
-				keyMap[9] = 9;
-				keyMap[10] = 10;
-				keyMap[11] = 11;
-			}
-			keyMapSet = true;
-		}
 
-		public boolean dispatchKeyEvent(final KeyEvent e) {
-			if (!this.keyMapSet) {
-				this.setKeyMap();
+			Arrays.fill(keyTable, NO_INPUT);
+			for (int i = 0; i <= 9; i++)
+				keyTable[KeyEvent.VK_NUMPAD0 + i] = i;
+			keyTable[KeyEvent.VK_MULTIPLY] = 10;
+			keyTable[KeyEvent.VK_ASTERISK] = 10;
+			if ("Bonkers".equals(mapping)) {
+				// Still need to figure out where the tempo-adjustment keys are
+				// going for the bonkers layout.
+				keyTable[KeyEvent.VK_NUMPAD3] = 0;
+				keyTable[KeyEvent.VK_DIVIDE] = 1;
+				keyTable[KeyEvent.VK_MULTIPLY] = 2;
+				keyTable[KeyEvent.VK_BACK_SPACE] = 3;
+				keyTable[KeyEvent.VK_NUMPAD8] = 4;
+				keyTable[KeyEvent.VK_NUMPAD9] = 5;
+				keyTable[KeyEvent.VK_SUBTRACT] = 6;
+				keyTable[KeyEvent.VK_NUMPAD5] = 7;
+				keyTable[KeyEvent.VK_NUMPAD6] = 8;
+				keyTable[KeyEvent.VK_ADD] = 9;
+				keyTable[KeyEvent.VK_NUMPAD2] = 10;
 			}
+			keyTable[KeyEvent.VK_ENTER] = 11;
 
-			if (e.getID() == KeyEvent.KEY_PRESSED) {
-				SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
-
-					@Override
-					protected String doInBackground() throws Exception {
-						try {
-							String key = KeyEvent.getKeyText(e.getKeyCode());
-							int keyNum = -1;
-
-							Print.debug(key);
-							if (properties.getProperty("KeyMapping").equals(
-									"Bonkers")) {
-								// Still need to figure out where the
-								// tempo-adjustment keys are going for the
-								// bonkers layout.
-								if (key.equals("NumPad-3")) {
-									keyNum = 0;
-								} else if (key.equals("NumPad /")) {
-									keyNum = 1;
-								} else if (key.equals("NumPad *")) {
-									keyNum = 2;
-								} else if (key.equals("Backspace")) {
-									keyNum = 3;
-								} else if (key.equals("NumPad-8")) {
-									keyNum = 4;
-								} else if (key.equals("NumPad-9")) {
-									keyNum = 5;
-								} else if (key.equals("NumPad -")) {
-									keyNum = 6;
-								} else if (key.equals("NumPad-5")) {
-									keyNum = 7;
-								} else if (key.equals("NumPad-6")) {
-									keyNum = 8;
-								} else if (key.equals("NumPad +")) {
-									keyNum = 9;
-								} else if (key.equals("NumPad-2")) {
-									keyNum = 10;
-								} else if (key.equals("Enter")) {
-									keyNum = 11;
-								}
-
-							}
-
-							else {
-								if (key.equals("NumPad /")) {
-									dre.gainUp();
-									return null;
-								} else if (key.equals("NumPad .")) {
-									dre.gainDown();
-									return null;
-								}
-
-								if (key.equals("NumPad +")) {
-									// try to speed up
-									DRE.speedUpSound();
-									keyNum = Globals.REPEAT_THIS_MESSAGE;
-								} else if (key.equals("NumPad -")) {
-									// try to slow down.
-									DRE.slowDownsound();
-									keyNum = Globals.REPEAT_THIS_MESSAGE;
-								}
-
-							}
-							if (key.equals("Enter")) {
-								Print.debug("Caught enter, sending 11!");
-								keyNum = 11;
-							}
-
-							if (keyNum == -1) {
-								// if we still haven't found a value for the
-								// key, do it the standard way.
-								if (key.equals("NumPad *") || key.equals("*")) {
-									keyNum = 10;
-								} else if (key.length() > 7
-										&& keyNum == -1
-										&& key.substring(0, 7)
-												.equals("NumPad-")) {
-									keyNum = Integer.parseInt(key.substring(7,
-											8));
-								}
-							}
-
-							// We do the translation from key entered to key
-							// actually
-							// interpreted as input below.
-							if (keyNum != -1) {
-								keyNum = keyMap[keyNum];
-							}
-
-							if (keyNum == -1) {
-								Print.debug("Invalid Input!");
-								return null;
-							}
+			// We do the translation from key entered to key actually
+			// interpreted as input here, once.
+			for (int code = 0; code < keyTable.length; code++) {
+				if (keyTable[code] >= 0)
+					keyTable[code] = keyMap[keyTable[code]];
+			}
 
-							if (!keyPressVector.contains(keyNum)) {
-								Print.debug("Giving input to FSM: " + keyNum);
-								fsm.giveInput(keyNum);
-								updateEnabledButtons(fsm.getValidInput());
-							}
-							return null;
+			if (!"Bonkers".equals(mapping)) {
+				keyTable[KeyEvent.VK_DIVIDE] = GAIN_UP;
+				keyTable[KeyEvent.VK_DECIMAL] = GAIN_DOWN;
+				keyTable[KeyEvent.VK_ADD] = SPEED_UP;
+				keyTable[KeyEvent.VK_SUBTRACT] = SLOW_DOWN;
+			}
+		}
 
-						} catch (NumberFormatException e1) {
-							// The key pressed was not a number. So we do
-							// nothing.
-							Print.debug("Key pressed in Etegrity. Not valid input!");
-						}
-						return null;
+		@Override
+		public boolean dispatchKeyEvent(final KeyEvent e) {
+			int code = e.getKeyCode();
+			if (code < 0 || code >= keyTable.length)
+				return false;
+			if (e.getID() == KeyEvent.KEY_RELEASED) {
+				held[code] = false;
+			} else if (e.getID() == KeyEvent.KEY_PRESSED) {
+				// auto-repeat sends presses without releases
+				if (held[code])
+					return false;
+				held[code] = true;
+				final int keyNum = keyTable[code];
+				Print.debug(KeyEvent.getKeyText(code));
+				if (keyNum == NO_INPUT) {
+					Print.debug("Invalid Input!");
+					return false;
+				}
+				keyDispatch.execute(new Runnable() {
+					public void run() {
+						handleKey(keyNum);
 					}
+				});
+			}
+			return false;
+		}
 
-				};
-				worker.execute();
+		/**
+		 * Runs on the dispatch thread, in the order the keys were pressed
+		 */
+		private void handleKey(int keyNum) {
+			switch (keyNum) {
+			case GAIN_UP:
+				gainUp();
+				return;
+			case GAIN_DOWN:
+				gainDown();
+				return;
+			case SPEED_UP:
+				// try to speed up
+				DRE.speedUpSound();
+				keyNum = keyMap[Globals.REPEAT_THIS_MESSAGE];
+				break;
+			case SLOW_DOWN:
+				// try to slow down.
+				DRE.slowDownsound();
+				keyNum = keyMap[Globals.REPEAT_THIS_MESSAGE];
+				break;
 			}
+			if (!VotingSession.getDefault().isKeyPressed(keyNum)) {
+				Print.debug("Giving input to FSM: " + keyNum);
+				post(keyNum);
+			}
+		}
 
-			return false;
+		/**
+		 * Runs a button press on the dispatch thread, after the keys pressed
+		 * before it
+		 */
+		public void execute(Runnable press) {
+			keyDispatch.execute(press);
 		}
 	}
 
 	public void gainUp() {
-		double newGain = Math.min(Globals.GAIN + .1, 1.0);
-		Globals.GAIN = newGain;
-		fsm.setGain(newGain);
-		Print.debug("New gain: " + newGain);
+		VotingSession session = VotingSession.getDefault();
+		session.setGain(session.getGain() + .1);
+		fsm.setGain(session.getGain());
+		Print.debug("New gain: " + session.getGain());
 	}
 
 	public void gainDown() {
-		double newGain = Math.max(Globals.GAIN - .1, 0.0);
-		Globals.GAIN = newGain;
-		fsm.setGain(newGain);
-		Print.debug("New gain: " + newGain);
+		VotingSession session = VotingSession.getDefault();
+		session.setGain(session.getGain() - .1);
+		fsm.setGain(session.getGain());
+		Print.debug("New gain: " + session.getGain());
 	}
 
 	public static void speedUpSound() {
-		 int curSpeed = Globals.SOUND_SPEED;
-		 if (curSpeed < Globals.MAX_SOUND_SPEED)
-		 Globals.SOUND_SPEED = curSpeed + 1;
+		VotingSession session = VotingSession.getDefault();
+		session.setSoundSpeed(session.getSoundSpeed() + 1);
 	}
 
 	public static void slowDownsound() {
-		 int curSpeed = Globals.SOUND_SPEED;
-		 if (curSpeed > Globals.MIN_SOUND_SPEED)
-		 Globals.SOUND_SPEED = curSpeed - 1;
+		VotingSession session = VotingSession.getDefault();
+		session.setSoundSpeed(session.getSoundSpeed() - 1);
 	}
 
-	private static Vector<Integer> keyPressVector = new Vector<Integer>();
-
 	public static void addKeyPress(int key) {
-		keyPressVector.add(key);
+		VotingSession.getDefault().addKeyPress(key);
 	}
 
 	public static void clearKeyPresses() {
-		keyPressVector.clear();
+		VotingSession.getDefault().clearKeyPresses();
 	}
 
 	public static void popKeyPress() {
-		if (keyPressVector.size() > 0)
-			keyPressVector.remove(keyPressVector.size() - 1);
+		VotingSession.getDefault().popKeyPress();
 	}
 
 	private BallotRow currBallot = null;
@@ -298,12 +300,25 @@ public class DRE extends JFrame implements ActionListener {
 	private int[][] votes = null;
 
 	private TreeMap<Integer, TreeMap<Integer, String>> confirmationCodes;
-	private TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, String>>> allCodes = null;
+	private BallotCodeStore allCodes = null;
 	private TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, String>>> allCommitments = null;
-	private TreeMap<Integer, BallotRow> ballotRows = null;
-
-	Set<Integer> keys;
-	Iterator<Integer> keyIterator = null;
+	// ballots of the ward, decoded one at a time
+	private BallotIndex ballotIndex = null;
+	// pids handed out in the current ward, shared with the booths of the
+	// process
+	private BallotJournal journal = null;
+	private BallotAllocator allocator = null;
+	// highest pid this booth used in the ward, no lease goes below it
+	private int highestUsedPid = BallotJournal.NONE;
+	// shares the ward's pids with other booths, null for a single booth
+	private BallotLeases leases = null;
+	private static LocalBallotLeases localLeases = null;
+	// symbol attributes last read by parsePrintFields, their file and the
+	// length and modification time it had then
+	private BallotFieldStore printFields = null;
+	private String printFieldsPath = null;
+	private long printFieldsLength;
+	private long printFieldsModified;
 
 	private static byte[] MK1 = "G7S-)bj^l;q1800]".getBytes();
 	private static byte[] MK2 = "K*dst>p9H6c38?[!".getBytes();
@@ -372,6 +387,7 @@ public class DRE extends JFrame implements ActionListener {
 		// exit program when window gets closed
 		WindowListener l = new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
+				releaseBallots();
 				System.exit(0);
 			}
 		};
@@ -438,6 +454,7 @@ public class DRE extends JFrame implements ActionListener {
 		// exit program when window gets closed
 		WindowListener win = new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
+				releaseBallots();
 				System.exit(0);
 			}
 		};
@@ -446,22 +463,17 @@ public class DRE extends JFrame implements ActionListener {
 
 		KeyboardFocusManager manager = KeyboardFocusManager
 				.getCurrentKeyboardFocusManager();
-		dispatcher = new MyDispatcher(this);
+		dispatcher = new MyDispatcher();
 		manager.addKeyEventDispatcher(dispatcher);
 	}
 
 	/**
-	 * generate barcode serial numbers
+	 * generate barcode serial numbers, only the first time for a given key set
 	 * 
 	 */
 	private void generateSerialNumbers() {
-		try {
-			serialNumbers = software.engine.RowPermutation
-					.generateBarcodeSerialNumbers(mk1, mk2, C, 100000, 999999,
-							NoBallots);
-		} catch (Exception e) {
-			throw new ScantegrityException("Cannot generate serial numbers", e);
-		}
+		serialNumbers = SerialNumberCache.getSerialNumbers(MK1, MK2, C, 100000,
+				999999, NoBallots);
 		Print.debug(Arrays.toString(serialNumbers));
 	}
 
@@ -475,53 +487,57 @@ public class DRE extends JFrame implements ActionListener {
 		textArea.setVisible(true);
 		// numPad.setVisible(true);
 		this.initialize();
-		FileOutputStream out = null;
 		String ward = properties.getProperty("Ward");
 		System.out.println(ward);
-		out = new FileOutputStream("DreProperties.properties");
-		// grab some ballot
-		int lastUsedPid = 0;
-		if (keyIterator == null) {
-			keyIterator = keys.iterator();
+		if (journal == null || !journal.getWard().equals(ward)) {
+			releaseBallots();
+			journal = BallotJournal.open(ward);
+			leases = getLeases();
+			if (leases != null) {
+				// pids come in blocks leased from the ward's lease service
+				allocator = new BallotAllocator(new int[0]);
+			} else {
+				allocator = BallotAllocator.range(ballotIndex.size());
+			}
+			highestUsedPid = journal.getLastPid();
+			if (highestUsedPid == BallotJournal.NONE) {
+				// nothing journaled yet, start from the properties file
+				highestUsedPid = BallotJournal.getLastUsedBallot(properties,
+						ward);
+			}
+			if (leases == null)
+				allocator.skipPast(highestUsedPid);
 		}
-		// check to make sure the ballot has not yet been used this assumes that
-		// pid is strictly increasing
-		for (int i = 0; i < properties.getProperty("LastUsedBallot" + ward)
-				.length(); i++) {
-			lastUsedPid += (int) ((properties.getProperty("LastUsedBallot"
-					+ ward).charAt(i)) - 48)
-					* Math.pow(
-							10,
-							Globals.PROPERTIES.getProperty(
-									"LastUsedBallot" + ward).length()
-									- i - 1);
+		// grab some ballot
+		pid = allocator.claimNext();
+		if (pid == BallotAllocator.NONE && leases != null) {
+			int block = Integer.parseInt(properties.getProperty(
+					"BallotLeaseSize", "10"));
+			allocator = new BallotAllocator(leases.lease(ward, getBooth(),
+					highestUsedPid, block));
+			// a pid this booth may have used is never handed out again, even
+			// if the service leases it
+			allocator.skipPast(highestUsedPid);
+			pid = allocator.claimNext();
 		}
-		Print.debug("pid/lastPid: " + pid + " " + lastUsedPid);
-		while (keyIterator.hasNext() && pid <= lastUsedPid)
-			pid = keyIterator.next();
+		if (pid == BallotAllocator.NONE)
+			throw new ScantegrityException("No ballots left in ward " + ward);
 		Print.debug("newPid: " + pid);
-		// get the ballot information
-		currBallot = ballotRows.get(pid);
+		highestUsedPid = Math.max(highestUsedPid, pid);
 		Globals.PROPERTIES.setProperty("LastUsedBallot" + ward, "" + pid);
-		Globals.PROPERTIES
-				.store(out,
-						"-------------------------------------------------------------------------------\n Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.\n All rights reserved. This program and the accompanying materials\n are made available under the terms of the GNU Public License v2.0\n which accompanies this distribution, and is available at\n http://www.gnu.org/licenses/old-licenses/gpl-2.0.html\n     Contributors:\n Tyler Kaczmarek - initial API and implementation\n -------------------------------------------------------------------------------\n");
-		Print.debug("Property has been set to " + pid);
-		// get serial number
-		ballotSerial = serialNumbers[pid];
+		journal.append(pid);
+		Print.debug("Journal has been set to " + pid);
 
-		if (keyIterator.hasNext())
-			pid = keyIterator.next();
-
-		// get the ballot information
-		currBallot = ballotRows.get(pid);
+		// get the ballot information, only this ballot is decoded
+		currBallot = ballotIndex.getBallotRow(pid);
 
 		// get serial number
-		ballotSerial = serialNumbers[pid];
+		ballotSerial = ballotIndex.getSerial(pid);
 
 		// get ballot confirmation codes
+		allCodes = ballotIndex.getBallotCodes(pid);
 		TreeMap<Integer, TreeMap<Integer, String>> ballotConfirmationCodes = allCodes
-				.get(ballotSerial);
+				.getBallotCodes(ballotSerial);
 
 		// get ballot commitments
 		// TreeMap<Integer, TreeMap<Integer, String>> ballotCommitments =
@@ -566,147 +582,64 @@ public class DRE extends JFrame implements ActionListener {
 	 * @param serial
 	 *            whether the XML contains files refered to by serial (true) or
 	 *            pid (false)
-	 * @return a 3-level treemap containing ballots->questions->field
+	 * @return a packed store containing ballots->questions->field
 	 * @throws Exception
 	 */
-	public TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, String>>> parseXml(
+	public BallotCodeStore parseXml(
 			String pathToPrintsFile, String field, boolean serial)
 			throws Exception {
-		TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, String>>> result = new TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, String>>>();
-		org.w3c.dom.Document doc = Util.DomParse(pathToPrintsFile);
-		int printedSerial = -1;
-		int qid = -1;
-		int sid = -1;
-		keys = new HashSet<Integer>();
-		NodeList ballots = doc.getElementsByTagName("ballot");
-		serialNumbers = new int[ballots.getLength()];
-		ballotRows = new TreeMap<Integer, BallotRow>();
-
-		for (int b = 0; b < ballots.getLength(); b++) {
-			BallotRow ballotRow = new BallotRow(ballots.item(b));
-			if (serial) {
-				// printedSerial=Integer.parseInt(ballotRow.getBarcodeSerial());
-				printedSerial = Integer.parseInt(ballotRow.getBarcodeSerial()
-						.substring(2)); // removes the ward number and dash
-			} else {
-				printedSerial = ballotRow.getPid();
-			}
-			ballotRows.put(b, ballotRow);
-
-			TreeMap<Integer, TreeMap<Integer, String>> ballotFields = new TreeMap<Integer, TreeMap<Integer, String>>();
-			for (Node question = ballots.item(b).getFirstChild(); question != null; question = question
-					.getNextSibling()) {
-				if (question.getNodeName().compareTo("question") == 0) {
-					qid = Integer.parseInt(question.getAttributes()
-							.getNamedItem("id").getNodeValue());
-					TreeMap<Integer, String> values = new TreeMap<Integer, String>();
-					for (Node symbol = question.getFirstChild(); symbol != null; symbol = symbol
-							.getNextSibling()) {
-						if (symbol.getNodeName().compareTo("symbol") == 0) {
-							sid = Integer.parseInt(symbol.getAttributes()
-									.getNamedItem("id").getNodeValue());
-							values.put(sid, symbol.getAttributes()
-									.getNamedItem(field).getNodeValue());
-						}
-					}
-					ballotFields.put(qid, values);
-				}
-			}
-			keys.add(b);
-			serialNumbers[b] = printedSerial;
-			result.put(printedSerial, ballotFields);
-		}
-		return result;
-	}
-
-	public TreeMap<Integer, TreeMap<Integer, TreeMap<String, String>>> parseSaltsXml(
-			String pathToPrintsFile, String field) throws Exception {
-		TreeMap<Integer, TreeMap<Integer, TreeMap<String, String>>> result = new TreeMap<Integer, TreeMap<Integer, TreeMap<String, String>>>();
-		org.w3c.dom.Document doc = Util.DomParse(pathToPrintsFile);
-		int printedSerial = -1;
-		int qid = -1;
-		String sid = "";
-		NodeList ballots = doc.getElementsByTagName("ballot");
-		for (int b = 0; b < ballots.getLength(); b++) {
-			BallotRow ballotRow = new BallotRow(ballots.item(b));
-
-			printedSerial = ballotRow.getPid();
-
-			TreeMap<Integer, TreeMap<String, String>> ballotFields = new TreeMap<Integer, TreeMap<String, String>>();
-			for (Node question = ballots.item(b).getFirstChild(); question != null; question = question
-					.getNextSibling()) {
-				if (question.getNodeName().compareTo("question") == 0) {
-					qid = Integer.parseInt(question.getAttributes()
-							.getNamedItem("id").getNodeValue());
-					TreeMap<String, String> values = new TreeMap<String, String>();
-					for (Node symbol = question.getFirstChild(); symbol != null; symbol = symbol
-							.getNextSibling()) {
-						if (symbol.getNodeName().compareTo("symbol") == 0) {
-							sid = symbol.getAttributes().getNamedItem("code")
-									.getNodeValue();
-							// sid=Integer.parseInt(symbol.getAttributes().getNamedItem("id").getNodeValue());
-							values.put(sid, symbol.getAttributes()
-									.getNamedItem(field).getNodeValue());
-						}
-					}
-					ballotFields.put(qid, values);
-				}
-			}
-			result.put(printedSerial, ballotFields);
-		}
-		return result;
+		// stream the file instead of building the DOM, the prints file holds
+		// every ballot in the ward
+		return BallotPrintsHandler.parse(pathToPrintsFile, field, serial)
+				.getCodes();
 	}
 
-	public TreeMap<Integer, TreeMap<Integer, TreeMap<String, Integer>>> parseCodesToIdsXml(
-			String pathToPrintsFile, String field) throws Exception {
-		TreeMap<Integer, TreeMap<Integer, TreeMap<String, Integer>>> result = new TreeMap<Integer, TreeMap<Integer, TreeMap<String, Integer>>>();
-		org.w3c.dom.Document doc = Util.DomParse(pathToPrintsFile);
-		int printedSerial = -1;
-		int qid = -1;
-		String sid = "";
-		NodeList ballots = doc.getElementsByTagName("ballot");
-		for (int b = 0; b < ballots.getLength(); b++) {
-			BallotRow ballotRow = new BallotRow(ballots.item(b));
-
-			printedSerial = ballotRow.getPid();
-
-			TreeMap<Integer, TreeMap<String, Integer>> ballotFields = new TreeMap<Integer, TreeMap<String, Integer>>();
-			for (Node question = ballots.item(b).getFirstChild(); question != null; question = question
-					.getNextSibling()) {
-				if (question.getNodeName().compareTo("question") == 0) {
-					qid = Integer.parseInt(question.getAttributes()
-							.getNamedItem("id").getNodeValue());
-					TreeMap<String, Integer> values = new TreeMap<String, Integer>();
-					for (Node symbol = question.getFirstChild(); symbol != null; symbol = symbol
-							.getNextSibling()) {
-						if (symbol.getNodeName().compareTo("symbol") == 0) {
-							sid = symbol.getAttributes().getNamedItem("code")
-									.getNodeValue();
-							// sid=Integer.parseInt(symbol.getAttributes().getNamedItem("id").getNodeValue());
-							values.put(
-									sid,
-									Integer.parseInt(symbol.getAttributes()
-											.getNamedItem("id").getNodeValue()));
-						}
-					}
-					ballotFields.put(qid, values);
-				}
-			}
-			result.put(printedSerial, ballotFields);
+	/**
+	 * Reads any set of symbol attributes of a prints file in a single pass.
+	 * The last store read is kept, so asking again for the same file and a
+	 * subset of its fields does not parse it again, unless the file changed.
+	 * 
+	 * @param pathToPrintsFile
+	 *            path to XML file
+	 * @param fields
+	 *            the symbol attributes that are requested, e.g. code, salt, id
+	 * @return a store of ballots (by pid)->questions->symbols->fields with a
+	 *         code->symbol reverse index
+	 * @throws Exception
+	 */
+	public BallotFieldStore parsePrintFields(String pathToPrintsFile,
+			String... fields) throws Exception {
+		File prints = new File(pathToPrintsFile);
+		long length = prints.length();
+		long modified = prints.lastModified();
+		if (pathToPrintsFile.equals(printFieldsPath)
+				&& length == printFieldsLength
+				&& modified == printFieldsModified) {
+			boolean cached = true;
+			for (String field : fields)
+				cached &= printFields.hasField(field);
+			if (cached)
+				return printFields;
 		}
-		return result;
+		printFields = BallotPrintsHandler.parseFields(pathToPrintsFile,
+				fields, false);
+		printFieldsPath = pathToPrintsFile;
+		printFieldsLength = length;
+		printFieldsModified = modified;
+		return printFields;
 	}
 
 	/**
-	 * Reads the confirmation codes from the private xml file
+	 * Opens the confirmation codes of the private xml file. The XML is only
+	 * parsed when its compiled cache is missing or out of date, and ballots are
+	 * decoded one at a time as they are handed out.
 	 * 
 	 * @throws Exception
 	 *             if it can't parse XML
 	 */
 	public void getConfirmationCodes() throws Exception {
-		allCodes = parseXml(
-				path + "private/" + Globals.PROPERTIES.getProperty("Ward")
-						+ "/MeetingTwoPrints.xml", "code", true);
+		ballotIndex = BallotIndex.open(BallotIndex.getPrintsFile(path,
+				Globals.PROPERTIES.getProperty("Ward")), "code", true);
 	}
 
 	/**
@@ -808,8 +741,10 @@ public class DRE extends JFrame implements ActionListener {
 		// hide window
 		// if quit is not selected during an election exit program. Otherwise,
 		// return to start/quit screen
-		if (startButton.isVisible())
+		if (startButton.isVisible()) {
+			releaseBallots();
 			System.exit(0);
+		}
 		else {
 			haveQuit = true;
 			fsm.stop();
@@ -822,53 +757,116 @@ public class DRE extends JFrame implements ActionListener {
 	}
 
 	/**
-	 * Handles events for various buttons pressed
+	 * Gives leased ballots that were not used back to the lease service and
+	 * syncs the records the ballot journal may still hold back
 	 */
-	public void actionPerformed(final ActionEvent event) {
+	private void releaseBallots() {
+		if (journal == null)
+			return;
+		try {
+			if (leases != null)
+				leases.release(journal.getWard(), getBooth(), allocator.drain());
+		} catch (IOException e) {
+			Print.debug("Could not return the leased ballots: " + e);
+		}
+		try {
+			journal.close();
+		} catch (IOException e) {
+			Print.debug("Could not close the ballot journal: " + e);
+		}
+		journal = null;
+	}
+
+	/**
+	 * The lease service named by the BallotServer property: "local" for booths
+	 * in this process, or host:port of a {@link BallotLeaseServer}
+	 * 
+	 * @return the service, or null if the booth has the ward to itself
+	 */
+	private BallotLeases getLeases() {
+		String server = properties.getProperty("BallotServer");
+		if (server == null || server.length() == 0)
+			return null;
+		if (server.equals("local")) {
+			synchronized (DRE.class) {
+				if (localLeases == null)
+					localLeases = new LocalBallotLeases(properties);
+				return localLeases;
+			}
+		}
+		int colon = server.lastIndexOf(':');
+		if (colon < 0)
+			return new BallotLeaseClient(server,
+					BallotLeaseServer.DEFAULT_PORT);
+		return new BallotLeaseClient(server.substring(0, colon),
+				Integer.parseInt(server.substring(colon + 1)));
+	}
 
-		SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
+	/**
+	 * @return the name this booth leases ballots under
+	 */
+	private String getBooth() {
+		return properties.getProperty("Booth", "booth" + hashCode());
+	}
 
-			@Override
-			protected String doInBackground() throws Exception {
-				String s = event.getActionCommand();
-				if (s.equals("Start")) {
+	/**
+	 * Handles events for various buttons pressed
+	 */
+	public void actionPerformed(final ActionEvent event) {
+		String s = event.getActionCommand();
+		if (s.equals("Start")) {
+			// the election lasts as long as the voter takes, so it gets its
+			// own worker instead of holding up the keys
+			SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
+
+				@Override
+				protected String doInBackground() throws Exception {
 					startElection();
-				}
-				if (s.equals("Quit")) {
-					quit();
 					return null;
 				}
 
-				// convert star to "10" to help handle input
-				if (s.equals("*")) {
-					s = new String("10");
-				}
-
-				try {
-					Integer i = new Integer(s);
-					// textArea.setText(null);
+			};
+			worker.execute();
+			return;
+		}
 
-					fsm.giveInput(i.intValue());
+		// quitting doesn't wait behind the keys
+		if (s.equals("Quit")) {
+			quit();
+			return;
+		}
 
-					updateEnabledButtons(fsm.getValidInput());
+		// convert star to "10" to help handle input
+		final String command = s.equals("*") ? "10" : s;
+		dispatcher.execute(new Runnable() {
+			public void run() {
+				try {
+					fsm.postInput(Integer.parseInt(command));
 				} catch (NumberFormatException e) {
-					// should only be reached when starting, otherwise a
-					// numerical value
-					// should always be handled
-					if (s.equals("Start")) {
-						// Do nothing
-					} else {
-						throw new RuntimeException("Unknown error in the UI ",
-								e);
-					}
+					throw new RuntimeException("Unknown error in the UI ", e);
 				}
-				return null;
 			}
+		});
+	}
 
-		};
-		worker.execute();
+	/**
+	 * Connects the keypad to a machine that is about to start, and keeps the
+	 * on-screen keypad in step with it
+	 */
+	private void connectInputs(FiniteStateMachine machine) {
+		machine.addInputSource(dispatcher);
+		machine.setInputAction(buttonUpdater);
 	}
 
+	/**
+	 * Keeps the on-screen keypad in step with the FSM after each input
+	 */
+	private StateAction buttonUpdater = new StateAction() {
+		public void doAction(int validInputs) {
+			updateEnabledButtons(validInputs);
+		}
+	};
+
 	/**
 	 * Sets which buttons are enabled according to what valid inputs the current
 	 * state has
@@ -928,7 +926,7 @@ public class DRE extends JFrame implements ActionListener {
 		// at this stage, quitting should not be allowed
 		numPad.getComponent(11).setVisible(false);
 		fsm = new FiniteStateMachine();
-		if (confirmationCodes == null) {
+		if (allCodes == null || !allCodes.contains(ballotSerial)) {
 			throw new NullPointerException(
 					"Confirmation codes not initialized!");
 		}
@@ -936,7 +934,7 @@ public class DRE extends JFrame implements ActionListener {
 		// possible inputs: 1 to continue and finish or * to repeat
 		int[] inputs = { Globals.TO_CONTINUE, Globals.REPEAT_THIS_MESSAGE };
 
-		int numQuestions = confirmationCodes.size();
+		int numQuestions = allCodes.getQuestionCount(ballotSerial);
 
 		// for(int i = 0; i < numQuestions; i++){
 
@@ -978,7 +976,8 @@ public class DRE extends JFrame implements ActionListener {
 					wavs.add(Globals.PROPERTIES.getProperty("Language")
 							+ "/extras/Is.mp3");
 					if (votes[i][0] != -1) {
-						String code = confirmationCodes.get(i).get(votes[i][0]);
+						String code = allCodes.getCode(ballotSerial, i,
+								votes[i][0]);
 						for (int k = 0; k < code.length(); k++) {
 							char c = code.charAt(k);
 							String wav = (Globals.PROPERTIES
@@ -1010,8 +1009,7 @@ public class DRE extends JFrame implements ActionListener {
 							// MULTIPLE VOTES
 							Print.debug("votes final: "
 									+ Arrays.toString(votes[i]));
-							Print.debug(confirmationCodes.toString());
-							String code = confirmationCodes.get(i).get(
+							String code = allCodes.getCode(ballotSerial, i,
 									votes[i][j] * votes[i].length + j);
 							Print.debug("Code is not null?" + (code != null)
 									+ " val is " + votes[i][j]
@@ -1026,9 +1024,8 @@ public class DRE extends JFrame implements ActionListener {
 								wavs.add(wav);
 							}// }
 						} else if (votes[i][j] > 5) {
-							String code = confirmationCodes.get(i)
-									.get((votes[i].length - 1)
-											* votes[i].length + j);
+							String code = allCodes.getCode(ballotSerial, i,
+									(votes[i].length - 1) * votes[i].length + j);
 							for (int k = 0; k < code.length(); k++) {
 								char c = code.charAt(k);
 								String wav = (Globals.PROPERTIES
@@ -1142,6 +1139,7 @@ public class DRE extends JFrame implements ActionListener {
 		fsm.addTransition(fsm.size() - 1, fsm.size() - 1,
 				Globals.REPEAT_THIS_MESSAGE);
 		fsm.setStopState(fsm.size() - 1);
+		connectInputs(fsm);
 		fsm.start();
 		numPad.getComponent(11).setVisible(true);
 
@@ -1166,15 +1164,14 @@ public class DRE extends JFrame implements ActionListener {
 	public void runElection(String electionSpec) throws ESException {
 		Print.debug("Starting the voting procedure..");
 		Print.debug("The current path is: " + contentPath);
-		Election e = new edu.gwu.election.Election(contentPath, electionSpec);
+		// TODO set language to whatever was selected in the first
+		// the graph is built once per ward, language and speed
+		Election e = Election.getElection(contentPath, electionSpec);
 		textArea.setText(null);
 		e.setConfirmationCodes(confirmationCodes);
-		// TODO set language to whatever was selected in the first
-		e.setLanguage();
-		e.setWard();
-		e.constructFSM();
 		if (!haveQuit) {
 			fsm = e.getFSM();
+			connectInputs(fsm);
 			updateEnabledButtons(fsm.getValidInput());
 			e.startElection();
 			votes = e.getVotes();
@@ -1193,10 +1190,10 @@ public class DRE extends JFrame implements ActionListener {
 				// set the ballot (for ward etc.)
 				Print.debug("Printing the Ballot");
 				pbm.setPrintSetting(PrintableBallotMarker.PrintSetting.BALLOT);
-				pbm.printMarks(currBallot, votes, confirmationCodes);
+				pbm.printMarks(currBallot, votes, allCodes, ballotSerial);
 				pbm.setPrintSetting(PrintableBallotMarker.PrintSetting.CARD);
 				Print.debug("Printing the Crad");
-				pbm.printMarks(currBallot, votes, confirmationCodes);
+				pbm.printMarks(currBallot, votes, allCodes, ballotSerial);
 
 			} catch (Exception e1) {
 				throw new ScantegrityException(
@@ -1246,6 +1243,7 @@ public class DRE extends JFrame implements ActionListener {
 		fsm.addTransition(1, 1, 7);
 		fsm.addTransition(1, 2, Globals.TO_CONTINUE);
 		updateEnabledButtons(fsm.getValidInput());
+		connectInputs(fsm);
 		fsm.setInputStream(System.in);
 		fsm.start();
 	}
@@ -1272,6 +1270,7 @@ public class DRE extends JFrame implements ActionListener {
 		fsm.addTransition(0, 1, 1);
 		fsm.addTransition(0, 1, 2);
 		updateEnabledButtons(fsm.getValidInput());
+		connectInputs(fsm);
 		fsm.setInputStream(System.in);
 		fsm.start();
 	}
@@ -1302,6 +1301,7 @@ public class DRE extends JFrame implements ActionListener {
 		fsm.addTransition(0, 1, 5);
 		fsm.addTransition(0, 1, 6);
 		updateEnabledButtons(fsm.getValidInput());
+		connectInputs(fsm);
 		fsm.setInputStream(System.in);
 		fsm.start();
 	}
@@ -22,9 +22,12 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
 
 import javax.sound.sampled.LineUnavailableException;
@@ -34,11 +37,17 @@ import org.gwu.voting.standardFormat.basic.Question;
 import org.gwu.voting.standardFormat.electionSpecification.ElectionSpecification;
 import org.gwu.voting.standardFormat.electionSpecification.exceptions.ESException;
 
-import edu.gwu.audio.AudioCapture;
 import edu.gwu.audio.AudioPlayer;
 import edu.gwu.audio.AudioPlayerFactory;
+import edu.gwu.audio.ClipCache;
+import edu.gwu.audio.DurationIndex;
+import edu.gwu.election.fsm.ActionRegistry;
+import edu.gwu.election.fsm.CompiledGraph;
 import edu.gwu.election.fsm.FiniteStateMachine;
+import edu.gwu.election.fsm.GraphSnapshot;
+import edu.gwu.election.fsm.State;
 import edu.gwu.election.fsm.StateAction;
+import edu.gwu.election.fsm.Transitionable;
 
 /**
  * The class that generates a FiniteStateMachine based on a given
@@ -52,12 +61,16 @@ public class Election {
 	// the finite state machine everything builds on
 	private FiniteStateMachine fsm = null;
 
-	// for holding the votes until the ballot is cast
-	private int[][] votes = null;
+	// the frozen graph as constructed, before any voter changed it
+	private CompiledGraph constructed = null;
 
-	// for holding the votes while a state is executing, until they are
-	// confirmed
-	private int[] temporaryVotes = null;
+	// votes and position of the current voter
+	private VotingSession session = null;
+
+	// the state actions, by name
+	private ActionRegistry actions = new ActionRegistry();
+
+	private File specFile;
 
 	private int numQuestions = 0;
 	private String[] electionDir = null;
@@ -68,18 +81,11 @@ public class Election {
 
 	Properties properties = null;
 
-	// global variable used for referencing the selection the voter makes
-	private int selectedVote = -1;
-
-	private int currentQuestion = 0;
-
-	// index for multiple votes
-	private int voteSubIndex = 0;
-
-	private int qToGoBackTo = 0;
-
 	private int startOfConfirmations = 0;
 
+	// constructed elections by directory, spec, ward, language and speed
+	private static HashMap<String, Election> elections = new HashMap<String, Election>();
+
 	private String wardRelativePath;
 	private String writeInsRelativePath;
 
@@ -95,15 +101,33 @@ public class Election {
 	 *            (relative to the given path)
 	 */
 	public Election(String aDir, String filename) throws ESException {
+		this(aDir, filename, VotingSession.getDefault());
+	}
+
+	/**
+	 * Constructs a new Election for a given session
+	 * 
+	 * @param aDir
+	 *            directory where the files are located
+	 * @param filename
+	 *            filename where the ElectionSpecification.xml file is located
+	 *            (relative to the given path)
+	 * @param session
+	 *            the session voting, which also gives the properties and
+	 *            sound speed
+	 */
+	public Election(String aDir, String filename, VotingSession session)
+			throws ESException {
+		this.session = session;
 		electionDir = new String[2]; // must be made as an array so we can
 										// simulate pass-by-reference
 		electionDir[0] = new String(aDir);
 		electionDir[1] = new String(aDir);
 
-		electionSpecification = new ElectionSpecification(electionDir[0]
-				+ Globals.PROPERTIES.getProperty("Ward") + "/" + filename);
-		Print.debug("ElectionSpec: " + electionDir[0]
-				+ Globals.PROPERTIES.getProperty("Ward") + "/" + filename);
+		specFile = new File(electionDir[0]
+				+ session.getProperty("Ward") + "/" + filename);
+		electionSpecification = new ElectionSpecification(specFile.getPath());
+		Print.debug("ElectionSpec: " + specFile.getPath());
 
 		// get questions
 		questions = electionSpecification.getOrderedQuestions();
@@ -111,13 +135,213 @@ public class Election {
 
 		questionIndicies = new int[numQuestions][2];
 
-		// initialize vote array
-		votes = new int[numQuestions][];
+		session.reset(questions);
+		createActions();
+	}
+
+	/**
+	 * Returns the constructed election for the current ward, language and
+	 * sound speed, ready for a new voter. The state graph is only built the
+	 * first time; after that only the voter's session is reset.
+	 * 
+	 * @param aDir
+	 *            directory where the files are located
+	 * @param filename
+	 *            filename where the ElectionSpecification.xml file is located
+	 *            (relative to the given path)
+	 */
+	public static Election getElection(String aDir, String filename)
+			throws ESException {
+		return getElection(aDir, filename, VotingSession.getDefault());
+	}
+
+	/**
+	 * Same as {@link #getElection(String, String)} for a given session. Each
+	 * session gets its own elections, so sessions can vote at the same time.
+	 */
+	public static synchronized Election getElection(String aDir,
+			String filename, VotingSession session) throws ESException {
+		String key = session.getId() + "|" + aDir + "|" + filename + "|"
+				+ session.getProperty("Ward") + "|"
+				+ session.getProperty("Language") + "|"
+				+ session.getSoundSpeed();
+		Election e = elections.get(key);
+		if (e == null) {
+			e = new Election(aDir, filename, session);
+			e.setLanguage();
+			e.setWard();
+			e.indexDurations();
+			File snapshot = getSnapshotFile(session, filename);
+			if (snapshot == null || !e.loadFSM(snapshot)) {
+				e.constructFSM();
+				if (snapshot != null)
+					e.saveFSM(snapshot);
+			}
+			e.checkContent();
+			elections.put(key, e);
+		} else {
+			Print.debug("Reusing the election graph for " + key);
+		}
+		e.newSession();
+		return e;
+	}
+
+	/**
+	 * Measures the sound files of the language and ward directories, so the
+	 * states don't read the header of a file each time it is played
+	 */
+	public void indexDurations() {
+		DurationIndex.getDefault().index(new File(electionDir[0]));
+		DurationIndex.getDefault().index(new File(electionDir[1]));
+	}
+
+	/**
+	 * Lists the files of the language and ward directories in the
+	 * {@link ContentManifest} and makes sure every state has its sound files
+	 * at every sound speed, so a missing file stops the booth when the
+	 * election is loaded and not in the middle of a voter's session, even
+	 * after the voter changes the speed
+	 * 
+	 * @throws ScantegrityException
+	 *             naming the missing files and their speed
+	 */
+	public void checkContent() {
+		ContentManifest manifest = ContentManifest.getDefault();
+		manifest.index(new File(electionDir[0]));
+		manifest.index(new File(electionDir[1]));
+
+		Set<String> missing = new TreeSet<String>();
+		for (int id = 0; id < fsm.size(); id++) {
+			Transitionable t = fsm.getState(id);
+			if (!(t instanceof State))
+				continue;
+			State state = (State) t;
+			for (String wav : state.getWavs()) {
+				// the answer files and recordings are written for each voter
+				if (wav == null || wav.length() == 0
+						|| wav.contains("recording.wav")
+						|| new File(wav).getName().matches(
+								"a\\d+(\\+\\d+)?\\.mp3"))
+					continue;
+				for (int speed = Globals.MIN_SOUND_SPEED; speed <= Globals.MAX_SOUND_SPEED; speed++)
+					if (manifest.resolve(state.getDirectory() + wav, speed) == null)
+						missing.add(state.getDirectory() + wav + " at speed "
+								+ speed);
+			}
+		}
+		if (!missing.isEmpty())
+			throw new ScantegrityException("Sound files missing: " + missing);
+	}
+
+	/**
+	 * The file the graph is saved to, in the directory named by the
+	 * GraphSnapshots property, for the current ward, language and speed
+	 * 
+	 * @return the file, or null if graphs are not saved
+	 */
+	private static File getSnapshotFile(VotingSession session,
+			String filename) {
+		String dir = session.getProperty("GraphSnapshots");
+		if (dir == null || dir.length() == 0)
+			return null;
+		return new File(dir, session.getProperty("Ward") + "-"
+				+ session.getProperty("Language") + "-"
+				+ session.getSoundSpeed() + "-" + new File(filename).getName()
+				+ ".fsm");
+	}
+
+	/**
+	 * What a saved graph was built from; it is only loaded back if all of it
+	 * still matches
+	 */
+	private Properties getSnapshotKey() {
+		Properties key = new Properties();
+		key.setProperty("Spec", specFile.getAbsolutePath());
+		key.setProperty("SpecLength", Long.toString(specFile.length()));
+		key.setProperty("SpecModified", Long.toString(specFile.lastModified()));
+		key.setProperty("Ward", session.getProperty("Ward"));
+		key.setProperty("Language", session.getProperty("Language"));
+		key.setProperty("SoundSpeed", Integer.toString(session.getSoundSpeed()));
+		return key;
+	}
+
+	/**
+	 * Saves the constructed graph so later runs can load it instead of
+	 * constructing it. Failing to save is not fatal.
+	 * 
+	 * @param file
+	 *            the file to write
+	 */
+	public void saveFSM(File file) {
+		Properties saved = getSnapshotKey();
+		saved.setProperty("StartOfConfirmations", Integer
+				.toString(startOfConfirmations));
+		StringBuilder indicies = new StringBuilder();
+		for (int i = 0; i < numQuestions; i++) {
+			if (i > 0)
+				indicies.append(';');
+			indicies.append(questionIndicies[i][0]).append(',').append(
+					questionIndicies[i][1]);
+		}
+		saved.setProperty("QuestionIndicies", indicies.toString());
+		try {
+			GraphSnapshot.write(fsm, saved, file);
+			Print.debug("Saved the election graph to " + file);
+		} catch (IOException e) {
+			Print.debug("Could not save the election graph: " + e);
+		}
+	}
+
+	/**
+	 * Loads a graph saved by {@link #saveFSM} instead of constructing it
+	 * 
+	 * @param file
+	 *            the saved graph
+	 * @return false if there is no saved graph or it was built from a
+	 *         different election specification, ward, language or speed
+	 */
+	public boolean loadFSM(File file) {
+		if (!file.exists())
+			return false;
+		Properties saved = new Properties();
+		FiniteStateMachine loaded;
+		try {
+			loaded = GraphSnapshot.read(file, electionDir, actions, saved);
+		} catch (Exception e) {
+			Print.debug("Could not load the election graph: " + e);
+			return false;
+		}
+		Properties key = getSnapshotKey();
+		for (String name : key.stringPropertyNames())
+			if (!key.getProperty(name).equals(saved.getProperty(name))) {
+				Print.debug("The saved election graph is out of date");
+				return false;
+			}
+
+		prepareDirs();
+		startOfConfirmations = Integer.parseInt(saved
+				.getProperty("StartOfConfirmations"));
+		String[] indicies = saved.getProperty("QuestionIndicies").split(";");
 		for (int i = 0; i < numQuestions; i++) {
-			votes[i] = new int[questions[i].getMax()];
-			for (int j = 0; j < votes[i].length; j++)
-				votes[i][j] = -1;
+			String[] pair = indicies[i].split(",");
+			questionIndicies[i][0] = Integer.parseInt(pair[0]);
+			questionIndicies[i][1] = Integer.parseInt(pair[1]);
 		}
+		fsm = loaded;
+		fsm.setSession(session);
+		constructed = fsm.freeze();
+		Print.debug("Loaded the election graph from " + file);
+		return true;
+	}
+
+	/**
+	 * Starts over for a new voter: clears the votes and undoes any transition
+	 * the previous voter added to the graph
+	 */
+	public void newSession() {
+		session.reset(questions);
+		if (constructed != null)
+			fsm.restore(constructed);
 	}
 
 	/**
@@ -128,12 +352,12 @@ public class Election {
 	 */
 	public void setLanguage() {
 		electionDir[0] = electionDir[0]
-				+ Globals.PROPERTIES.getProperty("Language") + "/";
+				+ session.getProperty("Language") + "/";
 	}
 
 	public void setWard() {
 		electionDir[1] = electionDir[1]
-				+ Globals.PROPERTIES.getProperty("Ward") + "/";
+				+ session.getProperty("Ward") + "/";
 	}
 
 	/**
@@ -197,6 +421,593 @@ public class Election {
 		}
 	}
 
+	/**
+	 * Creates the actions of the states and names them, so a saved graph can
+	 * be loaded back without constructing it
+	 */
+	private void createActions() {
+		actions.register("instructions", new StateAction() {
+			public void doAction(int x) {
+				// initializes all final vote selections to "skipped"
+
+				for (int i = 0; i < numQuestions; i++) {
+					if (questions[i].getTypeOfAnswer().equals("one_answer")) {
+						Election.copyFile(electionDir[0] + "extras/NoOne" + "_"
+								+ session.getSoundSpeed() + ".mp3", electionDir[1]
+								+ "a" + i + ".mp3");
+						Election.copyFile(electionDir[0] + "extras/NoOne.txt",
+								electionDir[1] + "a" + i + ".txt");
+					} else
+						// for multiple answers, initialize all the
+						// possible "sub-votes"
+
+						for (int j = 0; j < questions[i].getMax(); j++) {
+							Election.copyFile(electionDir[0] + "extras/NoOne"
+									+ "_" + session.getSoundSpeed() + ".mp3",
+									electionDir[1] + "a" + i + "+" + j + ".mp3");
+							Election.copyFile(electionDir[0]
+									+ "extras/NoOne.txt", electionDir[1] + "a"
+									+ i + "+" + j + ".txt");
+						}
+				}
+				// reset counter
+				session.currentQuestion = 0;
+				System.out.println("DONE WITH FIRST STATE ACTION");
+			}
+		});
+
+		actions.register("finalConfirmation", new StateAction() {
+			public void doAction(int input) {
+				if (input == Globals.TO_CONTINUE) {
+					// for (int j = 0; j < Math.min(
+					// temporaryVotes.length,
+					// votes[currentQuestion].length); j++) {
+					// Print.debug("temporaryVotes: "
+					// + Arrays.toString(temporaryVotes));
+					// if (temporaryVotes[j] !=
+					// votes[currentQuestion][j])
+					// votes[currentQuestion][j] =
+					// temporaryVotes[j];
+					// }
+				}
+
+				if (input == Globals.TO_GO_BACK) {
+					Print.debug("Current state: "
+							+ (startOfConfirmations + session.qToGoBackTo));
+					try {
+						fsm.addTransition(
+								questionIndicies[session.qToGoBackTo][1],
+								startOfConfirmations + session.qToGoBackTo,
+								Globals.TO_CONTINUE);
+						Print.debug("Question to confirmation: "
+								+ (startOfConfirmations + session.qToGoBackTo));
+						session.currentQuestion = session.qToGoBackTo;
+						session.voteSubIndex = 0;
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+
+				if (input != Globals.REPEAT_THIS_MESSAGE) {
+					Print.debug(fsm.printTransitionsToString());
+					session.qToGoBackTo++;
+				}
+			}
+		});
+
+		actions.register("stop", new StateAction() {
+			public void doAction(int x) {
+
+			}
+		});
+
+		actions.register("multipleChoice", new StateAction() {
+			public void doAction(int x) {
+
+				try {
+					// If we need to initialize temporaryVotes
+					if (session.voteSubIndex == 0) {
+						session.temporaryVotes = new int[session.votes[session.currentQuestion].length];
+					}
+
+					session.selectedVote = x - 1;
+					// if (x == Globals.SKIP_CONTEST) {
+					// temporaryVotes[voteSubIndex] = -1;
+					// }
+					// if (selectedVote < 4) {
+					// making the answer wav files
+					String inputFile;
+					if (session.selectedVote == Globals.SKIP_CONTEST - 1
+							|| session.selectedVote == Globals.SKIP_TO_BALLOT_VERIFICATION - 1) {
+						// Print.debug("SKIPPING CONTEST");
+						String tempInput;
+						inputFile = new String(electionDir[0]
+								+ "extras/NoOne" + "_"
+								+ session.getSoundSpeed() + ".mp3");
+
+						for (int i = session.voteSubIndex; i < session.temporaryVotes.length; i++) {
+							session.temporaryVotes[i] = -1;
+							tempInput = new String(electionDir[0]
+									+ "extras/NoOne" + "_"
+									+ session.getSoundSpeed() + ".mp3");
+							Election.copyFile(tempInput, electionDir[1]
+									+ "a" + session.currentQuestion + "+" + i
+									+ ".mp3");
+							Election.copyFile(
+									tempInput.substring(0,
+											tempInput.length() - 6)
+											+ ".txt", electionDir[1] + "a"
+											+ session.currentQuestion + "+" + i
+											+ ".txt");
+						}
+					} else if (x == Globals.TO_GO_BACK) {
+						session.clearKeyPresses();
+						for (int i = 0; i < session.temporaryVotes.length; i++) {
+							if (session.temporaryVotes[i] > 6) {
+								File f = new File(electionDir[1]
+										+ "../../writeIns/"
+										+ session.temporaryVotes[i] + ".wav");
+								if (f.exists()) {
+									f.delete();
+								}
+							}
+						}
+
+						// Clean up the files that we've changed over the
+						// course of
+						// the
+						// question.
+						// Set everything back to normal.
+						for (int i = 0; i < session.temporaryVotes.length; i++) {
+							if (x == Globals.TO_CONTINUE)
+								session.votes[session.currentQuestion - 1][i] = session.temporaryVotes[i];
+							else
+								session.votes[session.currentQuestion][i] = session.temporaryVotes[i];
+						}
+
+						resetAnswerFiles(session.currentQuestion,
+								session.temporaryVotes.length);
+
+						File recordingWav = new File(electionDir[1]
+								+ "../../writeIns/recording.wav");
+						if (recordingWav.exists()) {
+							recordingWav.delete();
+						}
+						session.voteSubIndex = 0;
+						return;
+					}
+
+					else if (x != Globals.REPEAT_THIS_MESSAGE) {
+						inputFile = new String(electionDir[1] + "a"
+								+ session.currentQuestion + "-" + session.selectedVote
+								+ "_" + session.getSoundSpeed() + ".mp3");
+
+						Election.copyFile(inputFile, electionDir[1] + "a"
+								+ session.currentQuestion + "+" + session.voteSubIndex
+								+ ".mp3");
+
+						Election.copyFile(
+								inputFile.substring(0,
+										inputFile.length() - 6) + ".txt",
+								electionDir[1] + "a" + session.currentQuestion
+										+ "+" + session.voteSubIndex + ".txt"); // The
+																		// -6
+																		// is
+																		// to
+																		// remove
+																		// both
+																		// the
+																		// file
+																		// extension
+																		// and
+																		// the
+																		// speed
+																		// designation.
+					}
+					if (x < 5 && x > 0) {
+						session.temporaryVotes[session.voteSubIndex] = session.selectedVote;
+						session.addKeyPress(x);
+
+					}
+					// }
+					// else if (x == 9) {
+					// // clean up any recordings made in this contest.
+					// for (int i = 0; i < temporaryVotes.length; i++) {
+					// if (temporaryVotes[i] > 6) {
+					// File f = new File(electionDir[0]
+					// + "writeIns/" + temporaryVotes[i]
+					// + ".wav");
+					// if (f.exists()) {
+					// f.delete();
+					// }
+					// }
+					// }
+					// }
+
+				}
+
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+
+		actions.register("multipleChoiceConfirmation", new StateAction() {
+			public void doAction(int x) {
+				// if (x == 1)
+				// votes[currentQuestion][voteSubIndex++] = selectedVote;
+				Print.debug("tempVotes: " + Arrays.toString(session.temporaryVotes));
+				if (x == Globals.TO_CONTINUE) {
+					// Accepted their vote.
+
+					String ansFilePath = electionDir[1] + "a"
+							+ session.currentQuestion + "-" + session.selectedVote
+							+ "_concat" + "_" + session.getSoundSpeed()
+							+ ".mp3";
+
+					// Rename the answer file, copy the null file into the
+					// answer file.
+					File answerFile = new File(ansFilePath);
+					renameAnswerFile(answerFile, new File(answerFile
+							.getAbsolutePath() + ".temp"));
+
+					String nullFilePath = electionDir[0]
+							+ "extras/newline_1.mp3";
+					Election.copyFile(nullFilePath, ansFilePath);
+
+					String ansTxtFilePath = electionDir[1] + "a"
+							+ session.currentQuestion + "-" + session.selectedVote
+							+ "_concat" + ".txt";
+
+					// Rename the answer file, copy the null file into the
+					// answer file.
+					File answerTxtFile = new File(ansTxtFilePath);
+					renameAnswerFile(answerTxtFile, new File(answerTxtFile
+							.getAbsolutePath() + ".temp"));
+
+					String nullTxtFilePath = electionDir[0]
+							+ "extras/newline.txt";
+					Election.copyFile(nullTxtFilePath, ansTxtFilePath);
+
+				}
+				if (x == Globals.SKIP_TO_BALLOT_VERIFICATION) {
+					session.temporaryVotes[session.voteSubIndex] = -1;
+					// skipped to the end.
+				}
+				if (x == Globals.TO_GO_BACK) {
+					Print.debug("GOING BACK");
+					// the voter wants to go back
+					if (session.temporaryVotes[session.voteSubIndex] > 6) {
+						File f = new File(electionDir[1] + "../"
+								+ "../writeIns/recording.wav");
+						if (f.exists()) {
+							f.delete();
+						}
+
+						f = new File(electionDir[1] + "../../writeIns/"
+								+ session.temporaryVotes[session.voteSubIndex] + ".wav");
+						if (f.exists()) {
+							f.delete();
+						}
+
+					}
+					Print.debug("Popping a keypress!");
+					session.voteSubIndex--;
+					session.popKeyPress();
+					Print.debug("Done popping a keypress!");
+				}
+				if (x != Globals.REPEAT_THIS_MESSAGE) {
+					session.voteSubIndex++;
+				}
+			}
+		});
+
+		actions.register("multipleConfirmation", new StateAction() {
+			public void doAction(int x) {
+				try {
+					if (x != Globals.REPEAT_THIS_MESSAGE) {
+						session.clearKeyPresses();
+						int curQuestion = session.currentQuestion;
+						if (x == Globals.TO_CONTINUE) {
+							session.votes[session.currentQuestion] = new int[session.temporaryVotes.length];
+							for (int i = 0; i < session.temporaryVotes.length; i++) {
+								session.votes[session.currentQuestion][i] = session.temporaryVotes[i];
+								Print.debug("votes: "
+										+ Arrays.toString(session.votes[session.currentQuestion]));
+							}
+
+							if (session.qToGoBackTo != 0) {
+								session.currentQuestion = numQuestions - 1;
+							}
+
+							session.currentQuestion++;
+						} else if (x == Globals.TO_GO_BACK) {
+							for (int i = 0; i < session.temporaryVotes.length; i++) {
+								if (session.temporaryVotes[i] > 6) {
+									File f = new File(electionDir[1]
+											+ "../../writeIns/"
+											+ session.temporaryVotes[i] + ".wav");
+									if (f.exists()) {
+										f.delete();
+									}
+								}
+							}
+						}
+
+						// Clean up the files that we've changed over the course
+						// of
+						// the
+						// question.
+						// Set everything back to normal.
+						for (int i = 0; i < session.temporaryVotes.length; i++) {
+							if (x == Globals.TO_CONTINUE)
+								session.votes[session.currentQuestion - 1][i] = session.temporaryVotes[i];
+							else
+								session.votes[session.currentQuestion][i] = session.temporaryVotes[i];
+						}
+
+						resetAnswerFiles(curQuestion, session.temporaryVotes.length);
+
+						File recordingWav = new File(electionDir[1]
+								+ "../../writeIns/recording.wav");
+						if (recordingWav.exists()) {
+							recordingWav.delete();
+						}
+						session.voteSubIndex = 0;
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+
+		actions.register("simpleChoice", new StateAction() {
+			public void doAction(int x) {
+				session.selectedVote = x - 1;
+
+				if (session.selectedVote != 9 && session.selectedVote != 6) { // changed to
+																// allow
+																// pressing 7
+																// for write-in
+					// making the answer wav file
+					String inputFile;
+
+					if (session.selectedVote == 7 || session.selectedVote == -1) {
+						inputFile = new String(electionDir[0] + "extras/NoOne"
+								+ "_" + session.getSoundSpeed() + ".mp3");
+						session.selectedVote = -1;
+					} else
+						inputFile = new String(electionDir[1] + "a"
+								+ session.currentQuestion + "-" + session.selectedVote + ".mp3");
+
+					Election.copyFile(inputFile, electionDir[1] + "a"
+							+ session.currentQuestion + ".mp3");
+					Election.copyFile(
+							inputFile.substring(0, inputFile.length() - 3)
+									+ "txt", electionDir[1] + "a"
+									+ session.currentQuestion + ".txt");
+				} // else ignore
+			}
+		});
+
+		actions.register("simpleConfirmation", new StateAction() {
+			public void doAction(int x) {
+				if (x == 1)
+					session.votes[session.currentQuestion++][0] = session.selectedVote;
+				if (x == 8)
+					session.votes[session.currentQuestion++][0] = -1;
+			}
+		});
+
+		actions.register("writeIn", new StateAction() {
+			public void doAction(int x) {
+				if (x == Globals.TO_CONTINUE) {
+					File recording = new File(electionDir[1]
+							+ "writeIns/recording.wav");
+					if (recording.exists()) {
+						// Tell them they can't record another one.
+						Print.file(session, electionDir[0]
+								+ "extras/AlreadyHaveRecording.txt");
+						AudioPlayer ap = AudioPlayerFactory.getAudioPlayer(
+								electionDir[0] + "extras/AlreadyHaveRecording"
+										+ "_" + session.getSoundSpeed() + ".mp3",
+								false, session);
+						Long time = ap.getDuration();
+
+						ap.startPlaying();
+						try {
+							session.getClock().sleep(time);
+						} catch (InterruptedException e1) {
+							// TODO Auto-generated catch block
+							e1.printStackTrace();
+						}
+					}
+
+					else {
+						// they can go right ahead and record a write-in vote.
+						// Print.debug("Start recording! Beep!");
+						Print.clearTextArea(session);
+						Print.file(session, electionDir[0] + "extras/NowRecord.txt");
+						AudioPlayer ap = AudioPlayerFactory.getAudioPlayer(
+								electionDir[0] + "extras/NowRecord" + "_"
+										+ session.getSoundSpeed() + ".mp3", false,
+								session);
+						Long time = ap.getDuration();
+						Print.debug("Recording sleeptime: " + time);
+						ap.startPlaying();
+						try {
+							session.getClock().sleep(time);
+						} catch (InterruptedException e1) {
+							e1.printStackTrace();
+						}
+
+						String beepFileName = electionDir[0]
+								+ "extras/beep.mp3";
+						AudioPlayer ap2 = AudioPlayerFactory.getAudioPlayer(
+								beepFileName, false, session);
+						Long time2 = ap2.getDuration();
+						Print.debug("Beep sleeptime: " + time2);
+						ap2.startPlaying();
+
+						try {
+							session.getClock().sleep(time2);
+						} catch (InterruptedException e1) {
+							e1.printStackTrace();
+						}
+
+						try {
+							session.getAudioPlayerFactory().record(
+									getCaptureTime(), electionDir[1]
+											+ "../../writeIns/recording.wav");
+						} catch (LineUnavailableException e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+						} catch (IOException e) {
+							// TODO update this.
+							e.printStackTrace();
+						}
+						try {
+							session.getClock().sleep(
+									(getCaptureTime() + 1) * 1000);
+						} catch (InterruptedException e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+						}
+
+						ap.openFileNoSpeedOption(beepFileName);
+						time = ap.getDuration();
+						ap.startPlaying();
+						try {
+							session.getClock().sleep(time);
+						} catch (InterruptedException e1) {
+							// TODO Auto-generated catch block
+							e1.printStackTrace();
+						}
+
+						Print.debug("Stop recording! Beep!");
+						Print.clearTextArea(session);
+					}
+					// Will eventually play an audio file here. This is just for
+					// testing.
+					// Print.debug("Press 1 to continue, press 3 to go back!");
+				} else if (x == Globals.TO_GO_BACK) {
+					session.popKeyPress();
+				}
+			}
+		});
+
+		actions.register("writeInReplay", new StateAction() {
+			public void doAction(int x) {
+				if (x == Globals.TO_CONTINUE) {
+					String oldAnswerFilePath = electionDir[1] + "a"
+							+ session.currentQuestion + "+" + session.voteSubIndex + ".mp3";
+					File oldAnswerFile = new File(oldAnswerFilePath);
+					if (oldAnswerFile.exists()) {
+						deleteAnswerFile(oldAnswerFile);
+					}
+
+					String oldAnswerFilePathWav = electionDir[1] + "a"
+							+ session.currentQuestion + "+" + session.voteSubIndex + ".wav";
+					File oldAnswerFileWav = new File(oldAnswerFilePathWav);
+					if (oldAnswerFileWav.exists()) {
+						deleteAnswerFile(oldAnswerFileWav);
+					}
+
+					String currentAnswerFile = electionDir[1] + "a"
+							+ session.currentQuestion + "+" + session.voteSubIndex + ".wav";
+					copyFile(electionDir[1] + "../../writeIns/recording.wav",
+							currentAnswerFile);
+					// if they've already recorded a WIV for this contest, but
+					// want to enter it again.
+					for (int i = 0; i < session.temporaryVotes.length; i++) {
+						if (session.temporaryVotes[i] > 6) {
+							session.temporaryVotes[session.voteSubIndex] = session.temporaryVotes[i];
+
+							return;
+
+						}
+					}
+
+					Random r = new Random();
+					File f;
+					int random = 0;
+					do {
+						random = r.nextInt();
+						f = new File(electionDir[1] + "../../writeIns/"
+								+ Integer.toString(random) + ".wav");
+					} while (random < 6 || f == null || f.exists());
+
+					// int hashOfTime = Math.abs(new Long(System
+					// .currentTimeMillis()).hashCode()) + 5;
+					// if (hashOfTime < 0)
+					// hashOfTime = Integer.MAX_VALUE;
+
+					// String newFileName = Integer.toString(hashOfTime);
+					String newFileName = electionDir[1] + "../../writeIns/"
+							+ Integer.toString(random) + ".wav";
+					copyFile(electionDir[1] + "../../writeIns/recording.wav",
+							newFileName);
+
+					session.temporaryVotes[session.voteSubIndex] = random; // changed to
+															// allow
+															// write-ins
+															// to
+															// actually
+															// be
+															// candidates.
+					// this variable is incremented in the state below, so it
+					// must be one less than the current value.
+				} else if (x == Globals.TO_GO_BACK) {
+					boolean alreadyWrittenIn = false;
+					for (int i = 0; i < session.temporaryVotes.length; i++) {
+						if (session.temporaryVotes[i] > 6) {
+							alreadyWrittenIn = true;
+						}
+					}
+					if (!alreadyWrittenIn) {
+
+						// make sure to delete the old recording, but only if
+						// there hasn't already been a WI-vote.
+						File originalRecording = new File(electionDir[1]
+								+ "../writeIns/recording.wav");
+						if (originalRecording.exists()) {
+							originalRecording.delete();
+						}
+					}
+				} 
+				//else if (x == 9) {
+//					for (int i = 0; i < temporaryVotes.length; i++) {
+//						if (temporaryVotes[i] > 6) {
+//							File f = new File(electionDir[1]
+//									+ "../../writeIns/" + temporaryVotes[i]
+//									+ ".wav");
+//							if (f.exists()) {
+//								f.delete();
+//							}
+//						}
+//					}
+//
+//					// make sure to delete the old recording
+//					File originalRecording = new File(electionDir[1]
+//							+ "../../writeIns/recording.wav");
+//					if (originalRecording.exists()) {
+//						originalRecording.delete();
+//
+//					}
+				//}
+
+			}
+		});
+	}
+
+	/**
+	 * @return the length of a write-in recording, in seconds, from the
+	 *         properties of the session
+	 */
+	private int getCaptureTime() {
+		return Integer.parseInt(session.getProperty("CaptureLength"));
+	}
+
 	/**
 	 * Returns the FSM for this election
 	 * 
@@ -207,21 +1018,31 @@ public class Election {
 	}
 
 	/**
-	 * Main method that constructs the finite state machine
-	 * 
+	 * Sets up the directories the states and actions use, whether the graph
+	 * is constructed or loaded
 	 */
-	public void constructFSM() {
+	private void prepareDirs() {
 		// make sure the onShutdown thread gets called before program exits even
 		// in case of an error
-		wardRelativePath = "../" + Globals.PROPERTIES.getProperty("Ward") + "/"
-				+ Globals.PROPERTIES.getProperty("Language") + "/";
+		wardRelativePath = "../" + session.getProperty("Ward") + "/"
+				+ session.getProperty("Language") + "/";
 		electionDir[1] = electionDir[1]
-				+ Globals.PROPERTIES.getProperty("Language") + "/";
+				+ session.getProperty("Language") + "/";
 		writeInsRelativePath = "../writeIns/";
 		Print.debug("ElectionDir 1: " + electionDir[1]);
 		Runtime.getRuntime().addShutdownHook(cleanupFilesOnShutdown);
+	}
+
+	/**
+	 * Main method that constructs the finite state machine
+	 * 
+	 */
+	public void constructFSM() {
+		prepareDirs();
 
 		fsm = new FiniteStateMachine();
+		fsm.setSession(session);
+		fsm.setActionRegistry(actions);
 		// select language
 		int[] a = { Globals.TO_CONTINUE, Globals.REPEAT_THIS_MESSAGE };
 		/*
@@ -236,7 +1057,7 @@ public class Election {
 		Vector<String> soundFiles = new Vector<String>();
 		soundFiles.add("extras/MunicipalElection.mp3");
 
-		String wardNum = Globals.PROPERTIES.getProperty("Ward");
+		String wardNum = session.getProperty("Ward");
 		wardNum = wardNum.substring(wardNum.length() - 1, wardNum.length());
 		Print.debug("Ward number: " + wardNum);
 		soundFiles.add("extras/" + wardNum + ".mp3");
@@ -253,35 +1074,7 @@ public class Election {
 		String[] wavs1 = new String[soundFiles.size()];
 		wavs1 = soundFiles.toArray(wavs1);
 
-		fsm.addState(a2, electionDir, wavs1, true, new StateAction() {
-			public void doAction(int x) {
-				// initializes all final vote selections to "skipped"
-
-				for (int i = 0; i < numQuestions; i++) {
-					if (questions[i].getTypeOfAnswer().equals("one_answer")) {
-						Election.copyFile(electionDir[0] + "extras/NoOne" + "_"
-								+ Globals.SOUND_SPEED + ".mp3", electionDir[1]
-								+ "a" + i + ".mp3");
-						Election.copyFile(electionDir[0] + "extras/NoOne.txt",
-								electionDir[1] + "a" + i + ".txt");
-					} else
-						// for multiple answers, initialize all the
-						// possible "sub-votes"
-
-						for (int j = 0; j < questions[i].getMax(); j++) {
-							Election.copyFile(electionDir[0] + "extras/NoOne"
-									+ "_" + Globals.SOUND_SPEED + ".mp3",
-									electionDir[1] + "a" + i + "+" + j + ".mp3");
-							Election.copyFile(electionDir[0]
-									+ "extras/NoOne.txt", electionDir[1] + "a"
-									+ i + "+" + j + ".txt");
-						}
-				}
-				// reset counter
-				currentQuestion = 0;
-				System.out.println("DONE WITH FIRST STATE ACTION");
-			}
-		});
+		fsm.addNamedState(a2, electionDir, wavs1, true, "instructions");
 		fsm.setStartState(0);
 
 		Vector<String> secondInstructionFiles = new Vector<String>();
@@ -326,7 +1119,7 @@ public class Election {
 			aWavs.add("extras/contest.mp3");
 			aWavs.add("extras/q" + i + "confirmation.mp3");
 			if (i > 0) {
-				String ward = Globals.PROPERTIES.getProperty("Ward");
+				String ward = session.getProperty("Ward");
 				ward = ward.substring(ward.length() - 1, ward.length());
 				Print.debug("Ward number: " + ward);
 				aWavs.add("extras/" + ward + ".mp3");
@@ -351,46 +1144,8 @@ public class Election {
 			wavs = aWavs.toArray(wavs);
 			// add question states with appropriate transitions. Make sure to
 			// add the last one to the actual final confirmation state.
-			fsm.addState(confirmationInputs, electionDir, wavs, true,
-					new StateAction() {
-
-						public void doAction(int input) {
-							if (input == Globals.TO_CONTINUE) {
-								// for (int j = 0; j < Math.min(
-								// temporaryVotes.length,
-								// votes[currentQuestion].length); j++) {
-								// Print.debug("temporaryVotes: "
-								// + Arrays.toString(temporaryVotes));
-								// if (temporaryVotes[j] !=
-								// votes[currentQuestion][j])
-								// votes[currentQuestion][j] =
-								// temporaryVotes[j];
-								// }
-							}
-
-							if (input == Globals.TO_GO_BACK) {
-								Print.debug("Current state: "
-										+ (startOfConfirmations + qToGoBackTo));
-								try {
-									fsm.addTransition(
-											questionIndicies[qToGoBackTo][1],
-											startOfConfirmations + qToGoBackTo,
-											Globals.TO_CONTINUE);
-									Print.debug("Question to confirmation: "
-											+ (startOfConfirmations + qToGoBackTo));
-									currentQuestion = qToGoBackTo;
-									voteSubIndex = 0;
-								} catch (Exception e) {
-									e.printStackTrace();
-								}
-							}
-
-							if (input != Globals.REPEAT_THIS_MESSAGE) {
-								Print.debug(fsm.printTransitionsToString());
-								qToGoBackTo++;
-							}
-						}
-					});
+			fsm.addNamedState(confirmationInputs, electionDir, wavs, true,
+					"finalConfirmation");
 			fsm.addTransition(fsm.size() - 1, questionIndicies[i][0],
 					Globals.TO_GO_BACK);
 			Print.debug("Confirmation for question " + i + ": State "
@@ -527,11 +1282,7 @@ public class Election {
 		// fsm.addTransition(fsm.size()-3, fsm.size()-1, 1);
 		int[] b = { 11, 0 };
 		// add blank stop state
-		fsm.addState(b, electionDir, "", true, new StateAction() {
-			public void doAction(int x) {
-
-			}
-		});
+		fsm.addNamedState(b, electionDir, new String[] { "" }, true, "stop");
 		// fsm.addTransition(fsm.size() - 3, fsm.size() - 1, 1);
 		fsm.addTransition(fsm.size() - 2, fsm.size() - 1, 11);
 
@@ -541,6 +1292,8 @@ public class Election {
 		// '*' repeats current state for ALL states
 		for (int i = 0; i < fsm.size(); i++)
 			fsm.addTransition(i, i, 0);
+
+		constructed = fsm.freeze();
 	}
 
 	/**
@@ -567,41 +1320,41 @@ public class Election {
 																// question i
 			wavs.add("extras/" + (i + 1) + ".mp3");
 
-			if (votes[i].length == 1) { // single answer
+			if (session.votes[i].length == 1) { // single answer
 				wavs.add("extras/Is.mp3");
-				if (votes[i][0] != -1) {
-					String code = confirmationCodes.get(i).get(votes[i][0]);
+				if (session.votes[i][0] != -1) {
+					String code = confirmationCodes.get(i).get(session.votes[i][0]);
 					for (int k = 0; k < code.length(); k++) {
 						char c = code.charAt(k);
 						String wav = ("extras/" + c + ".mp3"); // ++
 						wavs.add(wav);
 					}
 				} else
-					wavs.add("extras/NoOne" + "_" + Globals.SOUND_SPEED
+					wavs.add("extras/NoOne" + "_" + session.getSoundSpeed()
 							+ ".mp3");
 			} else { // multiple answers
-				wavs.add("extras/are" + Globals.SOUND_SPEED + ".mp3");
-				int n = votes[i].length;
+				wavs.add("extras/are" + session.getSoundSpeed() + ".mp3");
+				int n = session.votes[i].length;
 				for (int j = 0; j < n; j++) {
-					if (votes[i][j] != -1) {
+					if (session.votes[i][j] != -1) {
 						// because the codes are stored linearly from 0->n*n, we
 						// must pick the code we need
-						String code = confirmationCodes.get(i).get(votes[i][j]);
+						String code = confirmationCodes.get(i).get(session.votes[i][j]);
 						for (int k = 0; k < code.length(); k++) {
 							char c = code.charAt(k);
-							String wav = ("extras/" + c + Globals.SOUND_SPEED + ".mp3"); // ++
+							String wav = ("extras/" + c + session.getSoundSpeed() + ".mp3"); // ++
 							wavs.add(wav);
 						}
 					} else {
-						wavs.add("extras/NoOne" + "_" + Globals.SOUND_SPEED
+						wavs.add("extras/NoOne" + "_" + session.getSoundSpeed()
 								+ ".mp3");
 					}
 					if (j < (n - 1))
-						wavs.add("extras/And" + Globals.SOUND_SPEED + ".mp3");
+						wavs.add("extras/And" + session.getSoundSpeed() + ".mp3");
 				}
 			}
 		}
-		wavs.add("extras/PressOneToContinue" + Globals.SOUND_SPEED + ".mp3");
+		wavs.add("extras/PressOneToContinue" + session.getSoundSpeed() + ".mp3");
 		String[] wavsArray = new String[wavs.size()];
 		wavsArray = wavs.toArray(wavsArray);
 		fsm.addState(inputs, electionDir, wavsArray, true, new StateAction() {
@@ -692,7 +1445,7 @@ public class Election {
 			wavsVector.add("extras/q" + qId + "confirmation.mp3");
 			wavsVector.add("extras/newline.mp3");
 			if (Integer.parseInt(qId) > 0) {
-				String ward = Globals.PROPERTIES.getProperty("Ward");
+				String ward = session.getProperty("Ward");
 				ward = ward.substring(ward.length() - 1, ward.length());
 				Print.debug("Ward number: " + ward);
 				wavsVector.add("extras/" + ward + ".mp3");
@@ -750,137 +1503,8 @@ public class Election {
 			// inputs[a.length + 3] = 9;
 			inputs[a.length + 2] = Globals.TO_GO_BACK;
 
-			// Choice state
-			g.addState(inputs, electionDir, wavs, true, new StateAction() {
-				public void doAction(int x) {
-
-					try {
-						// If we need to initialize temporaryVotes
-						if (voteSubIndex == 0) {
-							temporaryVotes = new int[votes[currentQuestion].length];
-						}
-
-						selectedVote = x - 1;
-						// if (x == Globals.SKIP_CONTEST) {
-						// temporaryVotes[voteSubIndex] = -1;
-						// }
-						// if (selectedVote < 4) {
-						// making the answer wav files
-						String inputFile;
-						if (selectedVote == Globals.SKIP_CONTEST - 1
-								|| selectedVote == Globals.SKIP_TO_BALLOT_VERIFICATION - 1) {
-							// Print.debug("SKIPPING CONTEST");
-							String tempInput;
-							inputFile = new String(electionDir[0]
-									+ "extras/NoOne" + "_"
-									+ Globals.SOUND_SPEED + ".mp3");
-
-							for (int i = voteSubIndex; i < temporaryVotes.length; i++) {
-								temporaryVotes[i] = -1;
-								tempInput = new String(electionDir[0]
-										+ "extras/NoOne" + "_"
-										+ Globals.SOUND_SPEED + ".mp3");
-								Election.copyFile(tempInput, electionDir[1]
-										+ "a" + currentQuestion + "+" + i
-										+ ".mp3");
-								Election.copyFile(
-										tempInput.substring(0,
-												tempInput.length() - 6)
-												+ ".txt", electionDir[1] + "a"
-												+ currentQuestion + "+" + i
-												+ ".txt");
-							}
-						} else if (x == Globals.TO_GO_BACK) {
-							DRE.clearKeyPresses();
-							for (int i = 0; i < temporaryVotes.length; i++) {
-								if (temporaryVotes[i] > 6) {
-									File f = new File(electionDir[1]
-											+ "../../writeIns/"
-											+ temporaryVotes[i] + ".wav");
-									if (f.exists()) {
-										f.delete();
-									}
-								}
-							}
-
-							// Clean up the files that we've changed over the
-							// course of
-							// the
-							// question.
-							// Set everything back to normal.
-							for (int i = 0; i < temporaryVotes.length; i++) {
-								if (x == Globals.TO_CONTINUE)
-									votes[currentQuestion - 1][i] = temporaryVotes[i];
-								else
-									votes[currentQuestion][i] = temporaryVotes[i];
-							}
-
-							resetAnswerFiles(currentQuestion,
-									temporaryVotes.length);
-
-							File recordingWav = new File(electionDir[1]
-									+ "../../writeIns/recording.wav");
-							if (recordingWav.exists()) {
-								recordingWav.delete();
-							}
-							voteSubIndex = 0;
-							return;
-						}
-
-						else if (x != Globals.REPEAT_THIS_MESSAGE) {
-							inputFile = new String(electionDir[1] + "a"
-									+ currentQuestion + "-" + selectedVote
-									+ "_" + Globals.SOUND_SPEED + ".mp3");
-
-							Election.copyFile(inputFile, electionDir[1] + "a"
-									+ currentQuestion + "+" + voteSubIndex
-									+ ".mp3");
-
-							Election.copyFile(
-									inputFile.substring(0,
-											inputFile.length() - 6) + ".txt",
-									electionDir[1] + "a" + currentQuestion
-											+ "+" + voteSubIndex + ".txt"); // The
-																			// -6
-																			// is
-																			// to
-																			// remove
-																			// both
-																			// the
-																			// file
-																			// extension
-																			// and
-																			// the
-																			// speed
-																			// designation.
-						}
-						if (x < 5 && x > 0) {
-							temporaryVotes[voteSubIndex] = selectedVote;
-							DRE.addKeyPress(x);
-
-						}
-						// }
-						// else if (x == 9) {
-						// // clean up any recordings made in this contest.
-						// for (int i = 0; i < temporaryVotes.length; i++) {
-						// if (temporaryVotes[i] > 6) {
-						// File f = new File(electionDir[0]
-						// + "writeIns/" + temporaryVotes[i]
-						// + ".wav");
-						// if (f.exists()) {
-						// f.delete();
-						// }
-						// }
-						// }
-						// }
-
-					}
-
-					catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-			});
+			// Choice state
+			g.addNamedState(inputs, electionDir, wavs, true, "multipleChoice");
 
 			if (j == 1)
 				questionIndicies[Integer.parseInt(qu.getId())][0] = g.size() - 1;
@@ -930,7 +1554,7 @@ public class Election {
 			wavsVector2.add("extras/choice.mp3");
 			wavsVector2.add("extras/q" + qu.getId() + "confirmation" + ".mp3");
 			if (Integer.parseInt(qId) > 0) {
-				String ward = Globals.PROPERTIES.getProperty("Ward");
+				String ward = session.getProperty("Ward");
 				ward = ward.substring(ward.length() - 1, ward.length());
 				Print.debug("Ward number: " + ward);
 				wavsVector2.add("extras/" + ward + ".mp3");
@@ -946,75 +1570,8 @@ public class Election {
 			wavs = new String[wavsVector2.size()];
 			wavs = wavsVector2.toArray(wavs);
 
-			g.addState(inputs, electionDir, wavs, true, new StateAction() {
-				public void doAction(int x) {
-					// if (x == 1)
-					// votes[currentQuestion][voteSubIndex++] = selectedVote;
-					Print.debug("tempVotes: " + Arrays.toString(temporaryVotes));
-					if (x == Globals.TO_CONTINUE) {
-						// Accepted their vote.
-
-						String ansFilePath = electionDir[1] + "a"
-								+ currentQuestion + "-" + selectedVote
-								+ "_concat" + "_" + Globals.SOUND_SPEED
-								+ ".mp3";
-
-						// Rename the answer file, copy the null file into the
-						// answer file.
-						File answerFile = new File(ansFilePath);
-						answerFile.renameTo(new File(answerFile
-								.getAbsolutePath() + ".temp"));
-
-						String nullFilePath = electionDir[0]
-								+ "extras/newline_1.mp3";
-						Election.copyFile(nullFilePath, ansFilePath);
-
-						String ansTxtFilePath = electionDir[1] + "a"
-								+ currentQuestion + "-" + selectedVote
-								+ "_concat" + ".txt";
-
-						// Rename the answer file, copy the null file into the
-						// answer file.
-						File answerTxtFile = new File(ansTxtFilePath);
-						answerTxtFile.renameTo(new File(answerTxtFile
-								.getAbsolutePath() + ".temp"));
-
-						String nullTxtFilePath = electionDir[0]
-								+ "extras/newline.txt";
-						Election.copyFile(nullTxtFilePath, ansTxtFilePath);
-
-					}
-					if (x == Globals.SKIP_TO_BALLOT_VERIFICATION) {
-						temporaryVotes[voteSubIndex] = -1;
-						// skipped to the end.
-					}
-					if (x == Globals.TO_GO_BACK) {
-						Print.debug("GOING BACK");
-						// the voter wants to go back
-						if (temporaryVotes[voteSubIndex] > 6) {
-							File f = new File(electionDir[1] + "../"
-									+ "../writeIns/recording.wav");
-							if (f.exists()) {
-								f.delete();
-							}
-
-							f = new File(electionDir[1] + "../../writeIns/"
-									+ temporaryVotes[voteSubIndex] + ".wav");
-							if (f.exists()) {
-								f.delete();
-							}
-
-						}
-						Print.debug("Popping a keypress!");
-						voteSubIndex--;
-						DRE.popKeyPress();
-						Print.debug("Done popping a keypress!");
-					}
-					if (x != Globals.REPEAT_THIS_MESSAGE) {
-						voteSubIndex++;
-					}
-				}
-			});
+			g.addNamedState(inputs, electionDir, wavs, true,
+					"multipleChoiceConfirmation");
 			// add transitions from various vote states.
 			for (int i = 0; i < a.length - 1; i++)
 				g.addTransition(g.size() - 4, g.size() - 1, (i + 1));
@@ -1046,7 +1603,7 @@ public class Election {
 			wavsVector3.add("extras/choice.mp3");
 			wavsVector3.add("extras/q" + qu.getId() + "confirmation.mp3");
 			if (Integer.parseInt(qId) > 0) {
-				String ward = Globals.PROPERTIES.getProperty("Ward");
+				String ward = session.getProperty("Ward");
 				ward = ward.substring(ward.length() - 1, ward.length());
 				Print.debug("Ward number: " + ward);
 				wavsVector3.add("extras/" + ward + ".mp3");
@@ -1065,64 +1622,7 @@ public class Election {
 		wavs = wavsVector3.toArray(wavs);
 		Print.debug(Arrays.toString(wavs));
 
-		g.addState(inputs, electionDir, wavs, true, new StateAction() {
-			public void doAction(int x) {
-				try {
-					if (x != Globals.REPEAT_THIS_MESSAGE) {
-						DRE.clearKeyPresses();
-						int curQuestion = currentQuestion;
-						if (x == Globals.TO_CONTINUE) {
-							votes[currentQuestion] = new int[temporaryVotes.length];
-							for (int i = 0; i < temporaryVotes.length; i++) {
-								votes[currentQuestion][i] = temporaryVotes[i];
-								Print.debug("votes: "
-										+ Arrays.toString(votes[currentQuestion]));
-							}
-
-							if (qToGoBackTo != 0) {
-								currentQuestion = numQuestions - 1;
-							}
-
-							currentQuestion++;
-						} else if (x == Globals.TO_GO_BACK) {
-							for (int i = 0; i < temporaryVotes.length; i++) {
-								if (temporaryVotes[i] > 6) {
-									File f = new File(electionDir[1]
-											+ "../../writeIns/"
-											+ temporaryVotes[i] + ".wav");
-									if (f.exists()) {
-										f.delete();
-									}
-								}
-							}
-						}
-
-						// Clean up the files that we've changed over the course
-						// of
-						// the
-						// question.
-						// Set everything back to normal.
-						for (int i = 0; i < temporaryVotes.length; i++) {
-							if (x == Globals.TO_CONTINUE)
-								votes[currentQuestion - 1][i] = temporaryVotes[i];
-							else
-								votes[currentQuestion][i] = temporaryVotes[i];
-						}
-
-						resetAnswerFiles(curQuestion, temporaryVotes.length);
-
-						File recordingWav = new File(electionDir[1]
-								+ "../../writeIns/recording.wav");
-						if (recordingWav.exists()) {
-							recordingWav.delete();
-						}
-						voteSubIndex = 0;
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
-		});
+		g.addNamedState(inputs, electionDir, wavs, true, "multipleConfirmation");
 
 		questionIndicies[Integer.parseInt(qu.getId())][1] = g.size() - 1;
 
@@ -1156,7 +1656,7 @@ public class Election {
 			// votes[currentQuestion - 1][i] = temporaryVotes[i];
 
 			String oldAnsFilePath = electionDir[1] + "a" + (question) + "-" + i
-					+ "_concat" + "_" + Globals.SOUND_SPEED + ".mp3";
+					+ "_concat" + "_" + session.getSoundSpeed() + ".mp3";
 
 			String ansFilePath = oldAnsFilePath + ".temp";
 
@@ -1165,14 +1665,14 @@ public class Election {
 			File oldAnswerFile = new File(oldAnsFilePath);
 
 			if (answerFile.exists() && oldAnswerFile.exists()) {
-				boolean deleteSuccess = oldAnswerFile.delete();
+				boolean deleteSuccess = deleteAnswerFile(oldAnswerFile);
 				if (!deleteSuccess) {
 					Print.debug("Could not delete file: " + ansFilePath);
 				}
 				copyFile(ansFilePath, oldAnsFilePath);
 				// answerTxtFile.renameTo(new
 				// File(oldAnsTxtFilePath));
-				deleteSuccess = answerFile.delete();
+				deleteSuccess = deleteAnswerFile(answerFile);
 				if (!deleteSuccess) {
 					Print.debug("Could not delete file: " + ansFilePath);
 				}
@@ -1188,7 +1688,7 @@ public class Election {
 			File oldAnswerTxtFile = new File(oldAnsTxtFilePath);
 
 			if (answerTxtFile.exists() && oldAnswerTxtFile.exists()) {
-				boolean deleteSuccess = oldAnswerTxtFile.delete();
+				boolean deleteSuccess = deleteAnswerFile(oldAnswerTxtFile);
 				if (!deleteSuccess) {
 					Print.debug("Could not delete file: " + ansFilePath);
 				}
@@ -1196,7 +1696,7 @@ public class Election {
 				copyFile(ansTxtFilePath, oldAnsTxtFilePath);
 				// answerTxtFile.renameTo(new
 				// File(oldAnsTxtFilePath));
-				deleteSuccess = answerTxtFile.delete();
+				deleteSuccess = deleteAnswerFile(answerTxtFile);
 				if (!deleteSuccess) {
 					Print.debug("Could not delete file: " + ansFilePath);
 				}
@@ -1249,34 +1749,7 @@ public class Election {
 		inputs[a.length + 2] = 0;
 		inputs[a.length + 3] = 10;
 
-		g.addState(inputs, electionDir, wavs, true, new StateAction() {
-			public void doAction(int x) {
-				selectedVote = x - 1;
-
-				if (selectedVote != 9 && selectedVote != 6) { // changed to
-																// allow
-																// pressing 7
-																// for write-in
-					// making the answer wav file
-					String inputFile;
-
-					if (selectedVote == 7 || selectedVote == -1) {
-						inputFile = new String(electionDir[0] + "extras/NoOne"
-								+ "_" + Globals.SOUND_SPEED + ".mp3");
-						selectedVote = -1;
-					} else
-						inputFile = new String(electionDir[1] + "a"
-								+ currentQuestion + "-" + selectedVote + ".mp3");
-
-					Election.copyFile(inputFile, electionDir[1] + "a"
-							+ currentQuestion + ".mp3");
-					Election.copyFile(
-							inputFile.substring(0, inputFile.length() - 3)
-									+ "txt", electionDir[1] + "a"
-									+ currentQuestion + ".txt");
-				} // else ignore
-			}
-		});
+		g.addNamedState(inputs, electionDir, wavs, true, "simpleChoice");
 
 		int beginQIndex = g.size() - 1;
 
@@ -1292,17 +1765,11 @@ public class Election {
 		inputs[1] = 3;
 		inputs[2] = 10;
 		wavs[0] = "extras/YouHaveSelected.mp3";
-		wavs[1] = "a" + qId + ".mp3";
+		// the answer file simpleChoice copies the candidate to
+		wavs[1] = wardRelativePath + "a" + qId + ".mp3";
 		wavs[2] = "extras/VoteConfirmation.mp3";
 
-		g.addState(inputs, electionDir, wavs, true, new StateAction() {
-			public void doAction(int x) {
-				if (x == 1)
-					votes[currentQuestion++][0] = selectedVote;
-				if (x == 8)
-					votes[currentQuestion++][0] = -1;
-			}
-		});
+		g.addNamedState(inputs, electionDir, wavs, true, "simpleConfirmation");
 		for (int i = 0; i < a.length; i++)
 			g.addTransition(g.size() - 4, g.size() - 1, (i + 1));
 		g.addTransition(g.size() - 4, g.size() - 1, 8);
@@ -1313,8 +1780,6 @@ public class Election {
 			Question qu) {
 		getProperties();
 		Print.debug("Properties: " + properties);
-		final int captureTime = Integer.parseInt(properties
-				.getProperty("CaptureLength"));
 
 		Print.debug("Adding write-in option.");
 		int[] input = new int[3];
@@ -1327,100 +1792,7 @@ public class Election {
 		wavs[2] = "extras/ToRecord.mp3";
 		wavs[3] = "extras/ToRepeatThisMessage.mp3";
 
-		g.addState(input, electionDir, wavs, true, new StateAction() {
-			public void doAction(int x) {
-				if (x == Globals.TO_CONTINUE) {
-					File recording = new File(electionDir[1]
-							+ "writeIns/recording.wav");
-					if (recording.exists()) {
-						// Tell them they can't record another one.
-						Print.file(electionDir[0]
-								+ "extras/AlreadyHaveRecording.txt");
-						AudioPlayer ap = AudioPlayerFactory.getAudioPlayer(
-								electionDir[0] + "extras/AlreadyHaveRecording"
-										+ "_" + Globals.SOUND_SPEED + ".mp3",
-								false);
-						Long time = ap.getDuration();
-
-						ap.startPlaying();
-						try {
-							Thread.sleep(time);
-						} catch (InterruptedException e1) {
-							// TODO Auto-generated catch block
-							e1.printStackTrace();
-						}
-					}
-
-					else {
-						// they can go right ahead and record a write-in vote.
-						// Print.debug("Start recording! Beep!");
-						Print.clearTextArea();
-						Print.file(electionDir[0] + "extras/NowRecord.txt");
-						AudioPlayer ap = AudioPlayerFactory.getAudioPlayer(
-								electionDir[0] + "extras/NowRecord" + "_"
-										+ Globals.SOUND_SPEED + ".mp3", false);
-						Long time = ap.getDuration();
-						Print.debug("Recording sleeptime: " + time);
-						ap.startPlaying();
-						try {
-							Thread.sleep(time);
-						} catch (InterruptedException e1) {
-							e1.printStackTrace();
-						}
-
-						String beepFileName = electionDir[0]
-								+ "extras/beep.mp3";
-						AudioPlayer ap2 = AudioPlayerFactory.getAudioPlayer(
-								beepFileName, false);
-						Long time2 = ap2.getDuration();
-						Print.debug("Beep sleeptime: " + time2);
-						ap2.startPlaying();
-
-						try {
-							Thread.sleep(time2);
-						} catch (InterruptedException e1) {
-							e1.printStackTrace();
-						}
-
-						try {
-							AudioCapture.captureAndSaveToFile(captureTime,
-									electionDir[1]
-											+ "../../writeIns/recording.wav");
-						} catch (LineUnavailableException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (IOException e) {
-							// TODO update this.
-							e.printStackTrace();
-						}
-						try {
-							Thread.sleep((captureTime + 1) * 1000);
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-
-						ap.openFileNoSpeedOption(beepFileName);
-						time = ap.getDuration();
-						ap.startPlaying();
-						try {
-							Thread.sleep(time);
-						} catch (InterruptedException e1) {
-							// TODO Auto-generated catch block
-							e1.printStackTrace();
-						}
-
-						Print.debug("Stop recording! Beep!");
-						Print.clearTextArea();
-					}
-					// Will eventually play an audio file here. This is just for
-					// testing.
-					// Print.debug("Press 1 to continue, press 3 to go back!");
-				} else if (x == Globals.TO_GO_BACK) {
-					DRE.popKeyPress();
-				}
-			}
-		});
+		g.addNamedState(input, electionDir, wavs, true, "writeIn");
 
 		// transition from pressing the last candidate key in the vote state
 		g.addTransition(g.size() - 2, g.size() - 1, qu.getMax()); // TODO
@@ -1445,108 +1817,7 @@ public class Election {
 		wavs[4] = "extras/ToContinue.mp3";
 		// wavs[4] = "extras/GoAhead.mp3";
 
-		g.addState(input, electionDir, wavs, true, new StateAction() {
-			public void doAction(int x) {
-				if (x == Globals.TO_CONTINUE) {
-					String oldAnswerFilePath = electionDir[1] + "a"
-							+ currentQuestion + "+" + voteSubIndex + ".mp3";
-					File oldAnswerFile = new File(oldAnswerFilePath);
-					if (oldAnswerFile.exists()) {
-						oldAnswerFile.delete();
-					}
-
-					String oldAnswerFilePathWav = electionDir[1] + "a"
-							+ currentQuestion + "+" + voteSubIndex + ".wav";
-					File oldAnswerFileWav = new File(oldAnswerFilePathWav);
-					if (oldAnswerFile.exists()) {
-						oldAnswerFile.delete();
-					}
-
-					String currentAnswerFile = electionDir[1] + "a"
-							+ currentQuestion + "+" + voteSubIndex + ".wav";
-					copyFile(electionDir[1] + "../../writeIns/recording.wav",
-							currentAnswerFile);
-					// if they've already recorded a WIV for this contest, but
-					// want to enter it again.
-					for (int i = 0; i < temporaryVotes.length; i++) {
-						if (temporaryVotes[i] > 6) {
-							temporaryVotes[voteSubIndex] = temporaryVotes[i];
-
-							return;
-
-						}
-					}
-
-					Random r = new Random();
-					File f;
-					int random = 0;
-					do {
-						random = r.nextInt();
-						f = new File(electionDir[1] + "../../writeIns/"
-								+ Integer.toString(random) + ".wav");
-					} while (random < 6 || f == null || f.exists());
-
-					// int hashOfTime = Math.abs(new Long(System
-					// .currentTimeMillis()).hashCode()) + 5;
-					// if (hashOfTime < 0)
-					// hashOfTime = Integer.MAX_VALUE;
-
-					// String newFileName = Integer.toString(hashOfTime);
-					String newFileName = electionDir[1] + "../../writeIns/"
-							+ Integer.toString(random) + ".wav";
-					copyFile(electionDir[1] + "../../writeIns/recording.wav",
-							newFileName);
-
-					temporaryVotes[voteSubIndex] = random; // changed to
-															// allow
-															// write-ins
-															// to
-															// actually
-															// be
-															// candidates.
-					// this variable is incremented in the state below, so it
-					// must be one less than the current value.
-				} else if (x == Globals.TO_GO_BACK) {
-					boolean alreadyWrittenIn = false;
-					for (int i = 0; i < temporaryVotes.length; i++) {
-						if (temporaryVotes[i] > 6) {
-							alreadyWrittenIn = true;
-						}
-					}
-					if (!alreadyWrittenIn) {
-
-						// make sure to delete the old recording, but only if
-						// there hasn't already been a WI-vote.
-						File originalRecording = new File(electionDir[1]
-								+ "../writeIns/recording.wav");
-						if (originalRecording.exists()) {
-							originalRecording.delete();
-						}
-					}
-				} 
-				//else if (x == 9) {
-//					for (int i = 0; i < temporaryVotes.length; i++) {
-//						if (temporaryVotes[i] > 6) {
-//							File f = new File(electionDir[1]
-//									+ "../../writeIns/" + temporaryVotes[i]
-//									+ ".wav");
-//							if (f.exists()) {
-//								f.delete();
-//							}
-//						}
-//					}
-//
-//					// make sure to delete the old recording
-//					File originalRecording = new File(electionDir[1]
-//							+ "../../writeIns/recording.wav");
-//					if (originalRecording.exists()) {
-//						originalRecording.delete();
-//
-//					}
-				//}
-
-			}
-		});
+		g.addNamedState(input, electionDir, wavs, true, "writeInReplay");
 
 		// transition back to the record state if you don't like your recording.
 		g.addTransition(g.size() - 1, g.size() - 2, Globals.TO_GO_BACK);
@@ -1620,19 +1891,56 @@ public class Election {
 				e.printStackTrace();
 			}
 		}
+		// the answer files are rewritten for every voter, don't play the
+		// samples of the old one
+		ClipCache.invalidateAll(output);
+		DurationIndex.getDefault().invalidate(output);
+		ContentManifest.getDefault().add(output);
 	}
 
 	public static void copyFile(File input, File output) {
 		copyFile(input.getAbsolutePath(), output.getAbsolutePath());
 	}
 
+	/**
+	 * Deletes an answer file and forgets it in the {@link ContentManifest},
+	 * the {@link ClipCache}s and the {@link DurationIndex}, so a state naming
+	 * it plays the file written in its place and not the deleted one
+	 * 
+	 * @return whether the file was deleted
+	 */
+	private static boolean deleteAnswerFile(File file) {
+		boolean deleted = file.delete();
+		forgetAnswerFile(file);
+		return deleted;
+	}
+
+	/**
+	 * Renames an answer file, forgetting both names as
+	 * {@link #deleteAnswerFile(File)} does
+	 * 
+	 * @return whether the file was renamed
+	 */
+	private static boolean renameAnswerFile(File file, File to) {
+		boolean renamed = file.renameTo(to);
+		forgetAnswerFile(file);
+		forgetAnswerFile(to);
+		return renamed;
+	}
+
+	private static void forgetAnswerFile(File file) {
+		ContentManifest.getDefault().remove(file);
+		ClipCache.invalidateAll(file);
+		DurationIndex.getDefault().invalidate(file);
+	}
+
 	/**
 	 * Get the votes
 	 * 
 	 * @return votes array
 	 */
 	public int[][] getVotes() {
-		return votes;
+		return session.getVotes();
 	}
 
 	/**
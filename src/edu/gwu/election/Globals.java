@@ -44,6 +44,9 @@ public class Globals {
 	
 	public static Properties PROPERTIES;
 	
+	/**
+	 * Sound speed new sessions start with, see VotingSession
+	 */
 	public static int SOUND_SPEED = 1;
 	
 	public static final int MIN_SOUND_SPEED = 0;
@@ -55,6 +58,9 @@ public class Globals {
 	public static final int TO_GO_BACK = 10;
 	public static final int SKIP_CONTEST = 9;
 	
+	/**
+	 * Gain new sessions start with, see VotingSession
+	 */
 	public static double GAIN = 1;
 	
 	
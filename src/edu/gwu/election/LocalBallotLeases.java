@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * In-process lease service, used directly by booths in the same process and
+ * behind a {@link BallotLeaseServer} by booths on other processes.
+ *
+ * The number of ballots of a ward is read from its prints file, under the
+ * ElectionFolder property. Pids are leased in increasing order, above the
+ * LastUsedBallot property of the ward and above the last pid any booth
+ * reports it used; the highest pid leased or skipped is journaled per ward so
+ * a restarted service never leases a pid twice. Pids given back are leased
+ * again before new ones, but only for the life of the service.
+ */
+public class LocalBallotLeases implements BallotLeases {
+
+	private Properties properties;
+	private HashMap<String, Pool> pools = new HashMap<String, Pool>();
+
+	/**
+	 * @param properties
+	 *            the properties of the polling place, giving the election
+	 *            folder and the last ballots used before leasing
+	 */
+	public LocalBallotLeases(Properties properties) {
+		this.properties = properties;
+	}
+
+	public synchronized int[] lease(String ward, String booth, int lastUsed,
+			int count) throws IOException {
+		if (count < 0)
+			throw new IllegalArgumentException("Cannot lease " + count
+					+ " ballots");
+		Pool pool = getPool(ward);
+		// the booth may have used these before the ward was leased, so no
+		// booth gets them
+		if (lastUsed >= pool.next)
+			pool.next = lastUsed + 1;
+		TreeSet<Integer> held = pool.leased.get(booth);
+		if (held == null) {
+			held = new TreeSet<Integer>();
+			pool.leased.put(booth, held);
+		}
+
+		int[] pids = new int[count];
+		int n = 0;
+		Iterator<Integer> returned = pool.returned.tailSet(lastUsed, false)
+				.iterator();
+		while (n < count && returned.hasNext()) {
+			pids[n++] = returned.next();
+			returned.remove();
+		}
+		while (n < count && pool.next < pool.size)
+			pids[n++] = pool.next++;
+		if (pool.next - 1 > pool.journal.getLastPid())
+			pool.journal.append(pool.next - 1);
+
+		for (int i = 0; i < n; i++)
+			held.add(pids[i]);
+		Print.debug("Leased " + n + " ballots of ward " + ward + " to "
+				+ booth);
+		return n == count ? pids : Arrays.copyOf(pids, n);
+	}
+	public synchronized void release(String ward, String booth, int[] pids)
+			throws IOException {
+		Pool pool = getPool(ward);
+		TreeSet<Integer> held = pool.leased.get(booth);
+		for (int pid : pids) {
+			// only pids the booth actually holds can come back
+			if (held != null && held.remove(pid))
+				pool.returned.add(pid);
+		}
+		Print.debug(booth + " returned " + pids.length + " ballots of ward "
+				+ ward);
+	}
+
+	/**
+	 * Syncs and closes the journals of every ward
+	 */
+	public synchronized void close() throws IOException {
+		for (Pool pool : pools.values())
+			pool.journal.close();
+		pools.clear();
+	}
+
+	private Pool getPool(String ward) throws IOException {
+		Pool pool = pools.get(ward);
+		if (pool == null) {
+			String folder = properties.getProperty("ElectionFolder");
+			if (folder == null)
+				throw new ScantegrityException(
+						"No ElectionFolder to count the ballots of ward " + ward);
+			int size;
+			try {
+				size = BallotIndex.open(
+						BallotIndex.getPrintsFile(folder, ward), "code", true)
+						.size();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ScantegrityException("Cannot count the ballots of ward "
+						+ ward, e);
+			}
+			pool = new Pool(BallotJournal.open("Lease" + ward), size,
+					BallotJournal.getLastUsedBallot(properties, ward));
+			pools.put(ward, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Lease state of one ward
+	 */
+	private static class Pool {
+		private BallotJournal journal;
+		// number of ballots in the ward
+		private int size;
+		// lowest pid never leased
+		private int next;
+		private TreeSet<Integer> returned = new TreeSet<Integer>();
+		private HashMap<String, TreeSet<Integer>> leased = new HashMap<String, TreeSet<Integer>>();
+
+		public Pool(BallotJournal journal, int size, int lastUsed) {
+			this.journal = journal;
+			this.size = size;
+			next = Math.max(journal.getLastPid(), lastUsed) + 1;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import software.common.SecurityUtil;
+import software.engine.RowPermutation;
+
+/**
+ * Fork-join version of RowPermutation.generateBarcodeSerialNumbers. The
+ * permutation encrypts every number of the range and sorts the numbers by
+ * their ciphertext; here the range is split into chunks, each chunk keeps only
+ * its smallest ciphertexts and the chunks are merged. The output is the same
+ * as the single threaded version.
+ */
+public class ParallelSerialGenerator {
+
+	// smallest chunk worth handing to another thread
+	private static final int MIN_CHUNK = 4096;
+
+	private static ForkJoinPool pool = new ForkJoinPool();
+
+	/**
+	 * Same as RowPermutation.generateBarcodeSerialNumbers, using every core
+	 *
+	 * @param mk1
+	 *            first master key
+	 * @param mk2
+	 *            second master key
+	 * @param C
+	 *            election constant
+	 * @param min
+	 *            smallest serial
+	 * @param max
+	 *            largest serial
+	 * @param count
+	 *            number of serials wanted
+	 * @throws IllegalArgumentException
+	 *             if the range holds fewer than count numbers
+	 * @throws Exception
+	 *             if the key can't be derived
+	 */
+	public static int[] generateBarcodeSerialNumbers(SecretKeySpec mk1,
+			SecretKeySpec mk2, byte[] C, int min, int max, int count)
+			throws Exception {
+		// the single threaded version fails copying past its permutation
+		if (count < 0 || count > (long) max - min + 1)
+			throw new IllegalArgumentException("Cannot pick " + count
+					+ " serials from " + min + "-" + max);
+		byte[] constant = new byte[16];
+		System.arraycopy(RowPermutation.BARCODESERIAL, 0, constant, 0,
+				RowPermutation.BARCODESERIAL.length);
+		SecretKeySpec key;
+		// SecurityUtil shares one cipher between all its callers
+		synchronized (SecurityUtil.class) {
+			key = SecurityUtil.tripleAES(mk1, mk2, C, constant);
+		}
+
+		int chunk = Math.max(MIN_CHUNK, (max - min + 1)
+				/ (pool.getParallelism() * 4));
+		TreeMap<BigInteger, Integer> smallest = pool.invoke(new Chunk(key,
+				min, max + 1, count, chunk));
+
+		int[] serials = new int[count];
+		Iterator<Integer> values = smallest.values().iterator();
+		for (int i = 0; i < count; i++)
+			serials[i] = values.next();
+		return serials;
+	}
+
+	/**
+	 * Finds the count numbers of [from, to) with the smallest ciphertexts,
+	 * splitting the range while it is larger than a chunk
+	 */
+	private static class Chunk extends RecursiveTask<TreeMap<BigInteger, Integer>> {
+		private static final long serialVersionUID = 1L;
+
+		private SecretKeySpec key;
+		private int from;
+		private int to;
+		private int count;
+		private int chunk;
+
+		public Chunk(SecretKeySpec key, int from, int to, int count, int chunk) {
+			this.key = key;
+			this.from = from;
+			this.to = to;
+			this.count = count;
+			this.chunk = chunk;
+		}
+
+		protected TreeMap<BigInteger, Integer> compute() {
+			if (to - from <= chunk)
+				return encrypt();
+			int middle = from + (to - from) / 2;
+			Chunk low = new Chunk(key, from, middle, count, chunk);
+			Chunk high = new Chunk(key, middle, to, count, chunk);
+			low.fork();
+			TreeMap<BigInteger, Integer> result = high.compute();
+			TreeMap<BigInteger, Integer> first = low.join();
+			// the higher numbers go in last so they win ties, as they do
+			// when the single threaded version puts them in its TreeMap
+			for (Map.Entry<BigInteger, Integer> e : result.entrySet())
+				keep(first, e.getKey(), e.getValue());
+			return first;
+		}
+
+		private TreeMap<BigInteger, Integer> encrypt() {
+			TreeMap<BigInteger, Integer> smallest = new TreeMap<BigInteger, Integer>();
+			try {
+				Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+				cipher.init(Cipher.ENCRYPT_MODE, key);
+				for (int i = from; i < to; i++) {
+					BigInteger enc = new BigInteger(cipher.doFinal(Integer
+							.toString(i).getBytes()));
+					keep(smallest, enc, i);
+				}
+			} catch (Exception e) {
+				throw new ScantegrityException(
+						"Cannot generate serial numbers", e);
+			}
+			return smallest;
+		}
+
+		private void keep(TreeMap<BigInteger, Integer> smallest,
+				BigInteger enc, int serial) {
+			if (smallest.size() < count
+					|| enc.compareTo(smallest.lastKey()) <= 0) {
+				smallest.put(enc, serial);
+				if (smallest.size() > count)
+					smallest.remove(smallest.lastKey());
+			}
+		}
+	}
+
+	/**
+	 * Benchmarks the parallel generator against the single threaded one
+	 *
+	 * @param args
+	 *            [count [min max]], defaults to 100 serials of 100000-999999
+	 */
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int min = args.length > 2 ? Integer.parseInt(args[1]) : 100000;
+		int max = args.length > 2 ? Integer.parseInt(args[2]) : 999999;
+		SecretKeySpec mk1 = new SecretKeySpec("G7S-)bj^l;q1800]".getBytes(),
+				"AES");
+		SecretKeySpec mk2 = new SecretKeySpec("K*dst>p9H6c38?[!".getBytes(),
+				"AES");
+		byte[] C = "Demo Ben Ward 4 ".getBytes();
+
+		// first runs warm up the JIT and the crypto provider
+		generateBarcodeSerialNumbers(mk1, mk2, C, min, max, count);
+		long start = System.nanoTime();
+		int[] parallel = generateBarcodeSerialNumbers(mk1, mk2, C, min, max,
+				count);
+		long parallelTime = System.nanoTime() - start;
+
+		RowPermutation.generateBarcodeSerialNumbers(mk1, mk2, C, min, max,
+				count);
+		start = System.nanoTime();
+		int[] serial = RowPermutation.generateBarcodeSerialNumbers(mk1, mk2,
+				C, min, max, count);
+		long serialTime = System.nanoTime() - start;
+
+		System.out.println("Range " + min + "-" + max + ", " + count
+				+ " serials, " + pool.getParallelism() + " threads");
+		System.out.println("Single threaded: " + serialTime / 1000000 + " ms");
+		System.out.println("Parallel:        " + parallelTime / 1000000
+				+ " ms");
+		System.out.println("Speedup:         "
+				+ String.format("%.2f", (double) serialTime / parallelTime)
+				+ "x");
+		System.out.println("Identical:       "
+				+ Arrays.equals(serial, parallel));
+	}
+}
@@ -24,11 +24,6 @@ import javax.swing.SwingUtilities;
  */
 public class Print {
 
-	/**
-	 * This JTextArea is used for printing the text from files directly in the GUI
-	 */
-	private static JTextArea textArea=null; 
-		
 	/**
 	 * Used for printing non-fatal errors to the error stream
 	 * @param error message to be printed
@@ -52,6 +47,21 @@ public class Print {
 	 */
 	
 	public static void file (String filename) {
+		file(VotingSession.getDefault(), filename);
+	}
+
+	/**
+	 * Prints file content to the default output stream and to the text area of
+	 * the session, if it has one
+	 * @param session the session
+	 * @param filename
+	 */
+	public static void file (VotingSession session, String filename) {
+		JTextArea textArea = session.getTextArea();
+		if (textArea == null) {
+			debug("No text area for " + filename);
+			return;
+		}
 		try {
 			String[] path = filename.split("[/]");
 			if(path[path.length - 1].equals("newline.txt")){
@@ -82,6 +92,7 @@ public class Print {
 	}	
 	
 	public static void refresh(){
+		JTextArea textArea = VotingSession.getDefault().getTextArea();
 		textArea.invalidate();
 		textArea.validate();
 		textArea.repaint();
@@ -89,6 +100,11 @@ public class Print {
 	}
 	
 	public static void clearTextArea(){
+		clearTextArea(VotingSession.getDefault());
+	}
+
+	public static void clearTextArea(VotingSession session){
+		JTextArea textArea = session.getTextArea();
 		if(textArea != null){
 			textArea.setText("");
 			return;
@@ -102,7 +118,7 @@ public class Print {
 	 * @param jta the JTextArea (must be already initialized)
 	 */
 	public static void setOutputTextArea(JTextArea jta) {
-		textArea=jta; 
+		VotingSession.getDefault().setTextArea(jta);
 	}
 	
 	/**
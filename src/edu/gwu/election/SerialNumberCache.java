@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the barcode serial numbers generated by
+ * {@link ParallelSerialGenerator}, which always gives the same result for the
+ * same keys, range and count. Results are held in memory for the life of the
+ * process and, when the SerialNumberCache property names a directory, in a
+ * file of ints there.
+ *
+ * Entries are keyed by a SHA-1 of MK1, MK2, C and the range; the disk file
+ * repeats that hash and is ignored if it does not match.
+ */
+public class SerialNumberCache {
+
+	private static final int MAGIC = 0x44524553; // "DRES"
+	private static final int HASH_LENGTH = 20;
+
+	private static HashMap<String, int[]> cache = new HashMap<String, int[]>();
+
+	/**
+	 * Returns the serial numbers for a key set, generating them only if they
+	 * are neither in memory nor on disk
+	 *
+	 * @param MK1
+	 *            first master key
+	 * @param MK2
+	 *            second master key
+	 * @param C
+	 *            election constant
+	 * @param min
+	 *            smallest serial
+	 * @param max
+	 *            largest serial
+	 * @param count
+	 *            number of serials wanted
+	 * @return a copy of the cached serials
+	 */
+	public static synchronized int[] getSerialNumbers(byte[] MK1, byte[] MK2,
+			byte[] C, int min, int max, int count) {
+		byte[] hash = hash(MK1, MK2, C, min, max, count);
+		String key = toHex(hash);
+		int[] serials = cache.get(key);
+		if (serials == null) {
+			File file = getFile(key);
+			if (file != null)
+				serials = read(file, hash, count);
+			if (serials == null) {
+				try {
+					serials = ParallelSerialGenerator
+							.generateBarcodeSerialNumbers(new SecretKeySpec(
+									MK1, "AES"), new SecretKeySpec(MK2, "AES"),
+									C, min, max, count);
+				} catch (Exception e) {
+					throw new ScantegrityException(
+							"Cannot generate serial numbers", e);
+				}
+				if (file != null)
+					write(file, hash, serials);
+			}
+			cache.put(key, serials);
+		}
+		return serials.clone();
+	}
+
+	/**
+	 * Forgets every serial kept in memory
+	 */
+	public static synchronized void clear() {
+		cache.clear();
+	}
+
+	private static File getFile(String key) {
+		String dir = Globals.PROPERTIES == null ? null : Globals.PROPERTIES
+				.getProperty("SerialNumberCache");
+		if (dir == null || dir.length() == 0)
+			return null;
+		return new File(dir, "serials-" + key + ".bin");
+	}
+
+	private static int[] read(File file, byte[] hash, int count) {
+		if (!file.exists())
+			return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+				if (in.remaining() < 8 + HASH_LENGTH || in.getInt() != MAGIC)
+					return null;
+				byte[] stored = new byte[HASH_LENGTH];
+				in.get(stored);
+				if (!Arrays.equals(stored, hash) || in.getInt() != count
+						|| in.remaining() != 4 * count)
+					return null;
+				int[] serials = new int[count];
+				in.asIntBuffer().get(serials);
+				return serials;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			Print.debug("Ignoring unreadable serial cache " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private static void write(File file, byte[] hash, int[] serials) {
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.write(hash);
+				out.writeInt(serials.length);
+				for (int serial : serials)
+					out.writeInt(serial);
+			} finally {
+				out.close();
+			}
+			if ((file.exists() && !file.delete()) || !temp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+		} catch (IOException e) {
+			// the serials are still cached in memory
+			Print.debug("Could not write serial cache " + file + ": " + e);
+		}
+	}
+
+	private static byte[] hash(byte[] MK1, byte[] MK2, byte[] C, int min,
+			int max, int count) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			// lengths keep the fields from running into each other
+			out.writeInt(MK1.length);
+			out.write(MK1);
+			out.writeInt(MK2.length);
+			out.write(MK2);
+			out.writeInt(C.length);
+			out.write(C);
+			out.writeInt(min);
+			out.writeInt(max);
+			out.writeInt(count);
+			return MessageDigest.getInstance("SHA-1").digest(
+					bytes.toByteArray());
+		} catch (Exception e) {
+			throw new ScantegrityException("Cannot hash serial number keys", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
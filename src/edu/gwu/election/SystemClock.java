@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * The wall clock, with a {@link Timer} for each schedule
+ */
+public class SystemClock implements Clock {
+
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	public void sleep(long millis) throws InterruptedException {
+		Thread.sleep(millis);
+	}
+
+	public Schedule newSchedule() {
+		final Timer timer = new Timer();
+		return new Schedule() {
+			public void schedule(TimerTask task, long delay) {
+				timer.schedule(task, delay);
+			}
+
+			public void cancel() {
+				timer.cancel();
+			}
+		};
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election;
+
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JTextArea;
+
+import org.gwu.voting.standardFormat.basic.Question;
+
+import edu.gwu.audio.AudioOutput;
+import edu.gwu.audio.AudioPlayerFactory;
+
+/**
+ * One voting session: what the voter has done so far in an {@link Election},
+ * the sound speed and gain they chose, the keys they are holding, where the
+ * text is shown and the clock, audio players and sound card line it runs on.
+ * The state graph of an election is shared by every voter; the votes are the
+ * part that is reset between them.
+ *
+ * Everything that used to be static (Globals.SOUND_SPEED, Globals.GAIN, the
+ * key presses of DRE and the text area of Print) lives here, so several
+ * sessions can run in one process. The booth itself uses
+ * {@link #getDefault()}.
+ */
+public class VotingSession {
+
+	private static final AtomicInteger ids = new AtomicInteger();
+	private static VotingSession defaultSession = null;
+
+	private final int id = ids.getAndIncrement();
+	// null to use Globals.PROPERTIES
+	private Properties properties;
+	private volatile int soundSpeed = Globals.SOUND_SPEED;
+	private volatile double gain = Globals.GAIN;
+	// keys held down, their presses are not given to the FSM again
+	private Vector<Integer> keyPresses = new Vector<Integer>();
+	private volatile JTextArea textArea = null;
+	private volatile Clock clock = new SystemClock();
+	private volatile AudioPlayerFactory audioPlayers = new AudioPlayerFactory();
+	// opened the first time something is played
+	private AudioOutput audioOutput = null;
+
+	// for holding the votes until the ballot is cast
+	int[][] votes = null;
+
+	// for holding the votes while a state is executing, until they are
+	// confirmed
+	int[] temporaryVotes = null;
+
+	// used for referencing the selection the voter makes
+	int selectedVote = -1;
+
+	int currentQuestion = 0;
+
+	// index for multiple votes
+	int voteSubIndex = 0;
+
+	int qToGoBackTo = 0;
+
+	/**
+	 * A session using the booth properties (Globals.PROPERTIES)
+	 */
+	public VotingSession() {
+		this(null);
+	}
+
+	/**
+	 * @param properties
+	 *            the properties of this session, null to use the booth
+	 *            properties
+	 */
+	public VotingSession(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * @return the session of the booth, used wherever no session is given
+	 */
+	public static synchronized VotingSession getDefault() {
+		if (defaultSession == null)
+			defaultSession = new VotingSession();
+		return defaultSession;
+	}
+
+	/**
+	 * @return a number telling this session apart from the others in the
+	 *         process
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public Properties getProperties() {
+		return properties != null ? properties : Globals.PROPERTIES;
+	}
+
+	/**
+	 * @return the property of this session, null if it is not set or there
+	 *         are no properties
+	 */
+	public String getProperty(String name) {
+		Properties current = getProperties();
+		return current == null ? null : current.getProperty(name);
+	}
+
+	public int getSoundSpeed() {
+		return soundSpeed;
+	}
+
+	public void setSoundSpeed(int speed) {
+		soundSpeed = Math.max(Globals.MIN_SOUND_SPEED, Math.min(
+				Globals.MAX_SOUND_SPEED, speed));
+	}
+
+	public double getGain() {
+		return gain;
+	}
+
+	/**
+	 * @param gain
+	 *            the gain, kept between 0 and 1
+	 */
+	public void setGain(double gain) {
+		this.gain = Math.max(0.0, Math.min(1.0, gain));
+	}
+
+	public JTextArea getTextArea() {
+		return textArea;
+	}
+
+	/**
+	 * @param textArea
+	 *            where the text of the states is printed, null for nowhere
+	 */
+	public void setTextArea(JTextArea textArea) {
+		this.textArea = textArea;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * @param clock
+	 *            the time the states and the FSM of this session run on
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	public AudioPlayerFactory getAudioPlayerFactory() {
+		return audioPlayers;
+	}
+
+	/**
+	 * @param factory
+	 *            makes the audio players of this session
+	 */
+	public void setAudioPlayerFactory(AudioPlayerFactory factory) {
+		audioPlayers = factory;
+	}
+
+	/**
+	 * @return the line the players of this session play on, opened now if
+	 *         nothing was played yet
+	 */
+	public synchronized AudioOutput getAudioOutput() {
+		if (audioOutput == null)
+			audioOutput = new AudioOutput(AudioOutput.getDefaultFormat(this));
+		return audioOutput;
+	}
+
+	/**
+	 * @param output
+	 *            the line the players of this session play on, in the format
+	 *            of the clips of ClipCache.forSession(this)
+	 */
+	public synchronized void setAudioOutput(AudioOutput output) {
+		audioOutput = output;
+	}
+
+	public void addKeyPress(int key) {
+		keyPresses.add(key);
+	}
+
+	public void clearKeyPresses() {
+		keyPresses.clear();
+	}
+
+	public void popKeyPress() {
+		synchronized (keyPresses) {
+			if (keyPresses.size() > 0)
+				keyPresses.remove(keyPresses.size() - 1);
+		}
+	}
+
+	/**
+	 * @return whether the key is recorded as pressed
+	 */
+	public boolean isKeyPressed(int key) {
+		return keyPresses.contains(key);
+	}
+
+	/**
+	 * Clears everything for a new voter; every vote starts out as skipped (-1)
+	 *
+	 * @param questions
+	 *            the questions of the election, in order
+	 */
+	public void reset(Question[] questions) {
+		votes = new int[questions.length][];
+		for (int i = 0; i < questions.length; i++) {
+			votes[i] = new int[questions[i].getMax()];
+			for (int j = 0; j < votes[i].length; j++)
+				votes[i][j] = -1;
+		}
+		temporaryVotes = null;
+		selectedVote = -1;
+		currentQuestion = 0;
+		voteSubIndex = 0;
+		qToGoBackTo = 0;
+	}
+
+	/**
+	 * @return the votes, indexed by question then by choice
+	 */
+	public int[][] getVotes() {
+		return votes;
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.authoring;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Packed store of the confirmation codes of every ballot in a ward. Replaces
+ * the ballot->question->symbol TreeMaps: the ballots are a
+ * {@link BallotLayout} and the codes themselves are fixed-width ASCII bytes.
+ *
+ * The store is immutable once built, use a {@link Builder} to fill it.
+ */
+public class BallotCodeStore extends BallotLayout {
+
+	private int codeWidth;
+
+	// code of symbol s is codes[s*codeWidth .. (s+1)*codeWidth-1], 0 padded
+	private byte[] codes;
+
+	private BallotCodeStore() {
+	}
+
+	/**
+	 * Builds a store holding a single ballot, for callers that still hand
+	 * codes around in the per-ballot TreeMap form
+	 *
+	 * @param serial
+	 *            serial of the ballot
+	 * @param ballotCodes
+	 *            question->symbol->code map for the ballot
+	 * @return a store containing only that ballot
+	 */
+	public static BallotCodeStore fromBallotCodes(int serial,
+			TreeMap<Integer, TreeMap<Integer, String>> ballotCodes) {
+		Builder builder = new Builder();
+		builder.startBallot(serial);
+		for (Map.Entry<Integer, TreeMap<Integer, String>> question : ballotCodes
+				.entrySet()) {
+			builder.startQuestion(question.getKey());
+			for (Map.Entry<Integer, String> symbol : question.getValue()
+					.entrySet()) {
+				builder.addSymbol(symbol.getKey(), symbol.getValue());
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return width in bytes of each stored code
+	 */
+	public int getCodeWidth() {
+		return codeWidth;
+	}
+
+	/**
+	 * Looks up a single confirmation code
+	 *
+	 * @param serial
+	 *            printed serial of the ballot
+	 * @param questionId
+	 *            id of the question
+	 * @param symbolId
+	 *            id of the symbol (candidate, or rank*candidates+candidate for
+	 *            ranked questions)
+	 * @return the code, or null if it is not in the store
+	 */
+	public String getCode(int serial, int questionId, int symbolId) {
+		int s = symbolIndex(questionIndex(indexOf(serial), questionId),
+				symbolId);
+		if (s == NONE)
+			return null;
+		return decode(s);
+	}
+
+	/**
+	 * Compatibility view of one ballot in the old TreeMap form
+	 *
+	 * @param serial
+	 *            printed serial of the ballot
+	 * @return question->symbol->code map, or null if there is no such ballot
+	 */
+	public TreeMap<Integer, TreeMap<Integer, String>> getBallotCodes(
+			int serial) {
+		int b = indexOf(serial);
+		if (b == NONE)
+			return null;
+		TreeMap<Integer, TreeMap<Integer, String>> ballot = new TreeMap<Integer, TreeMap<Integer, String>>();
+		for (int q = ballotStart[b]; q < ballotStart[b + 1]; q++) {
+			TreeMap<Integer, String> question = new TreeMap<Integer, String>();
+			for (int s = questionStart[q]; s < questionStart[q + 1]; s++) {
+				question.put(symbolIds[s], decode(s));
+			}
+			ballot.put(questionIds[q], question);
+		}
+		return ballot;
+	}
+
+	private String decode(int s) {
+		int offset = s * codeWidth;
+		int length = 0;
+		while (length < codeWidth && codes[offset + length] != 0)
+			length++;
+		if (length == 0)
+			return null;
+		char[] code = new char[length];
+		for (int i = 0; i < length; i++)
+			code[i] = (char) (codes[offset + i] & 0xff);
+		return new String(code);
+	}
+
+	/**
+	 * Collects ballots in file order and packs them into a
+	 * {@link BallotCodeStore}
+	 */
+	public static class Builder extends BallotLayout.Builder {
+		private int codeBytes = 0;
+
+		private int[] codeStart = new int[1025];
+		private byte[] codes = new byte[2048];
+
+		/**
+		 * Adds a symbol to the current question
+		 *
+		 * @param symbolId
+		 *            id of the symbol
+		 * @param code
+		 *            its confirmation code (ASCII), may be null
+		 */
+		public void addSymbol(int symbolId, String code) {
+			int length = code == null ? 0 : code.length();
+			for (int i = 0; i < length; i++) {
+				char c = code.charAt(i);
+				if (c == 0 || c > 0xff)
+					throw new IllegalArgumentException(
+							"Confirmation codes must be ASCII: " + code);
+			}
+			int s = addSymbolId(symbolId);
+			if (codeBytes + length > codes.length) {
+				codes = Arrays.copyOf(codes,
+						Math.max(codes.length * 2, codeBytes + length));
+			}
+			for (int i = 0; i < length; i++)
+				codes[codeBytes++] = (byte) code.charAt(i);
+			codeStart[s + 1] = codeBytes;
+		}
+
+		void growSymbols(int capacity) {
+			codeStart = Arrays.copyOf(codeStart, capacity + 1);
+		}
+
+		/**
+		 * Packs everything added so far into an immutable store
+		 */
+		public BallotCodeStore build() {
+			BallotCodeStore store = new BallotCodeStore();
+			fill(store);
+
+			int width = 1;
+			for (int s = 0; s < numSymbols; s++)
+				width = Math.max(width, codeStart[s + 1] - codeStart[s]);
+			store.codeWidth = width;
+			store.codes = new byte[numSymbols * width];
+			for (int s = 0; s < numSymbols; s++)
+				System.arraycopy(codes, codeStart[s], store.codes, s * width,
+						codeStart[s + 1] - codeStart[s]);
+			return store;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.authoring;
+
+import java.util.Arrays;
+
+/**
+ * Any set of symbol attributes of a prints file (code, salt, id, ...) kept as
+ * one column per attribute over a {@link BallotLayout}, so they can all be
+ * read from a single pass over the XML. A code->symbol reverse index is built
+ * at the same time when the code attribute is requested.
+ *
+ * The store is immutable once built, use a {@link Builder} to fill it.
+ */
+public class BallotFieldStore extends BallotLayout {
+
+	public static final String CODE = "code";
+
+	private String[] fields;
+
+	// question of each symbol, for the reverse index
+	private int[] symbolQuestion;
+
+	// columns[f][s] is the value of fields[f] for symbol s
+	private String[][] columns;
+
+	// open addressing (question, code) -> symbol table, empty without codes
+	private int[] codeSymbols;
+	private int codeMask;
+
+	private BallotFieldStore() {
+	}
+
+	/**
+	 * @return the attributes held by the store
+	 */
+	public String[] getFields() {
+		return fields.clone();
+	}
+
+	/**
+	 * @return true if the store holds the given attribute
+	 */
+	public boolean hasField(String field) {
+		return column(field) != null;
+	}
+
+	/**
+	 * Looks up an attribute of a symbol
+	 *
+	 * @param serial
+	 *            serial (or pid) of the ballot
+	 * @param questionId
+	 *            id of the question
+	 * @param symbolId
+	 *            id of the symbol
+	 * @param field
+	 *            the attribute wanted
+	 * @return the value, or null if it is not in the store
+	 */
+	public String getValue(int serial, int questionId, int symbolId,
+			String field) {
+		String[] column = column(field);
+		int s = symbolIndex(questionIndex(indexOf(serial), questionId),
+				symbolId);
+		if (column == null || s == NONE)
+			return null;
+		return column[s];
+	}
+
+	/**
+	 * Finds the symbol printed with a confirmation code, through the reverse
+	 * index
+	 *
+	 * @param serial
+	 *            serial (or pid) of the ballot
+	 * @param questionId
+	 *            id of the question
+	 * @param code
+	 *            the confirmation code
+	 * @return the symbol id, or -1 if no symbol of the question has that code
+	 */
+	public int getSymbolId(int serial, int questionId, String code) {
+		int s = codeIndex(questionIndex(indexOf(serial), questionId), code);
+		return s == NONE ? NONE : symbolIds[s];
+	}
+
+	/**
+	 * Looks up an attribute of the symbol printed with a confirmation code
+	 *
+	 * @return the value, or null if it is not in the store
+	 */
+	public String getValueByCode(int serial, int questionId, String code,
+			String field) {
+		String[] column = column(field);
+		int s = codeIndex(questionIndex(indexOf(serial), questionId), code);
+		if (column == null || s == NONE)
+			return null;
+		return column[s];
+	}
+
+	private String[] column(String field) {
+		for (int f = 0; f < fields.length; f++)
+			if (fields[f].equals(field))
+				return columns[f];
+		return null;
+	}
+
+	private int codeIndex(int q, String code) {
+		if (q == NONE || code == null || codeSymbols == null)
+			return NONE;
+		String[] codes = column(CODE);
+		for (int h = codeHash(q, code) & codeMask;; h = (h + 1) & codeMask) {
+			int s = codeSymbols[h];
+			if (s == NONE)
+				return NONE;
+			if (symbolQuestion[s] == q && code.equals(codes[s]))
+				return s;
+		}
+	}
+
+	private static int codeHash(int q, String code) {
+		return mix(q * 31 + code.hashCode());
+	}
+
+	/**
+	 * Collects ballots in file order and packs them into a
+	 * {@link BallotFieldStore}
+	 */
+	public static class Builder extends BallotLayout.Builder {
+		private String[] fields;
+
+		private int[] symbolQuestion = new int[1024];
+		private String[][] columns;
+
+		/**
+		 * @param fields
+		 *            the symbol attributes to keep
+		 */
+		public Builder(String[] fields) {
+			this.fields = fields.clone();
+			columns = new String[fields.length][1024];
+		}
+
+		/**
+		 * @return the symbol attributes to keep
+		 */
+		public String[] getFields() {
+			return fields.clone();
+		}
+
+		/**
+		 * Adds a symbol to the current question
+		 *
+		 * @param symbolId
+		 *            id of the symbol
+		 * @param values
+		 *            its attributes, in the order the fields were given
+		 */
+		public void addSymbol(int symbolId, String[] values) {
+			int s = addSymbolId(symbolId);
+			for (int f = 0; f < columns.length; f++)
+				columns[f][s] = values[f];
+			symbolQuestion[s] = numQuestions - 1;
+		}
+
+		void growSymbols(int capacity) {
+			symbolQuestion = Arrays.copyOf(symbolQuestion, capacity);
+			for (int f = 0; f < columns.length; f++)
+				columns[f] = Arrays.copyOf(columns[f], capacity);
+		}
+
+		/**
+		 * Packs everything added so far into an immutable store
+		 */
+		public BallotFieldStore build() {
+			BallotFieldStore store = new BallotFieldStore();
+			fill(store);
+			store.fields = fields.clone();
+			store.symbolQuestion = Arrays.copyOf(symbolQuestion, numSymbols);
+			store.columns = new String[fields.length][];
+			for (int f = 0; f < fields.length; f++)
+				store.columns[f] = Arrays.copyOf(columns[f], numSymbols);
+
+			String[] codes = store.column(CODE);
+			if (codes != null) {
+				int capacity = Integer.highestOneBit(Math.max(numSymbols, 1)) * 4;
+				store.codeMask = capacity - 1;
+				store.codeSymbols = new int[capacity];
+				Arrays.fill(store.codeSymbols, NONE);
+				for (int s = 0; s < numSymbols; s++) {
+					if (codes[s] == null)
+						continue;
+					int q = symbolQuestion[s];
+					int h = codeHash(q, codes[s]) & store.codeMask;
+					while (store.codeSymbols[h] != NONE
+							&& !(symbolQuestion[store.codeSymbols[h]] == q && codes[s]
+									.equals(codes[store.codeSymbols[h]])))
+						h = (h + 1) & store.codeMask;
+					// the last symbol with a code wins, as TreeMap.put did
+					store.codeSymbols[h] = s;
+				}
+			}
+			return store;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.authoring;
+
+import java.util.Arrays;
+
+/**
+ * The ballot->question->symbol structure shared by the packed stores of a
+ * prints file: ballots are found through a primitive serial hash, questions
+ * and symbols are flat offset tables. A store adds its own columns indexed by
+ * symbol.
+ *
+ * The layout is immutable once built, use a {@link Builder} to fill it.
+ */
+public abstract class BallotLayout {
+
+	static final int NONE = -1;
+
+	int numBallots;
+
+	// serial (or pid) of each ballot, in insertion order
+	int[] serials;
+
+	// open addressing serial -> ballot index table
+	private int[] hashSerials;
+	private int[] hashBallots;
+	private int hashMask;
+
+	// ballot b owns questions ballotStart[b] .. ballotStart[b+1]-1
+	int[] ballotStart;
+	int[] questionIds;
+
+	// question q owns symbols questionStart[q] .. questionStart[q+1]-1
+	int[] questionStart;
+	int[] symbolIds;
+
+	/**
+	 * @return number of ballots in the store
+	 */
+	public int size() {
+		return numBallots;
+	}
+
+	/**
+	 * @param index
+	 *            position of the ballot in the store
+	 * @return the serial (or pid) of that ballot
+	 */
+	public int getSerial(int index) {
+		return serials[index];
+	}
+
+	/**
+	 * @return true if the store holds a ballot with the given serial
+	 */
+	public boolean contains(int serial) {
+		return indexOf(serial) != NONE;
+	}
+
+	/**
+	 * @return number of questions on the ballot, 0 if there is no such ballot
+	 */
+	public int getQuestionCount(int serial) {
+		int b = indexOf(serial);
+		if (b == NONE)
+			return 0;
+		return ballotStart[b + 1] - ballotStart[b];
+	}
+
+	/**
+	 * @return number of symbols for the question, 0 if there is no such
+	 *         ballot or question
+	 */
+	public int getSymbolCount(int serial, int questionId) {
+		int q = questionIndex(indexOf(serial), questionId);
+		if (q == NONE)
+			return 0;
+		return questionStart[q + 1] - questionStart[q];
+	}
+
+	int indexOf(int serial) {
+		if (numBallots == 0)
+			return NONE;
+		for (int h = mix(serial) & hashMask;; h = (h + 1) & hashMask) {
+			if (hashBallots[h] == NONE)
+				return NONE;
+			if (hashSerials[h] == serial)
+				return hashBallots[h];
+		}
+	}
+
+	int questionIndex(int b, int questionId) {
+		if (b == NONE)
+			return NONE;
+		int start = ballotStart[b];
+		int end = ballotStart[b + 1];
+		// ids are normally 0..n-1, so try the direct slot first
+		if (questionId >= 0 && start + questionId < end
+				&& questionIds[start + questionId] == questionId)
+			return start + questionId;
+		for (int q = start; q < end; q++)
+			if (questionIds[q] == questionId)
+				return q;
+		return NONE;
+	}
+
+	int symbolIndex(int q, int symbolId) {
+		if (q == NONE)
+			return NONE;
+		int start = questionStart[q];
+		int end = questionStart[q + 1];
+		if (symbolId >= 0 && start + symbolId < end
+				&& symbolIds[start + symbolId] == symbolId)
+			return start + symbolId;
+		for (int s = start; s < end; s++)
+			if (symbolIds[s] == symbolId)
+				return s;
+		return NONE;
+	}
+
+	static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Collects ballots in file order. A store's builder adds the values of
+	 * each symbol, stored at the index {@link #addSymbolId} returns.
+	 */
+	public abstract static class Builder {
+		int numBallots = 0;
+		int numQuestions = 0;
+		int numSymbols = 0;
+
+		private int[] serials = new int[64];
+		private int[] ballotStart = new int[65];
+		private int[] questionIds = new int[256];
+		private int[] questionStart = new int[257];
+		private int[] symbolIds = new int[1024];
+
+		/**
+		 * Starts a new ballot, the questions and symbols that follow belong to
+		 * it
+		 */
+		public void startBallot(int serial) {
+			if (numBallots == serials.length) {
+				serials = Arrays.copyOf(serials, serials.length * 2);
+				ballotStart = Arrays.copyOf(ballotStart, serials.length + 1);
+			}
+			serials[numBallots++] = serial;
+			ballotStart[numBallots] = numQuestions;
+		}
+
+		/**
+		 * Starts a new question on the current ballot
+		 */
+		public void startQuestion(int questionId) {
+			if (numBallots == 0)
+				throw new IllegalStateException("No ballot has been started");
+			if (numQuestions == questionIds.length) {
+				questionIds = Arrays.copyOf(questionIds, questionIds.length * 2);
+				questionStart = Arrays.copyOf(questionStart,
+						questionIds.length + 1);
+			}
+			questionIds[numQuestions++] = questionId;
+			questionStart[numQuestions] = numSymbols;
+			ballotStart[numBallots] = numQuestions;
+		}
+
+		/**
+		 * Adds a symbol to the current question
+		 *
+		 * @return the index of the symbol
+		 */
+		int addSymbolId(int symbolId) {
+			if (numQuestions == 0)
+				throw new IllegalStateException("No question has been started");
+			if (numSymbols == symbolIds.length) {
+				symbolIds = Arrays.copyOf(symbolIds, symbolIds.length * 2);
+				growSymbols(symbolIds.length);
+			}
+			symbolIds[numSymbols] = symbolId;
+			questionStart[numQuestions] = numSymbols + 1;
+			return numSymbols++;
+		}
+
+		/**
+		 * Grows the columns of the store to hold capacity symbols
+		 */
+		abstract void growSymbols(int capacity);
+
+		/**
+		 * @return the number of ballots added so far
+		 */
+		public int size() {
+			return numBallots;
+		}
+
+		/**
+		 * Copies the structure added so far into a store and builds its
+		 * serial hash
+		 */
+		void fill(BallotLayout layout) {
+			layout.numBallots = numBallots;
+			layout.serials = Arrays.copyOf(serials, numBallots);
+			layout.ballotStart = Arrays.copyOf(ballotStart, numBallots + 1);
+			layout.questionIds = Arrays.copyOf(questionIds, numQuestions);
+			layout.questionStart = Arrays.copyOf(questionStart,
+					numQuestions + 1);
+			layout.symbolIds = Arrays.copyOf(symbolIds, numSymbols);
+
+			int capacity = Integer.highestOneBit(Math.max(numBallots, 1)) * 4;
+			layout.hashMask = capacity - 1;
+			layout.hashSerials = new int[capacity];
+			layout.hashBallots = new int[capacity];
+			Arrays.fill(layout.hashBallots, NONE);
+			for (int b = 0; b < numBallots; b++) {
+				int h = mix(serials[b]) & layout.hashMask;
+				while (layout.hashBallots[h] != NONE
+						&& layout.hashSerials[h] != serials[b])
+					h = (h + 1) & layout.hashMask;
+				// a later ballot with the same serial replaces the earlier
+				// one, as TreeMap.put did
+				layout.hashSerials[h] = serials[b];
+				layout.hashBallots[h] = b;
+			}
+		}
+
+		/**
+		 * Packs everything added so far into an immutable store
+		 */
+		public abstract BallotLayout build();
+	}
+}
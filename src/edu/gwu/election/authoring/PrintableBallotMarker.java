@@ -483,6 +483,29 @@ public class PrintableBallotMarker extends org.scantegrity.authoring.invisiblein
 	public void printMarks(BallotRow ballot, int[][] votes,
 			TreeMap<Integer, TreeMap<Integer, String>> confirmationCodes)
 			throws DocumentException, IOException, PrinterException {
+		if (confirmationCodes == null) {
+			printMarks(ballot, votes, null, 0);
+		} else {
+			printMarks(ballot, votes, BallotCodeStore.fromBallotCodes(0,
+					confirmationCodes), 0);
+		}
+	}
+
+	/**
+	 * Prints the confirmation codes of one ballot, reading them straight from
+	 * the ward's code store.
+	 * @param votes
+	 *            The plaintext votes that were stored by the DRE
+	 * @param codes
+	 *            The code store holding the ballot. If null, no codes will
+	 *            be written.
+	 * @param serial
+	 *            The printed serial of the ballot in the code store
+	 * @see #printMarks(BallotRow, int[][], TreeMap)
+	 */
+	public void printMarks(BallotRow ballot, int[][] votes,
+			BallotCodeStore codes, int serial)
+			throws DocumentException, IOException, PrinterException {
 
 		/* 
 		 * Read the background PDF or create a blank/white background if no
@@ -591,7 +614,7 @@ public class PrintableBallotMarker extends org.scantegrity.authoring.invisiblein
 						rect = geom.getTop(qno+"", 0+"", choice+"");
 					}
 					
-					if (confirmationCodes != null) {
+					if (codes != null) {
 						
 						// Adjust the confirmation code to read from the appropriate rank
 						int adjCand = cand;
@@ -599,7 +622,7 @@ public class PrintableBallotMarker extends org.scantegrity.authoring.invisiblein
 							adjCand = adjCand * votes[qno].length + choice;
 						}
 						
-						String confCode = confirmationCodes.get(qno).get(adjCand);
+						String confCode = codes.getCode(serial, qno, adjCand);
 						if(rect != null && confCode != null)
 							addTextCentered(cb, rect, serialFont, 14, 
 								SYMBOL_COLOR, OVAL_COLOR, confCode);
@@ -608,7 +631,7 @@ public class PrintableBallotMarker extends org.scantegrity.authoring.invisiblein
 				
 				// For each question, and each rank, create ovals for every candidate
 				if (printSetting.useOval) {
-					int numCands = confirmationCodes.get(qno).size();
+					int numCands = codes.getSymbolCount(serial, qno);
 					for (int cands = 0; cands < numCands; cands++){						
 						rect = geom.getTop(qno+"", choice+"", cands+""); 
 
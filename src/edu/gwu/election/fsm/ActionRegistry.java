@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Names the actions of the states so a graph can be saved and loaded back
+ * with {@link GraphSnapshot}; the saved graph only holds the names.
+ */
+public class ActionRegistry {
+
+	private HashMap<String, StateAction> actions = new HashMap<String, StateAction>();
+	private IdentityHashMap<StateAction, String> ids = new IdentityHashMap<StateAction, String>();
+
+	/**
+	 * Names an action
+	 *
+	 * @param id
+	 *            the name, unique in this registry
+	 * @param action
+	 *            the action
+	 * @return the action
+	 * @throws IllegalArgumentException
+	 *             if the name is taken
+	 */
+	public synchronized StateAction register(String id, StateAction action) {
+		if (actions.containsKey(id))
+			throw new IllegalArgumentException("Action " + id
+					+ " is already registered");
+		actions.put(id, action);
+		ids.put(action, id);
+		return action;
+	}
+
+	/**
+	 * @return the action with the given name
+	 * @throws IllegalArgumentException
+	 *             if there is none
+	 */
+	public synchronized StateAction get(String id) {
+		StateAction action = actions.get(id);
+		if (action == null)
+			throw new IllegalArgumentException("No action named " + id);
+		return action;
+	}
+
+	/**
+	 * @return the name of the action, or null if it was never registered
+	 */
+	public synchronized String getId(StateAction action) {
+		return ids.get(action);
+	}
+}
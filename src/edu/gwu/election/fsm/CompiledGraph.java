@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.util.Arrays;
+
+import edu.gwu.election.Globals;
+import edu.gwu.election.Print;
+
+/**
+ * Frozen form of the states and transitions of a {@link FiniteStateMachine}.
+ * Transitions are one int matrix indexed by state * MAX_INPUT + input and the
+ * valid inputs of each state are copied into a bitmask array (same bits as
+ * {@link State}), so a lookup is two array reads and needs no lock.
+ *
+ * A graph is never changed once built; {@link #withTransition} returns a copy.
+ */
+public final class CompiledGraph {
+
+	private final Transitionable[] states;
+	private final int[] transitions;
+	private final int[] validInputs;
+	private final int startId, stopId;
+
+	/**
+	 * Freezes and checks a graph. Every transition must lead to an existing
+	 * state; states that can't be reached from the start state are reported.
+	 *
+	 * @param states
+	 *            the states, indexed by id
+	 * @param transitions
+	 *            the transition matrix, at least states.length * MAX_INPUT
+	 *            long; unset transitions lead to state 0
+	 * @param startId
+	 *            id of the start state
+	 * @param stopId
+	 *            id of the stop state
+	 * @throws IllegalStateException
+	 *             if a transition or the start/stop state is not a state
+	 */
+	public CompiledGraph(Transitionable[] states, int[] transitions,
+			int startId, int stopId) {
+		this.states = states.clone();
+		this.transitions = Arrays.copyOf(transitions, states.length
+				* Globals.MAX_INPUT);
+		this.validInputs = new int[states.length];
+		this.startId = startId;
+		this.stopId = stopId;
+
+		if (!isState(startId))
+			throw new IllegalStateException("Start state " + startId
+					+ " is not a state");
+		if (!isState(stopId))
+			throw new IllegalStateException("Stop state " + stopId
+					+ " is not a state");
+		for (int i = 0; i < this.states.length; i++) {
+			validInputs[i] = this.states[i].getValidInput();
+			for (int input = 0; input < Globals.MAX_INPUT; input++) {
+				int next = this.transitions[i * Globals.MAX_INPUT + input];
+				if (!isState(next))
+					throw new IllegalStateException("Transition from " + i
+							+ " on input " + input + " leads to missing state "
+							+ next);
+			}
+		}
+		checkReachable();
+	}
+
+	private CompiledGraph(CompiledGraph graph, int[] transitions) {
+		this.states = graph.states;
+		this.validInputs = graph.validInputs;
+		this.startId = graph.startId;
+		this.stopId = graph.stopId;
+		this.transitions = transitions;
+	}
+
+	/**
+	 * Returns a copy of this graph with one transition changed
+	 *
+	 * @throws IllegalArgumentException
+	 *             if either state or the input is out of range
+	 */
+	public CompiledGraph withTransition(int previousStateId,
+			int currentStateId, int input) {
+		if (!isState(previousStateId) || !isState(currentStateId)
+				|| input < 0 || input >= Globals.MAX_INPUT)
+			throw new IllegalArgumentException("No transition from "
+					+ previousStateId + " to " + currentStateId + " on input "
+					+ input);
+		int[] copy = transitions.clone();
+		copy[previousStateId * Globals.MAX_INPUT + input] = currentStateId;
+		return new CompiledGraph(this, copy);
+	}
+
+	public int size() {
+		return states.length;
+	}
+
+	public Transitionable getState(int stateId) {
+		return states[stateId];
+	}
+
+	public int getStartId() {
+		return startId;
+	}
+
+	public int getStopId() {
+		return stopId;
+	}
+
+	/**
+	 * @return the state id the given state moves to on the given input
+	 */
+	public int getTransition(int stateId, int input) {
+		return transitions[stateId * Globals.MAX_INPUT + input];
+	}
+
+	/**
+	 * @return the valid input bitmask of the state, as frozen
+	 */
+	public int getValidInput(int stateId) {
+		return validInputs[stateId];
+	}
+
+	public boolean isValidInput(int stateId, int input) {
+		return input >= 0 && input < Globals.MAX_INPUT
+				&& (validInputs[stateId] & (1 << (input + 1))) != 0;
+	}
+
+	private boolean isState(int id) {
+		return id >= 0 && id < states.length;
+	}
+
+	/**
+	 * Walks the valid transitions from the start state and reports the states
+	 * never reached; they are harmless but usually a construction mistake
+	 */
+	private void checkReachable() {
+		boolean[] seen = new boolean[states.length];
+		int[] queue = new int[states.length];
+		int head = 0, tail = 0;
+		seen[startId] = true;
+		queue[tail++] = startId;
+		while (head < tail) {
+			int s = queue[head++];
+			for (int input = 0; input < Globals.MAX_INPUT; input++) {
+				if (!isValidInput(s, input))
+					continue;
+				int next = getTransition(s, input);
+				if (!seen[next]) {
+					seen[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		for (int i = 0; i < seen.length; i++)
+			if (!seen[i])
+				Print.debug("FSM: state " + i
+						+ " can't be reached from the start state");
+	}
+
+	/**
+	 * Prints the transition matrix, one state per line
+	 */
+	public String toString() {
+		StringBuffer a = new StringBuffer();
+		for (int i = 0; i < states.length; i++) {
+			a.append(i + " : ");
+			for (int input = 0; input < Globals.MAX_INPUT; input++)
+				a.append(getTransition(i, input) + " ");
+			a.append("\n");
+		}
+		return a.toString();
+	}
+}
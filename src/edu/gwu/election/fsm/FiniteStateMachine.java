@@ -11,35 +11,54 @@
 
 package edu.gwu.election.fsm;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import edu.gwu.election.Globals;
 import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
 
 /**
  * The finite state machine that holds all the states and transitions It
  * contains wrappers for accessing and working with the states inside.
  * 
+ * States and transitions are added while building; start() freezes them into
+ * a {@link CompiledGraph} which is all the running machine looks at.
+ * 
  * @author Alex Florescu
  * 
  */
 public class FiniteStateMachine {
 
-	private Vector<Transitionable> states;
-	private Transitionable startState = null, currentState = null,
-			stopState = null;
-	private boolean isRunning = false;
+	private ArrayList<Transitionable> states;
+	private int startId = -1, stopId = -1;
+	private volatile Transitionable currentState = null;
+	private volatile boolean isRunning = false;
 	private int id = 0;
-	private Vector<TransitionArray> transitions = null;
+	// state * MAX_INPUT + input, grown as states are added
+	private int[] transitions = null;
+	// frozen states and transitions, null until start() or after a new state
+	private volatile CompiledGraph graph = null;
+	// queued by stop() to wake the input loop, never a valid input
+	private static final int STOP = -1;
 	private int maxTimeouts = Globals.DEFAULT_MAX_TIMEOUTS; // default maximum
 															// timeouts to 3
 															// unless otherwise
 															// changed
 	private InputStream inputStream = System.in; // default
-	private InputStreamReader inputStreamReader = null;
+	private CopyOnWriteArrayList<InputSource> inputSources = new CopyOnWriteArrayList<InputSource>();
+	// inputs from every source, handled one at a time by the thread in start()
+	private ConcurrentLinkedQueue<Integer> inputs = new ConcurrentLinkedQueue<Integer>();
+	private volatile Thread inputThread = null;
+	private StateAction inputAction = null;
+	// names the actions of states added with addNamedState
+	private ActionRegistry actions = new ActionRegistry();
+	private VotingSession session = VotingSession.getDefault();
 	private boolean inputTaken = false;
 	private boolean actionBeingPerformed = false;
 
@@ -48,8 +67,16 @@ public class FiniteStateMachine {
 	 * 
 	 */
 	public FiniteStateMachine() {
-		states = new Vector<Transitionable>();
-		transitions = new Vector<TransitionArray>();
+		states = new ArrayList<Transitionable>();
+		transitions = new int[16 * Globals.MAX_INPUT];
+	}
+
+	private synchronized void add(State state) {
+		state.setSession(session);
+		states.add(state);
+		if (transitions.length < states.size() * Globals.MAX_INPUT)
+			transitions = Arrays.copyOf(transitions, transitions.length * 2);
+		graph = null;
 	}
 
 	/**
@@ -71,9 +98,8 @@ public class FiniteStateMachine {
 	 */
 	public void addState(int[] validInputs, String[] dir, String[] wavs,
 			boolean interruptable, StateAction stateAction) {
-		states.add(new State(id++, validInputs, maxTimeouts, dir, wavs,
+		add(new State(id++, validInputs, maxTimeouts, dir, wavs,
 				interruptable, stateAction));
-		transitions.add(new TransitionArray());
 	}
 
 	/**
@@ -95,9 +121,8 @@ public class FiniteStateMachine {
 	 */
 	public void addState(int[] validInputs, String[] dir, String wav,
 			boolean interruptable, StateAction sa) {
-		states.add(new State(id++, validInputs, maxTimeouts, dir, wav,
+		add(new State(id++, validInputs, maxTimeouts, dir, wav,
 				interruptable, sa));
-		transitions.add(new TransitionArray());
 	}
 
 	/**
@@ -118,9 +143,8 @@ public class FiniteStateMachine {
 	 */
 	public void addState(int[] validInputs, String[] dir, String wav,
 			boolean interruptable) {
-		states.add(new State(id++, validInputs, maxTimeouts, dir, wav,
+		add(new State(id++, validInputs, maxTimeouts, dir, wav,
 				interruptable, null));
-		transitions.add(new TransitionArray());
 	}
 
 	/**
@@ -143,9 +167,81 @@ public class FiniteStateMachine {
 	 */
 	public void addState(int[] validInputs, String[] dir, String[] wavs,
 			boolean interruptable) {
-		states.add(new State(id++, validInputs, maxTimeouts, dir, wavs,
+		add(new State(id++, validInputs, maxTimeouts, dir, wavs,
 				interruptable, null));
-		transitions.add(new TransitionArray());
+	}
+
+	/**
+	 * Adds (and constructs) a new state whose action is looked up by name in
+	 * the action registry of this machine, so the state can be saved with
+	 * {@link GraphSnapshot}
+	 * 
+	 * @param validInputs
+	 *            array of valid inputs
+	 * @param dir
+	 *            a 1-element array containing the directory where the content
+	 *            files are located
+	 * @param wavs
+	 *            array of strings representing the filenames of the sound files
+	 * @param interruptable
+	 *            whether or not this state can be interrupted by new input
+	 * @param actionId
+	 *            name of the action in the registry, null for none
+	 */
+	public void addNamedState(int[] validInputs, String[] dir, String[] wavs,
+			boolean interruptable, String actionId) {
+		add(new State(id++, validInputs, maxTimeouts, dir, wavs,
+				interruptable, actionId == null ? null : actions
+						.get(actionId)));
+	}
+
+	/**
+	 * Sets the session whose sound speed, gain and text area the states use;
+	 * the booth session by default
+	 * 
+	 * @param session
+	 *            the session
+	 */
+	public synchronized void setSession(VotingSession session) {
+		this.session = session;
+		for (Transitionable state : states)
+			((State) state).setSession(session);
+	}
+
+	/**
+	 * @return the session the states use
+	 */
+	public VotingSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Sets the registry naming the state actions
+	 * 
+	 * @param registry
+	 *            the registry
+	 */
+	public void setActionRegistry(ActionRegistry registry) {
+		actions = registry;
+	}
+
+	public ActionRegistry getActionRegistry() {
+		return actions;
+	}
+
+	public int getStartId() {
+		return startId;
+	}
+
+	public int getStopId() {
+		return stopId;
+	}
+
+	/**
+	 * @return the state the machine is in, null before it is started
+	 */
+	public Transitionable getCurrentState() {
+		return currentState;
 	}
 
 	/**
@@ -155,14 +251,31 @@ public class FiniteStateMachine {
 	 *            the id of the state
 	 * @return the state object
 	 */
-	public Transitionable getState(int stateId) {
+	public synchronized Transitionable getState(int stateId) {
 		return states.get(stateId);
 	}
 
-	public int size() {
+	public synchronized int size() {
 		return states.size();
 	}
 
+	/**
+	 * Freezes the states and transitions added so far. Adding a transition
+	 * afterwards, e.g. from a state action, swaps in a changed copy; adding a
+	 * state drops the frozen graph and the next start() freezes again.
+	 * 
+	 * @return the frozen graph
+	 * @throws IllegalStateException
+	 *             if a transition leads to a state that was never added
+	 */
+	public synchronized CompiledGraph freeze() {
+		if (graph == null)
+			graph = new CompiledGraph(
+					states.toArray(new Transitionable[states.size()]),
+					transitions, startId, stopId);
+		return graph;
+	}
+
 	/**
 	 * Gets the valid input of the current state
 	 * 
@@ -176,6 +289,34 @@ public class FiniteStateMachine {
 			return 0;
 	}
 
+	/**
+	 * Puts back a graph frozen earlier from this machine, undoing the
+	 * transitions added since, so the machine can be started again from
+	 * scratch
+	 * 
+	 * @param frozen
+	 *            a graph returned by {@link #freeze()}
+	 * @throws IllegalArgumentException
+	 *             if the graph has other states than this machine
+	 */
+	public synchronized void restore(CompiledGraph frozen) {
+		if (frozen.size() != states.size())
+			throw new IllegalArgumentException(
+					"The graph was not frozen from this machine");
+		for (int i = 0; i < states.size(); i++) {
+			if (frozen.getState(i) != states.get(i))
+				throw new IllegalArgumentException(
+						"The graph was not frozen from this machine");
+			for (int input = 0; input < Globals.MAX_INPUT; input++)
+				transitions[i * Globals.MAX_INPUT + input] = frozen
+						.getTransition(i, input);
+		}
+		startId = frozen.getStartId();
+		stopId = frozen.getStopId();
+		currentState = states.get(startId);
+		graph = frozen;
+	}
+
 	/**
 	 * Adds transition from previousState to currentState with given input
 	 * 
@@ -186,9 +327,21 @@ public class FiniteStateMachine {
 	 * @param input
 	 *            the input that performs the transition
 	 */
-	public void addTransition(int previousStateId, int currentStateId, int input) {
+	public synchronized void addTransition(int previousStateId,
+			int currentStateId, int input) {
 		Print.debug("Adding transition from " + previousStateId + " to " + currentStateId + " with input " + input);
-		transitions.get(previousStateId).addTransition(currentStateId, input);
+		if (previousStateId < 0 || previousStateId >= states.size()
+				|| input < 0 || input >= Globals.MAX_INPUT)
+			throw new IllegalArgumentException("No transition from "
+					+ previousStateId + " on input " + input);
+		if (graph != null && currentStateId >= 0
+				&& currentStateId < graph.size())
+			graph = graph.withTransition(previousStateId, currentStateId,
+					input);
+		else
+			// checked again when next frozen
+			graph = null;
+		transitions[previousStateId * Globals.MAX_INPUT + input] = currentStateId;
 	}
 
 	/**
@@ -201,8 +354,8 @@ public class FiniteStateMachine {
 	 * @return the state id that that the given state + input would transition
 	 *         to
 	 */
-	public int getTransition(int stateId, int input) {
-		return transitions.get(stateId).getTransition(input);
+	public synchronized int getTransition(int stateId, int input) {
+		return transitions[stateId * Globals.MAX_INPUT + input];
 	}
 
 	/**
@@ -224,51 +377,109 @@ public class FiniteStateMachine {
 	 * @param stateId
 	 *            id of the first state
 	 */
-	public void setStartState(int stateId) {
-		startState = states.get(stateId);
-		currentState = startState;
+	public synchronized void setStartState(int stateId) {
+		currentState = states.get(stateId);
+		startId = stateId;
+		graph = null;
 	}
 
 	/**
-	 * Start the finite state machine
-	 * 
+	 * Starts the machine without waiting for input: the start state shows its
+	 * content and the caller gives the inputs with {@link #giveInput(int)}, on
+	 * its own thread. {@link #start()} does this and then waits for input.
 	 */
-	public void start() {
-		if (startState == null) {
+	public void begin() {
+		if (startId < 0) {
 			throw new NullPointerException("Starting state not defined!");
 		}
-		if (stopState == null) {
+		if (stopId < 0) {
 			throw new NullPointerException("Stop state is not defined!");
 		}
-		if (inputStream == null) {
-			throw new NullPointerException("Input stream is not set!");
-		}
+		CompiledGraph g = freeze();
+		// the machine may be started again for another voter
+		inputTaken = false;
+		actionBeingPerformed = false;
+		inputs.clear();
+		inputThread = Thread.currentThread();
 		isRunning = true;
-		currentState = startState;
+		currentState = g.getState(g.getStartId());
 		currentState.showContent();
+	}
 
-		int i;
-		inputStreamReader = new InputStreamReader(inputStream);
-		// loop waits for input which it then feeds to the FSM using giveinput()
-		while (isRunning || currentState.isPlaying())
+	/**
+	 * Start the finite state machine
+	 * 
+	 */
+	public void start() {
+		begin();
+		if (inputStream != null)
+			StreamInputSource.forStream(inputStream).connect(this);
+		for (InputSource source : inputSources)
+			source.connect(this);
+
+		// waits for input which it then feeds to the FSM using giveinput(),
+		// sleeping while there is none
+		while (isRunning || currentState.isPlaying()) {
+			Integer input = inputs.poll();
+			if (input == null) {
+				if (isRunning)
+					LockSupport.park(this);
+				else
+					// only waiting for the last message to finish
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS
+							.toNanos(Globals.OFFSET));
+				continue;
+			}
+			if (input.intValue() == STOP)
+				continue;
 			try {
-				if (inputStreamReader.ready()) {
-					char c = (char) inputStreamReader.read();
-					if (c == '*')
-						i = 10;
-					else if (Character.isDigit(c))
-						i = (int) Character.getNumericValue(c);
-					else
-						i = 0;
-					// TODO if ran on linux only one such character should be
-					// needed - i think
-					inputStreamReader.read(); // the enter key
-					inputStreamReader.read(); // the enter key
-					giveInput(i);
-				}
-			} catch (IOException e) {
-				throw new RuntimeException("Problems with the input stream", e);
+				giveInput(input.intValue());
+			} catch (RuntimeException e) {
+				Print.debug(e.getMessage());
 			}
+			if (inputAction != null)
+				inputAction.doAction(getValidInput());
+		}
+		if (inputStream != null)
+			StreamInputSource.forStream(inputStream).disconnect(this);
+		for (InputSource source : inputSources)
+			source.disconnect(this);
+		inputThread = null;
+	}
+
+	/**
+	 * Queues an input for the thread running the FSM. Keypad, buttons and the
+	 * input stream all go through here, so inputs are handled in order and one
+	 * at a time.
+	 * 
+	 * @param input
+	 *            the input
+	 */
+	public void postInput(int input) {
+		inputs.offer(input);
+		LockSupport.unpark(inputThread);
+	}
+
+	/**
+	 * Adds a source of inputs, connected while the machine runs
+	 * 
+	 * @param source
+	 *            the source
+	 */
+	public void addInputSource(InputSource source) {
+		if (!inputSources.contains(source))
+			inputSources.add(source);
+	}
+
+	/**
+	 * Sets an action run on the FSM thread after each input is handled; it is
+	 * given the valid inputs of the new state
+	 * 
+	 * @param action
+	 *            the action, or null for none
+	 */
+	public void setInputAction(StateAction action) {
+		inputAction = action;
 	}
 
 	/**
@@ -277,9 +488,11 @@ public class FiniteStateMachine {
 	 * @param id
 	 *            id of the final state
 	 */
-	public void setStopState(int id) {
-		// stopState = states.get(0);
-		stopState = states.get(id);
+	public synchronized void setStopState(int id) {
+		if (id < 0 || id >= states.size())
+			throw new ArrayIndexOutOfBoundsException(id);
+		stopId = id;
+		graph = null;
 	}
 
 	/**
@@ -288,6 +501,8 @@ public class FiniteStateMachine {
 	 */
 	public void stop() {
 		isRunning = false;
+		// wake up the thread waiting for input
+		postInput(STOP);
 		if (currentState != null)
 			currentState.stopWav();
 	}
@@ -314,7 +529,7 @@ public class FiniteStateMachine {
 
 	/**
 	 * Sets the input stream where the FSM will look for input (default is
-	 * System.in)
+	 * System.in), null for none
 	 * 
 	 * @param stream
 	 *            the InputStream
@@ -325,29 +540,32 @@ public class FiniteStateMachine {
 
 	/**
 	 * Feeds the input to the current state and performs the action and
-	 * transition on that input
+	 * transition on that input. Only the thread running start() (or the one
+	 * that called begin()) calls this, so it takes no lock; lookups go to the
+	 * frozen graph.
 	 * 
 	 * @param input
 	 */
-	public synchronized void giveInput(int input) {
-		Print.debug("Giving input " + input);
-		
+	public void giveInput(int input) {
 		if (!isRunning) {
 			throw new NullPointerException(
 					"FSM not initialized! Call start() first!");
 		}
-		Print.debug("Input is valid: " + currentState.isValidInput(input));
+		CompiledGraph g = graph;
+		if (g == null)
+			g = freeze();
+		int currentId = currentState.getId();
 		if(inputTaken){
 			Print.debug("Not giving input to FSM, since inputTaken is true!");
 		}
-		if (currentState.isValidInput(input) && actionBeingPerformed == false && !inputTaken) {
+		if (g.isValidInput(currentId, input) && actionBeingPerformed == false && !inputTaken) {
 			inputTaken = true;
 			// if state is interruptable, stop the wav // if state is
 			// interruptable, stop the wav
 			if (currentState.isInterruptable()) {
 				currentState.stopWav();
 				try {
-					Thread.sleep(Globals.OFFSET);
+					session.getClock().sleep(Globals.OFFSET);
 				} catch (InterruptedException e) {
 					throw new RuntimeException("Thread can't sleep", e);
 				}
@@ -356,39 +574,29 @@ public class FiniteStateMachine {
 				// ignore all inputs while waiting
 				Print.debug("Wait for the message to be played.");
 				while (currentState.isPlaying()) {
-					try {
-						while (inputStreamReader.ready())
-							inputStreamReader.read();
-					} catch (IOException e) {
-						throw new RuntimeException(
-								"Problems with the input stream", e);
-					}
+					inputs.clear();
 					return;
 				}
 			}
-			Print.clearTextArea();
+			Print.clearTextArea(session);
 			// execute current's state action
 			actionBeingPerformed = true;
 			currentState.action(input);
 			actionBeingPerformed = false;
-			// transition to the next state
-			currentState = states
-					.get(getTransition(currentState.getId(), input));
+			// transition to the next state; the action may have swapped in a
+			// graph with a new transition
+			g = graph != null ? graph : freeze();
+			int nextId = g.getTransition(currentId, input);
+			currentState = g.getState(nextId);
 			// check to see if the state is the stopstate
-			if (currentState == stopState) {
+			if (nextId == g.getStopId()) {
 				Print.debug("Stopstate reached");
 				currentState.showContent(false);
 				// wait until the stopstate finishes playing
 				// ignore all inputs while waiting
 				Print.debug("Wait for the message to be played.");
 				while (currentState.isPlaying()) {
-					try {
-						while (inputStreamReader.ready())
-							inputStreamReader.read();
-					} catch (IOException e) {
-						throw new RuntimeException(
-								"Problems with the input stream", e);
-					}
+					inputs.clear();
 					isRunning = false;
 					return;
 				}
@@ -399,7 +607,7 @@ public class FiniteStateMachine {
 				inputTaken = false;
 				currentState.showContent();
 		} else
-			throw new RuntimeException("FSM: Invalid input.");
+			throw new InvalidInputException("FSM: Invalid input.");
 	}
 
 	/**
@@ -407,12 +615,12 @@ public class FiniteStateMachine {
 	 * 
 	 * @return string representation of the transition array
 	 */
-	public String printTransitionsToString() {
+	public synchronized String printTransitionsToString() {
 		StringBuffer a = new StringBuffer();
-		int x = 0;
-		for (TransitionArray i : transitions) {
-			a.append(x++ + " : ");
-			a.append(i.toString());
+		for (int x = 0; x < states.size(); x++) {
+			a.append(x + " : ");
+			for (int input = 0; input < Globals.MAX_INPUT; input++)
+				a.append(getTransition(x, input) + " ");
 			a.append("\n");
 		}
 		return a.toString();
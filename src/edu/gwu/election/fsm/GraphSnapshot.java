@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import edu.gwu.election.Globals;
+
+/**
+ * Saves a built state graph to a file and loads it back without building it
+ * again. The file holds, in order:
+ *
+ * <pre>
+ * magic, version, MAX_INPUT
+ * number of properties, then name and value of each
+ * number of states, start state, stop state
+ * per state: valid input bitmask, interruptable, maximum timeouts,
+ *            action name ("" for none), number of sound files, filenames
+ * the transition matrix, state * MAX_INPUT + input
+ * </pre>
+ *
+ * Actions are saved by their name in the {@link ActionRegistry} of the machine
+ * and looked up by name when loading. The content directory is not saved; the
+ * loaded states share the one given when loading.
+ */
+public class GraphSnapshot {
+
+	private static final int MAGIC = 0x44524547; // "DREG"
+	private static final int VERSION = 1;
+
+	/**
+	 * Saves the graph of a machine
+	 *
+	 * @param fsm
+	 *            the machine, with its start and stop states set
+	 * @param properties
+	 *            saved along with the graph, e.g. to tell whether it is out of
+	 *            date; may be null
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file can't be written or a state has an action
+	 *             without a name
+	 */
+	public static void write(FiniteStateMachine fsm, Properties properties,
+			File file) throws IOException {
+		CompiledGraph graph = fsm.freeze();
+		ActionRegistry actions = fsm.getActionRegistry();
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(Globals.MAX_INPUT);
+			if (properties == null)
+				properties = new Properties();
+			out.writeInt(properties.size());
+			for (String name : properties.stringPropertyNames()) {
+				out.writeUTF(name);
+				out.writeUTF(properties.getProperty(name));
+			}
+
+			out.writeInt(graph.size());
+			out.writeInt(graph.getStartId());
+			out.writeInt(graph.getStopId());
+			for (int i = 0; i < graph.size(); i++) {
+				State state = (State) graph.getState(i);
+				String actionId = "";
+				if (state.getStateAction() != null) {
+					actionId = actions.getId(state.getStateAction());
+					if (actionId == null)
+						throw new IOException("The action of state " + i
+								+ " has no name");
+				}
+				out.writeInt(graph.getValidInput(i));
+				out.writeBoolean(state.isInterruptable());
+				out.writeInt(state.getMaxTimeouts());
+				out.writeUTF(actionId);
+				String[] wavs = state.getWavs();
+				out.writeInt(wavs.length);
+				for (String wav : wavs)
+					out.writeUTF(wav);
+			}
+			for (int i = 0; i < graph.size(); i++)
+				for (int input = 0; input < Globals.MAX_INPUT; input++)
+					out.writeInt(graph.getTransition(i, input));
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete() || !tmp.renameTo(file))
+			throw new IOException("Could not replace " + file);
+	}
+
+	/**
+	 * Loads a saved graph into a new machine
+	 *
+	 * @param file
+	 *            the file written by {@link #write}
+	 * @param dir
+	 *            the content directory array shared by the states
+	 * @param actions
+	 *            the actions named in the file
+	 * @param properties
+	 *            filled with the properties saved along with the graph; may
+	 *            be null
+	 * @return the machine, frozen and ready to start
+	 * @throws IOException
+	 *             if the file can't be read or is not a saved graph
+	 * @throws IllegalArgumentException
+	 *             if an action is not in the registry
+	 */
+	public static FiniteStateMachine read(File file, String[] dir,
+			ActionRegistry actions, Properties properties) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a saved state graph");
+			if (in.readInt() != Globals.MAX_INPUT)
+				throw new IOException(file
+						+ " was saved with a different number of inputs");
+			int numProperties = in.readInt();
+			for (int i = 0; i < numProperties; i++) {
+				String name = in.readUTF();
+				String value = in.readUTF();
+				if (properties != null)
+					properties.setProperty(name, value);
+			}
+
+			FiniteStateMachine fsm = new FiniteStateMachine();
+			fsm.setActionRegistry(actions);
+			int numStates = in.readInt();
+			int startId = in.readInt();
+			int stopId = in.readInt();
+			for (int i = 0; i < numStates; i++) {
+				int[] validInputs = toInputs(in.readInt());
+				boolean interruptable = in.readBoolean();
+				fsm.setMaxTimeouts(in.readInt());
+				String actionId = in.readUTF();
+				String[] wavs = new String[in.readInt()];
+				for (int j = 0; j < wavs.length; j++)
+					wavs[j] = in.readUTF();
+				fsm.addNamedState(validInputs, dir, wavs, interruptable,
+						actionId.length() == 0 ? null : actionId);
+			}
+			for (int i = 0; i < numStates; i++)
+				for (int input = 0; input < Globals.MAX_INPUT; input++)
+					fsm.addTransition(i, in.readInt(), input);
+			fsm.setStartState(startId);
+			fsm.setStopState(stopId);
+			fsm.freeze();
+			return fsm;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Turns a valid input bitmask (see {@link State}) back into the inputs
+	 */
+	private static int[] toInputs(int mask) {
+		int[] inputs = new int[Integer.bitCount(mask)];
+		int n = 0;
+		for (int input = 0; input < 31 && n < inputs.length; input++)
+			if ((mask & (1 << (input + 1))) != 0)
+				inputs[n++] = input;
+		return inputs;
+	}
+
+	/**
+	 * Prints a summary of a saved graph, checking it can be frozen
+	 *
+	 * @param args
+	 *            the saved graph file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: GraphSnapshot <saved graph>");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		FiniteStateMachine fsm = read(new File(args[0]), new String[2],
+				new ActionRegistry() {
+					public StateAction get(String id) {
+						return null;
+					}
+				}, properties);
+		System.out.println(fsm.size() + " states, start " + fsm.getStartId()
+				+ ", stop " + fsm.getStopId());
+		for (String name : properties.stringPropertyNames())
+			System.out.println(name + " = " + properties.getProperty(name));
+		System.out.print(fsm.printTransitionsToString());
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+/**
+ * Somewhere inputs for the finite state machine come from (the keypad, an
+ * input stream, a script...). A source is connected to a machine while it
+ * runs and hands it inputs through
+ * {@link FiniteStateMachine#postInput(int)}.
+ */
+public interface InputSource {
+
+	/**
+	 * Starts sending inputs to a machine
+	 * 
+	 * @param fsm
+	 *            the machine being started
+	 */
+	void connect(FiniteStateMachine fsm);
+
+	/**
+	 * Stops sending inputs to a machine
+	 * 
+	 * @param fsm
+	 *            the machine that has finished
+	 */
+	void disconnect(FiniteStateMachine fsm);
+}
@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+/**
+ * Thrown by {@link FiniteStateMachine#giveInput(int)} for an input the
+ * current state does not take, or one given while the state is still busy
+ * with the previous input. The machine is left in the same state.
+ */
+public class InvalidInputException extends RuntimeException {
+
+	public InvalidInputException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.awt.KeyEventDispatcher;
+import java.awt.event.KeyEvent;
+
+import edu.gwu.election.Globals;
+
+/**
+ * Takes inputs from the keyboard or keypad. Registered once with the
+ * KeyboardFocusManager, it sends key presses to whichever machine is
+ * connected at the time.
+ * 
+ * The default translation takes the digits of either keyboard, * for 10 and
+ * Enter for 11; subclasses can override {@link #translate(KeyEvent)}.
+ */
+public class KeyInputSource implements InputSource, KeyEventDispatcher {
+
+	private volatile FiniteStateMachine target = null;
+
+	public void connect(FiniteStateMachine fsm) {
+		target = fsm;
+	}
+
+	public synchronized void disconnect(FiniteStateMachine fsm) {
+		if (target == fsm)
+			target = null;
+	}
+
+	/**
+	 * @return the machine key presses currently go to, or null
+	 */
+	public FiniteStateMachine getTarget() {
+		return target;
+	}
+
+	public boolean dispatchKeyEvent(KeyEvent e) {
+		if (e.getID() == KeyEvent.KEY_PRESSED) {
+			int input = translate(e);
+			if (input >= 0)
+				post(input);
+		}
+		return false;
+	}
+
+	/**
+	 * Sends an input to the connected machine, if there is one
+	 */
+	protected void post(int input) {
+		FiniteStateMachine fsm = target;
+		if (fsm != null)
+			fsm.postInput(input);
+	}
+
+	/**
+	 * Translates a key press into an input
+	 * 
+	 * @return the input, or -1 if the key is not an input
+	 */
+	protected int translate(KeyEvent e) {
+		int code = e.getKeyCode();
+		if (code >= KeyEvent.VK_0 && code <= KeyEvent.VK_9)
+			return code - KeyEvent.VK_0;
+		if (code >= KeyEvent.VK_NUMPAD0 && code <= KeyEvent.VK_NUMPAD9)
+			return code - KeyEvent.VK_NUMPAD0;
+		if (code == KeyEvent.VK_MULTIPLY || code == KeyEvent.VK_ASTERISK)
+			return Globals.TO_GO_BACK;
+		if (code == KeyEvent.VK_ENTER)
+			return Globals.TO_CONTINUE;
+		return -1;
+	}
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Plays back a fixed list of inputs, each after a delay, e.g. to replay a
+ * recorded session or to drive the machine from a test.
+ */
+public class ScriptedInputSource implements InputSource, Runnable {
+
+	private int[] inputs;
+	private long[] delays;
+	private volatile FiniteStateMachine target = null;
+	private Thread thread = null;
+
+	/**
+	 * @param inputs
+	 *            the inputs, in order
+	 * @param delays
+	 *            milliseconds to wait before each input
+	 */
+	public ScriptedInputSource(int[] inputs, long[] delays) {
+		if (inputs.length != delays.length)
+			throw new IllegalArgumentException(
+					"Every input needs exactly one delay");
+		this.inputs = inputs.clone();
+		this.delays = delays.clone();
+	}
+
+	/**
+	 * @param inputs
+	 *            the inputs, in order
+	 * @param delay
+	 *            milliseconds to wait before each input
+	 */
+	public ScriptedInputSource(int[] inputs, long delay) {
+		this(inputs, fill(inputs.length, delay));
+	}
+
+	/**
+	 * Reads a script, one input per line (a digit or *, as on the input
+	 * stream), optionally followed by the delay in milliseconds before it.
+	 * Blank lines and lines starting with # are skipped.
+	 * 
+	 * @param script
+	 *            the script file
+	 * @param delay
+	 *            delay of the lines that don't give one
+	 * @throws IOException
+	 *             if the script can't be read
+	 */
+	public static ScriptedInputSource fromFile(File script, long delay)
+			throws IOException {
+		ArrayList<Integer> inputs = new ArrayList<Integer>();
+		ArrayList<Long> delays = new ArrayList<Long>();
+		BufferedReader in = new BufferedReader(new FileReader(script));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] parts = line.split("\\s+");
+				inputs.add(StreamInputSource.parse(parts[0]));
+				delays.add(parts.length > 1 ? Long.parseLong(parts[1]) : delay);
+			}
+		} finally {
+			in.close();
+		}
+		int[] inputArray = new int[inputs.size()];
+		long[] delayArray = new long[delays.size()];
+		for (int i = 0; i < inputArray.length; i++) {
+			inputArray[i] = inputs.get(i);
+			delayArray[i] = delays.get(i);
+		}
+		return new ScriptedInputSource(inputArray, delayArray);
+	}
+
+	public synchronized void connect(FiniteStateMachine fsm) {
+		target = fsm;
+		if (thread == null) {
+			thread = new Thread(this, "FSM script");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void disconnect(FiniteStateMachine fsm) {
+		if (target == fsm) {
+			target = null;
+			if (thread != null)
+				thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public void run() {
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				Thread.sleep(delays[i]);
+				FiniteStateMachine fsm = target;
+				if (fsm == null)
+					return;
+				fsm.postInput(inputs[i]);
+			}
+		} catch (InterruptedException e) {
+			// disconnected
+		}
+	}
+
+	private static long[] fill(int length, long delay) {
+		long[] delays = new long[length];
+		for (int i = 0; i < length; i++)
+			delays[i] = delay;
+		return delays;
+	}
+}
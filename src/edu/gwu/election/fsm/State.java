@@ -10,17 +10,19 @@
  ******************************************************************************/
 package edu.gwu.election.fsm;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
 import java.util.TimerTask;
 
 import edu.gwu.audio.AudioPlayer;
 import edu.gwu.audio.AudioPlayerFactory;
 import edu.gwu.audio.AudioPlayerJlGUI;
+import edu.gwu.audio.AudioPlayerPCM;
+import edu.gwu.election.Clock;
+import edu.gwu.election.ContentManifest;
 import edu.gwu.election.Globals;
 import edu.gwu.election.Print;
 import edu.gwu.election.ScantegrityException;
+import edu.gwu.election.VotingSession;
 
 /**
  * The class for each state used in the FiniteStateMachine.
@@ -31,7 +33,7 @@ import edu.gwu.election.ScantegrityException;
 
 public class State implements Transitionable {
 
-	private Timer timer;
+	private Clock.Schedule timer;
 	private int id;
 	private int validInputs;
 	private int counter;
@@ -46,6 +48,7 @@ public class State implements Transitionable {
 	private StateAction stateAction;
 	private int timeout = 10000;
 	private int timesPlayed = 0;
+	private VotingSession session = VotingSession.getDefault();
 
 	/**
 	 * Constructor for a new State with more than one sound file
@@ -174,6 +177,45 @@ public class State implements Transitionable {
 		return id;
 	}
 
+	/**
+	 * @return the filenames of the sound files, relative to the directory
+	 */
+	public String[] getWavs() {
+		return wavs;
+	}
+
+	/**
+	 * @return the directory the sound files are in
+	 */
+	public String getDirectory() {
+		return dir[0];
+	}
+
+	public int getMaxTimeouts() {
+		return maxTimeouts;
+	}
+
+	/**
+	 * @return the time, in milliseconds, the state waits after its content
+	 *         before playing it again
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public StateAction getStateAction() {
+		return stateAction;
+	}
+
+	/**
+	 * @param session
+	 *            the session whose sound speed, gain and text area the state
+	 *            uses
+	 */
+	public void setSession(VotingSession session) {
+		this.session = session;
+	}
+
 	/**
 	 * Wrapper for starting to play the current (selected) sound file
 	 */
@@ -187,13 +229,15 @@ public class State implements Transitionable {
 
 	/**
 	 * Sets the volume gain on the current AudioPlayer if it is an instance of
-	 * AudioPlayerJlGUI
+	 * AudioPlayerJlGUI or AudioPlayerPCM
 	 * 
 	 * @param gain
 	 */
 	public void setGain(double gain) {
 		if (ap instanceof AudioPlayerJlGUI) {
 			((AudioPlayerJlGUI) ap).setGain(gain);
+		} else if (ap instanceof AudioPlayerPCM) {
+			((AudioPlayerPCM) ap).setGain(gain);
 		}
 	}
 
@@ -223,173 +267,70 @@ public class State implements Transitionable {
 
 		// if there is content to show
 		if (wavs[0] != null && !wavs[0].isEmpty()) {
-			timer = new Timer();
-
-			// for i=0, run before loop
-			String filename = dir[0] + wavs[0];
-
-			if (!filename.contains("recording.wav")) {
-				String extension = filename.substring(filename.length() - 4,
-						filename.length());
-				String tempFileName = filename.substring(0,
-						filename.length() - 4);
-				String tempFilePath = tempFileName + "_" + Globals.SOUND_SPEED
-						+ extension;
-
-				File file = new File(tempFilePath);
-				Print.debug("tempFilePath: " + tempFilePath);
-				if (!(new File(filename).exists()) && !file.exists()) {
-					Print.debug("State.java: file does not exist!" + filename);
-					String newExtension = ".wav";
-					if (extension.equals(".wav")) {
-						newExtension = ".mp3";
-					}
-					int length = filename.length();
-					String tempFilePathNoSpeed = tempFileName + newExtension;
-					File testFileNoSpeed = new File(tempFilePathNoSpeed);
-					if (!testFileNoSpeed.exists()) {
-
-						File testFile = new File(tempFileName.substring(0,
-								length - 4)
-								+ "_"
-								+ Globals.SOUND_SPEED
-								+ newExtension);
-						if (!testFile.exists()) {
-							Print.debug("File does not exist in any supported file types! "
-									+ testFile.getAbsolutePath());
-							throw (new ScantegrityException(
-									"Sound file does not exist in any supported file types!"
-											+ filename));
-						} else {
-
-							filename = tempFileName + newExtension;
-						}
-					} else {
-						Print.debug("Changing file extension!");
-						filename = tempFilePathNoSpeed;
-					}
-				}
-			}
+			timer = session.getClock().newSchedule();
 
-			apl[0] = AudioPlayerFactory.getAudioPlayer(filename, true);
-			// apl[0].openFile(dir[0]+wavs[0]);
-			ap = apl[0];
-			playWav();
-
-			if (!wavs[0].equals("writeIns/recording.wav")) {
-				Print.file(dir[0] + wavs[0].substring(0, wavs[0].length() - 3)
-						+ "txt");
+			// initialize an AudioPlayer for each sound and print the text
+			// corresponding to it
+			for (int i = 0; i < wavs.length; i++) {
+				Print.debug("Getting audio player # " + i);
+				// the speed is already in the name of the file found
+				apl[i] = AudioPlayerFactory.getAudioPlayer(
+						findSoundFile(dir[0] + wavs[i]), false, session);
+				if (!wavs[i].equals("writeIns/recording.wav")) {
+					Print.file(session, dir[0]
+							+ wavs[i].substring(0, wavs[i].length() - 3)
+							+ "txt");
+				}
 			}
 
 			// duration of "last" started wav - the one that is still currently
 			// playing
-			long duration = ap.getDuration();
-			Print.debug("first duration: " + duration / 1000);
-
-			// we need this GLOBAL variable beacuse the "TimerTask" can't access
-			// the local i variable in the loop
-			counter = 1;
-
-			// this loop plays all the sounds
-			for (int i = 1; i < wavs.length; i++) {
-				// if (!wavs[i].equals("extras/newline.wav")) {
-				// initialize a new AudioPlayer for the current sound
-				filename = dir[0] + wavs[i]; // TODO + "_" +
-												// Integer.toString(Globals.SOUND_SPEED);
-
-				if (!filename.contains("recording.wav")) {
-					String extension = filename.substring(
-							filename.length() - 4, filename.length());
-					String tempFileName = filename.substring(0,
-							filename.length() - 4);
-					String tempFilePath = tempFileName + "_"
-							+ Globals.SOUND_SPEED + extension;
-
-					File file = new File(tempFilePath);
-					// Print.debug("tempFilePath: " + tempFilePath);
-					if (!(new File(filename).exists()) && !file.exists()) {
-						Print.debug("State.java: file does not exist!"
-								+ filename);
-
-						String newExtension = ".wav";
-						if (extension.equals(".wav")) {
-							newExtension = ".mp3";
-						}
-						int length = filename.length();
-						String tempFilePathNoSpeed = tempFileName
-								+ newExtension;
-						File testFileNoSpeed = new File(tempFilePathNoSpeed);
-						// Print.debug("nospeed: " + tempFilePathNoSpeed);
-						if (!testFileNoSpeed.exists()) {
-
-							File testFile = new File(tempFileName.substring(0,
-									length - 4)
-									+ "_"
-									+ Globals.SOUND_SPEED
-									+ newExtension);
-							if (!testFile.exists()) {
-								Print.debug("File does not exist in any supported file types! "
-										+ testFile.getAbsolutePath());
-								throw (new ScantegrityException(
-										"Sound file does not exist in any supported file types!"
-												+ filename));
-							} else {
-
-								filename = tempFileName + newExtension;
+			long duration;
+			AudioPlayer playlist = wavs.length > 1 ? session
+					.getAudioPlayerFactory().newPlaylist(apl, session) : null;
+			if (playlist != null) {
+				// all the sounds are played back to back by one player
+				ap = playlist;
+				counter = wavs.length;
+				playWav();
+				duration = ap.getDuration();
+			} else {
+				ap = apl[0];
+				playWav();
+				duration = ap.getDuration();
+				Print.debug("first duration: " + duration / 1000);
+
+				// we need this GLOBAL variable beacuse the "TimerTask" can't
+				// access the local i variable in the loop
+				counter = 1;
+
+				// this loop plays all the sounds
+				for (int i = 1; i < wavs.length; i++) {
+					// schedule this sound to be played after the previous one
+					// is finished
+					timer.schedule(new TimerTask() {
+						public void run() {
+							// Print.debug("RUNNING TASK");
+							ap = null;
+							System.gc();
+							ap = apl[counter];
+							counter++;
+							try {
+								playWav();
+							} catch (Exception e) {
+								e.printStackTrace();
 							}
-						} else {
-							Print.debug("Changing file extension to "
-									+ tempFilePathNoSpeed);
-							filename = tempFilePathNoSpeed;
-						}
-					}
-				}
-				Print.debug("Getting audio player # " + i);
-				apl[i] = AudioPlayerFactory.getAudioPlayer(filename, true);
-				Print.debug("Got audio player # " + i);
-
-				/*
-				 * This is for the answer options, which have no speed option by
-				 * default. All sorts of bugs would be introduced by giving them
-				 * speed options.
-				 */
-
-				// schedule this sound to be played after the previous one
-				// is
-				// finished
-				timer.schedule(new TimerTask() {
-					public void run() {
-						// Print.debug("RUNNING TASK");
-						ap = null;
-						System.gc();
-						ap = apl[counter];
-						counter++;
-						try {
-							playWav();
-						} catch (Exception e) {
-							e.printStackTrace();
 						}
-					}
-				}, duration + Globals.OFFSET);
-				duration += apl[i].getDuration();
-				// }
-				// print text corresponding to this sound file
-				if (!wavs[i].equals("writeIns/recording.wav")) {
-					Print.file(dir[0]
-							+ wavs[i].substring(0, wavs[i].length() - 3)
-							+ "txt");
+					}, duration + Globals.OFFSET);
+					duration += apl[i].getDuration();
 				}
-				// String[] splitFileName = wavs[i].split(".");
-				// String saveFile =
-				// fileWithoutExtension[fileWithoutExtension.length - 1];
-
 			}
 			Print.debug("SHOWED ALL CONTENT");
 			// if timeout occurs and repeats are allowed, re-execute this method
 			if (allowRepeats) {
 				timer.schedule(new TimerTask() {
 					public void run() {
-						Print.clearTextArea();
+						Print.clearTextArea(session);
 						showContent();
 					}
 				}, timeout + duration);
@@ -406,6 +347,31 @@ public class State implements Transitionable {
 		}
 	}
 
+	/**
+	 * Finds the sound file to play for a file of the state in the
+	 * {@link ContentManifest}: the file for the sound speed, the file itself,
+	 * or either of them with the other extension (.wav or .mp3)
+	 * 
+	 * @param filename
+	 *            directory and name of the file
+	 * @return the file to play, with the speed already in its name
+	 */
+	private String findSoundFile(String filename) {
+		if (filename.contains("recording.wav"))
+			return filename;
+
+		String file = ContentManifest.getDefault().resolve(filename,
+				session.getSoundSpeed());
+		if (file == null) {
+			Print.debug("File does not exist in any supported file types! "
+					+ filename);
+			throw (new ScantegrityException(
+					"Sound file does not exist in any supported file types!"
+							+ filename));
+		}
+		return file;
+	}
+
 	/**
 	 * Executes the stored action for a certain input.
 	 * 
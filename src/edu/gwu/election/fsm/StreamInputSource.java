@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ * 
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.fsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+
+import edu.gwu.election.Print;
+
+/**
+ * Reads inputs from a stream such as System.in, one per line: a digit, or *
+ * for 10. The stream is read on its own thread, and there is one source per
+ * stream since a blocked read can't be taken back.
+ */
+public class StreamInputSource implements InputSource, Runnable {
+
+	private static HashMap<InputStream, StreamInputSource> sources = new HashMap<InputStream, StreamInputSource>();
+
+	private InputStream stream;
+	private volatile FiniteStateMachine target = null;
+
+	private StreamInputSource(InputStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * @return the source reading a stream, created (and its thread started) on
+	 *         first use
+	 */
+	public static synchronized StreamInputSource forStream(InputStream stream) {
+		StreamInputSource source = sources.get(stream);
+		if (source == null) {
+			source = new StreamInputSource(stream);
+			sources.put(stream, source);
+			Thread thread = new Thread(source, "FSM input");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return source;
+	}
+
+	public void connect(FiniteStateMachine fsm) {
+		target = fsm;
+	}
+
+	public synchronized void disconnect(FiniteStateMachine fsm) {
+		if (target == fsm)
+			target = null;
+	}
+
+	/**
+	 * Translates a line into an input
+	 * 
+	 * @return the input, or -1 for an empty line
+	 */
+	public static int parse(String line) {
+		line = line.trim();
+		if (line.length() == 0)
+			return -1;
+		char c = line.charAt(0);
+		if (c == '*')
+			return 10;
+		else if (Character.isDigit(c))
+			return Character.getNumericValue(c);
+		else
+			return 0;
+	}
+
+	public void run() {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				stream));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int input = parse(line);
+				FiniteStateMachine fsm = target;
+				if (input >= 0 && fsm != null)
+					fsm.postInput(input);
+			}
+		} catch (IOException e) {
+			Print.debug("Problems with the input stream: " + e);
+		}
+		synchronized (StreamInputSource.class) {
+			sources.remove(stream);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.gwu.audio.DurationIndex;
+import edu.gwu.election.ContentManifest;
+
+/**
+ * Durations of the sound files of a content folder, taken from the
+ * {@link DurationIndex} and then kept. Files are found in the
+ * {@link ContentManifest}, as State finds them.
+ */
+public class ClipDurations {
+
+	private Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+	private long missingDuration;
+	private AtomicInteger missing = new AtomicInteger();
+
+	/**
+	 * @param missingDuration
+	 *            duration in milliseconds used for files that can't be found
+	 *            or read
+	 */
+	public ClipDurations(long missingDuration) {
+		this.missingDuration = missingDuration;
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the state
+	 * @param wav
+	 *            sound file of the state, relative to the directory
+	 * @param speed
+	 *            sound speed
+	 * @return the duration in milliseconds
+	 */
+	public long getDuration(String directory, String wav, int speed) {
+		if (wav == null || wav.length() == 0)
+			return 0;
+		String key = directory + wav + "|" + speed;
+		Long duration = durations.get(key);
+		if (duration == null) {
+			String file = ContentManifest.getDefault().resolve(directory + wav,
+					speed);
+			duration = measure(file == null ? null : new File(file));
+			durations.put(key, duration);
+		}
+		return duration;
+	}
+
+	/**
+	 * @return the number of distinct files that could not be measured
+	 */
+	public int getMissing() {
+		return missing.get();
+	}
+
+	private long measure(File file) {
+		long duration = file == null ? -1 : DurationIndex.getDefault()
+				.getDuration(file);
+		if (duration >= 0)
+			return duration;
+		missing.incrementAndGet();
+		return missingDuration;
+	}
+}
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.gwu.election.Election;
+import edu.gwu.election.Globals;
+import edu.gwu.election.VotingSession;
+import edu.gwu.election.fsm.ActionRegistry;
+import edu.gwu.election.fsm.CompiledGraph;
+import edu.gwu.election.fsm.FiniteStateMachine;
+import edu.gwu.election.fsm.State;
+import edu.gwu.election.fsm.Transitionable;
+
+/**
+ * Tries every sequence of valid keys up to a length on the graph of an
+ * election, one length at a time, on as many threads as there are
+ * processors. A voter is where they are plus the last choice they made in
+ * each choice state; two sequences ending on the same pair are the same
+ * voter, so each pair is explored once.
+ *
+ * The report lists:
+ * <ul>
+ * <li>states no sequence reaches,</li>
+ * <li>dead ends: states no key leaves,</li>
+ * <li>traps: states the stop state can't be reached from,</li>
+ * <li>valid keys that fall back to the start state; a transition that was
+ * never added leads to state 0, so these are usually missing transitions,</li>
+ * <li>for each state, the shortest sequence reaching it and the number of
+ * different voters seen there.</li>
+ * </ul>
+ *
+ * Like {@link Simulation}, only the graph is walked; transitions added by the
+ * state actions at run time are not seen.
+ */
+public class PathExplorer {
+
+	private CompiledGraph graph;
+	// slot of the choice states in a voter, -1 for the others
+	private int[] slots;
+	private int words;
+	private int maxVoters = 5000000;
+
+	/**
+	 * Where a voter is, what they chose and how they got there
+	 */
+	private static class Voter {
+		final int state;
+		final long[] choices;
+		final Voter previous;
+		final int key;
+		final int depth;
+
+		Voter(int state, long[] choices, Voter previous, int key) {
+			this.state = state;
+			this.choices = choices;
+			this.previous = previous;
+			this.key = key;
+			depth = previous == null ? 0 : previous.depth + 1;
+		}
+
+		int[] keys() {
+			int[] keys = new int[depth];
+			for (Voter v = this; v.previous != null; v = v.previous)
+				keys[v.depth - 1] = v.key;
+			return keys;
+		}
+
+		public boolean equals(Object o) {
+			Voter other = (Voter) o;
+			return state == other.state
+					&& Arrays.equals(choices, other.choices);
+		}
+
+		public int hashCode() {
+			return 31 * state + Arrays.hashCode(choices);
+		}
+	}
+
+	/**
+	 * @param graph
+	 *            the frozen graph
+	 * @param choiceStates
+	 *            the states where the key pressed is a choice of the voter,
+	 *            indexed by id; null to only follow the states
+	 */
+	public PathExplorer(CompiledGraph graph, boolean[] choiceStates) {
+		this.graph = graph;
+		slots = new int[graph.size()];
+		int n = 0;
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = choiceStates != null && choiceStates[i] ? n++ : -1;
+		// a choice takes 4 bits (the key + 1, 0 for none)
+		words = (n + 15) / 16;
+	}
+
+	/**
+	 * @param maxVoters
+	 *            different voters after which exploring stops, to bound the
+	 *            memory used
+	 */
+	public void setMaxVoters(int maxVoters) {
+		this.maxVoters = maxVoters;
+	}
+
+	/**
+	 * @return the states whose action is a choice ("simpleChoice",
+	 *         "multipleChoice", ...) in the registry of the machine
+	 */
+	public static boolean[] choiceStates(FiniteStateMachine fsm) {
+		ActionRegistry registry = fsm.getActionRegistry();
+		boolean[] choices = new boolean[fsm.size()];
+		for (int i = 0; i < choices.length; i++) {
+			Transitionable t = fsm.getState(i);
+			if (registry != null && t instanceof State) {
+				String id = registry.getId(((State) t).getStateAction());
+				choices[i] = id != null && id.endsWith("Choice");
+			}
+		}
+		return choices;
+	}
+
+	private long[] choose(long[] choices, int state, int key) {
+		int slot = slots[state];
+		if (slot < 0 || key == Globals.REPEAT_THIS_MESSAGE
+				|| key == Globals.TO_GO_BACK || key == Globals.TO_CONTINUE)
+			return choices;
+		long[] chosen = choices.clone();
+		int shift = (slot % 16) * 4;
+		chosen[slot / 16] = (chosen[slot / 16] & ~(0xFL << shift))
+				| ((long) (key + 1) << shift);
+		return chosen;
+	}
+
+	/**
+	 * Explores the sequences of keys
+	 *
+	 * @param maxDepth
+	 *            the most keys in a sequence
+	 * @return the report
+	 */
+	public Report explore(int maxDepth) throws Exception {
+		long start = System.currentTimeMillis();
+		final Set<Voter> seen = Collections
+				.newSetFromMap(new ConcurrentHashMap<Voter, Boolean>());
+		final AtomicReferenceArray<Voter> first = new AtomicReferenceArray<Voter>(
+				graph.size());
+		final AtomicIntegerArray voters = new AtomicIntegerArray(graph.size());
+
+		Voter begin = new Voter(graph.getStartId(), new long[words], null, -1);
+		seen.add(begin);
+		first.set(begin.state, begin);
+		voters.incrementAndGet(begin.state);
+		List<Voter> level = new ArrayList<Voter>();
+		level.add(begin);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		int depth = 0;
+		boolean cut = false;
+		try {
+			while (!level.isEmpty() && depth < maxDepth) {
+				if (seen.size() >= maxVoters) {
+					cut = true;
+					break;
+				}
+				List<Future<List<Voter>>> parts = new ArrayList<Future<List<Voter>>>();
+				int chunk = Math.max(64, (level.size() + threads - 1) / threads);
+				for (int from = 0; from < level.size(); from += chunk) {
+					final List<Voter> part = level.subList(from, Math.min(
+							level.size(), from + chunk));
+					parts.add(pool.submit(new Callable<List<Voter>>() {
+						public List<Voter> call() {
+							List<Voter> next = new ArrayList<Voter>();
+							for (Voter v : part)
+								for (int key = 0; key < Globals.MAX_INPUT; key++) {
+									if (!graph.isValidInput(v.state, key)
+											|| v.state == graph.getStopId())
+										continue;
+									int to = graph.getTransition(v.state, key);
+									Voter w = new Voter(to, choose(v.choices,
+											v.state, key), v, key);
+									if (seen.add(w)) {
+										first.compareAndSet(to, null, w);
+										voters.incrementAndGet(to);
+										next.add(w);
+									}
+								}
+							return next;
+						}
+					}));
+				}
+				List<Voter> next = new ArrayList<Voter>();
+				for (Future<List<Voter>> part : parts)
+					next.addAll(part.get());
+				level = next;
+				depth++;
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		Report report = new Report();
+		report.depth = depth;
+		report.complete = level.isEmpty() && !cut;
+		report.voters = seen.size();
+		report.first = new Voter[graph.size()];
+		report.counts = new int[graph.size()];
+		for (int i = 0; i < graph.size(); i++) {
+			report.first[i] = first.get(i);
+			report.counts[i] = voters.get(i);
+		}
+		report.canFinish = canFinish();
+		report.wallTime = System.currentTimeMillis() - start;
+		return report;
+	}
+
+	/**
+	 * @return the states the stop state can be reached from
+	 */
+	private boolean[] canFinish() {
+		boolean[] finish = new boolean[graph.size()];
+		finish[graph.getStopId()] = true;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int s = 0; s < finish.length; s++) {
+				if (finish[s])
+					continue;
+				for (int key = 0; key < Globals.MAX_INPUT; key++)
+					if (graph.isValidInput(s, key)
+							&& finish[graph.getTransition(s, key)]) {
+						finish[s] = true;
+						changed = true;
+						break;
+					}
+			}
+		}
+		return finish;
+	}
+
+	/**
+	 * What the explorer found
+	 */
+	public class Report {
+		int depth;
+		boolean complete;
+		int voters;
+		Voter[] first;
+		int[] counts;
+		boolean[] canFinish;
+		long wallTime;
+
+		/**
+		 * @return the states not reached within the explored length
+		 */
+		public List<Integer> getUnreached() {
+			List<Integer> states = new ArrayList<Integer>();
+			for (int s = 0; s < first.length; s++)
+				if (first[s] == null)
+					states.add(s);
+			return states;
+		}
+
+		/**
+		 * @return the reached states, other than the stop state, that no key
+		 *         leads out of
+		 */
+		public List<Integer> getDeadEnds() {
+			List<Integer> states = new ArrayList<Integer>();
+			for (int s = 0; s < first.length; s++) {
+				if (first[s] == null || s == graph.getStopId())
+					continue;
+				boolean leaves = false;
+				for (int key = 0; key < Globals.MAX_INPUT && !leaves; key++)
+					leaves = graph.isValidInput(s, key)
+							&& graph.getTransition(s, key) != s;
+				if (!leaves)
+					states.add(s);
+			}
+			return states;
+		}
+
+		/**
+		 * @return the reached states the stop state can't be reached from
+		 */
+		public List<Integer> getTraps() {
+			List<Integer> states = new ArrayList<Integer>();
+			for (int s = 0; s < first.length; s++)
+				if (first[s] != null && !canFinish[s])
+					states.add(s);
+			return states;
+		}
+
+		/**
+		 * @return "state:key" for the valid keys of reached states that lead
+		 *         back to the start state
+		 */
+		public List<String> getFallbacks() {
+			List<String> keys = new ArrayList<String>();
+			for (int s = 0; s < first.length; s++) {
+				if (first[s] == null || s == graph.getStartId())
+					continue;
+				for (int key = 0; key < Globals.MAX_INPUT; key++)
+					if (graph.isValidInput(s, key)
+							&& graph.getTransition(s, key) == graph
+									.getStartId())
+						keys.add(s + ":" + key);
+			}
+			return keys;
+		}
+
+		/**
+		 * @return the shortest sequence of keys reaching the state, null if
+		 *         none was found
+		 */
+		public int[] getShortestKeys(int state) {
+			return first[state] == null ? null : first[state].keys();
+		}
+
+		/**
+		 * @return the number of different voters seen in the state
+		 */
+		public int getVoters(int state) {
+			return counts[state];
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			int reached = first.length - getUnreached().size();
+			s.append("Explored " + voters + " voters, up to " + depth
+					+ " keys" + (complete ? " (all of them)" : "") + ", in "
+					+ wallTime + " ms\n");
+			s.append("Coverage: " + reached + " of " + first.length
+					+ " states\n");
+			s.append("Unreached: " + getUnreached() + "\n");
+			s.append("Dead ends: " + getDeadEnds() + "\n");
+			s.append("Traps: " + getTraps() + "\n");
+			s.append("Keys falling back to the start: " + getFallbacks()
+					+ "\n");
+			for (int state = 0; state < first.length; state++)
+				if (first[state] != null)
+					s.append("  " + state + ": " + counts[state]
+							+ " voters, first by "
+							+ Arrays.toString(first[state].keys()) + "\n");
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Builds the election graph and explores it
+	 *
+	 * @param args
+	 *            properties file (with Ward, Language, ContentFolder and
+	 *            ElectionSpec), optional most keys in a sequence (30)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: PathExplorer <properties> [keys]");
+			return;
+		}
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(args[0]);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+		Election election = new Election(
+				properties.getProperty("ContentFolder"),
+				properties.getProperty("ElectionSpec"), new VotingSession(
+						properties));
+		election.setLanguage();
+		election.setWard();
+		election.constructFSM();
+		FiniteStateMachine fsm = election.getFSM();
+
+		PathExplorer explorer = new PathExplorer(fsm.freeze(),
+				choiceStates(fsm));
+		System.out.println(explorer.explore(maxDepth));
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.util.Random;
+
+import edu.gwu.election.Globals;
+import edu.gwu.election.fsm.CompiledGraph;
+
+/**
+ * A voter pressing valid keys at random: mostly continuing or choosing,
+ * sometimes asking for a message again or going back.
+ */
+public class RandomVoter implements VoterPolicy {
+
+	private double repeat;
+	private double goBack;
+	private long meanThinkTime;
+
+	/**
+	 * A voter repeating 5% and going back 5% of the time, thinking 1.5 s on
+	 * average
+	 */
+	public RandomVoter() {
+		this(0.05, 0.05, 1500);
+	}
+
+	/**
+	 * @param repeat
+	 *            chance of asking for the message again when possible
+	 * @param goBack
+	 *            chance of going back when possible
+	 * @param meanThinkTime
+	 *            average milliseconds between listening and pressing
+	 */
+	public RandomVoter(double repeat, double goBack, long meanThinkTime) {
+		this.repeat = repeat;
+		this.goBack = goBack;
+		this.meanThinkTime = meanThinkTime;
+	}
+
+	public int nextInput(CompiledGraph graph, int state, Random random) {
+		double r = random.nextDouble();
+		if (r < repeat
+				&& graph.isValidInput(state, Globals.REPEAT_THIS_MESSAGE))
+			return Globals.REPEAT_THIS_MESSAGE;
+		if (r < repeat + goBack && graph.isValidInput(state, Globals.TO_GO_BACK))
+			return Globals.TO_GO_BACK;
+
+		// otherwise any other valid key, all equally likely
+		int[] keys = new int[Globals.MAX_INPUT];
+		int n = 0;
+		for (int input = 0; input < Globals.MAX_INPUT; input++)
+			if (input != Globals.REPEAT_THIS_MESSAGE
+					&& input != Globals.TO_GO_BACK
+					&& graph.isValidInput(state, input))
+				keys[n++] = input;
+		if (n == 0)
+			return graph.isValidInput(state, Globals.REPEAT_THIS_MESSAGE) ? Globals.REPEAT_THIS_MESSAGE
+					: LEAVE;
+		return keys[random.nextInt(n)];
+	}
+
+	public double listenFraction(Random random) {
+		return 0.5 + 0.5 * random.nextDouble();
+	}
+
+	public long thinkTime(Random random) {
+		// exponential around the mean
+		return (long) (-meanThinkTime * Math.log(1 - random.nextDouble()));
+	}
+}
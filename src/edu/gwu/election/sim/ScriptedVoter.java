@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.util.Random;
+
+import edu.gwu.election.fsm.CompiledGraph;
+
+/**
+ * A voter pressing a fixed sequence of keys, listening to every message to
+ * the end and taking the same time for each key
+ */
+public class ScriptedVoter implements VoterPolicy {
+
+	private int[] inputs;
+	private long thinkTime;
+	private int next = 0;
+
+	/**
+	 * @param inputs
+	 *            the keys, in order; the voter leaves after the last one
+	 * @param thinkTime
+	 *            milliseconds between the end of a message and the key
+	 */
+	public ScriptedVoter(int[] inputs, long thinkTime) {
+		this.inputs = inputs.clone();
+		this.thinkTime = thinkTime;
+	}
+
+	public int nextInput(CompiledGraph graph, int state, Random random) {
+		return next < inputs.length ? inputs[next++] : LEAVE;
+	}
+
+	public double listenFraction(Random random) {
+		return 1;
+	}
+
+	public long thinkTime(Random random) {
+		return thinkTime;
+	}
+}
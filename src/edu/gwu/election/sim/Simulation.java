@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.gwu.election.Election;
+import edu.gwu.election.Globals;
+import edu.gwu.election.VotingSession;
+import edu.gwu.election.fsm.CompiledGraph;
+import edu.gwu.election.fsm.State;
+import edu.gwu.election.fsm.Transitionable;
+
+/**
+ * Runs many voting sessions over the graph of an election without playing
+ * any sound. Time is virtual: each state takes as long as its sound files
+ * last, so thousands of voters are simulated in seconds and the report tells
+ * how long a voter spends in the booth and in which states.
+ *
+ * Only the graph is walked; the state actions are not run, so the votes are
+ * not recorded and the transitions an action would add at run time (going
+ * back to a question from the final confirmation) are not taken.
+ */
+public class Simulation {
+
+	/**
+	 * Factory of voters, one per session
+	 */
+	public interface VoterFactory {
+		public VoterPolicy newVoter(int session);
+	}
+
+	private CompiledGraph graph;
+	private ClipDurations durations;
+	private int speed;
+	private int maxSteps = 1000;
+
+	// per state, in milliseconds of virtual time
+	private long[] playTimes;
+
+	/**
+	 * @param graph
+	 *            the frozen graph of the election
+	 * @param durations
+	 *            durations of the sound files
+	 * @param speed
+	 *            sound speed of the voters
+	 */
+	public Simulation(CompiledGraph graph, ClipDurations durations, int speed) {
+		this.graph = graph;
+		this.durations = durations;
+		this.speed = speed;
+		playTimes = new long[graph.size()];
+		for (int i = 0; i < playTimes.length; i++)
+			playTimes[i] = playTime(graph.getState(i));
+	}
+
+	/**
+	 * @param maxSteps
+	 *            keys a voter presses before being counted as abandoned
+	 */
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * @return milliseconds it takes to play the content of a state, its
+	 *         sound files back to back
+	 */
+	private long playTime(Transitionable t) {
+		if (!(t instanceof State))
+			return 0;
+		State state = (State) t;
+		String[] wavs = state.getWavs();
+		long total = 0;
+		for (String wav : wavs)
+			total += durations.getDuration(state.getDirectory(), wav, speed);
+		return total;
+	}
+
+	/**
+	 * Runs one session
+	 *
+	 * @param voter
+	 *            the voter
+	 * @param random
+	 *            random numbers of the session
+	 * @param visits
+	 *            visits per state, added to
+	 * @param times
+	 *            virtual milliseconds per state, added to
+	 * @return the length of the session in milliseconds, negative if the
+	 *         voter left or the step bound was hit before the end
+	 */
+	long runSession(VoterPolicy voter, Random random, long[] visits,
+			long[] times) {
+		int state = graph.getStartId();
+		long clock = 0;
+		for (int step = 0; step < maxSteps; step++) {
+			long play = playTimes[state];
+			visits[state]++;
+			if (state == graph.getStopId()) {
+				times[state] += play;
+				return clock + play;
+			}
+
+			int input = voter.nextInput(graph, state, random);
+			if (input == VoterPolicy.LEAVE
+					|| !graph.isValidInput(state, input)) {
+				times[state] += play;
+				return -1 - (clock + play);
+			}
+
+			long spent;
+			if (graph.getState(state).isInterruptable()) {
+				spent = (long) (play * voter.listenFraction(random))
+						+ voter.thinkTime(random);
+				if (spent < play)
+					// the message is stopped, FSM waits before going on
+					spent += Globals.OFFSET;
+			} else
+				spent = play + voter.thinkTime(random);
+			times[state] += spent;
+			clock += spent;
+
+			if (input != Globals.REPEAT_THIS_MESSAGE)
+				state = graph.getTransition(state, input);
+		}
+		return -1 - clock;
+	}
+
+	/**
+	 * Runs the sessions on as many threads as there are processors
+	 *
+	 * @param sessions
+	 *            number of sessions
+	 * @param seed
+	 *            seed of the random numbers, session i uses seed + i
+	 * @param voters
+	 *            makes the voter of each session
+	 * @return the report
+	 */
+	public Report run(int sessions, final long seed, final VoterFactory voters)
+			throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Report>> parts = new ArrayList<Future<Report>>();
+		long start = System.currentTimeMillis();
+		int perThread = (sessions + threads - 1) / threads;
+		for (int from = 0; from < sessions; from += perThread) {
+			final int first = from;
+			final int last = Math.min(sessions, from + perThread);
+			parts.add(pool.submit(new Callable<Report>() {
+				public Report call() {
+					Report part = new Report(graph.size(), last - first);
+					for (int i = first; i < last; i++) {
+						long length = runSession(voters.newVoter(i),
+								new Random(seed + i), part.visits, part.times);
+						part.add(length);
+					}
+					return part;
+				}
+			}));
+		}
+		Report report = new Report(graph.size(), sessions);
+		try {
+			for (Future<Report> part : parts)
+				report.merge(part.get());
+		} finally {
+			pool.shutdown();
+		}
+		report.wallTime = System.currentTimeMillis() - start;
+		report.missingClips = durations.getMissing();
+		return report;
+	}
+
+	/**
+	 * What a simulation found
+	 */
+	public class Report {
+		long[] visits;
+		long[] times;
+		long[] lengths;
+		int completed = 0;
+		int abandoned = 0;
+		long wallTime;
+		int missingClips;
+
+		Report(int states, int sessions) {
+			visits = new long[states];
+			times = new long[states];
+			lengths = new long[sessions];
+		}
+
+		void add(long length) {
+			if (length >= 0)
+				lengths[completed++] = length;
+			else
+				abandoned++;
+		}
+
+		void merge(Report part) {
+			for (int i = 0; i < visits.length; i++) {
+				visits[i] += part.visits[i];
+				times[i] += part.times[i];
+			}
+			System.arraycopy(part.lengths, 0, lengths, completed,
+					part.completed);
+			completed += part.completed;
+			abandoned += part.abandoned;
+		}
+
+		public int getCompleted() {
+			return completed;
+		}
+
+		public int getAbandoned() {
+			return abandoned;
+		}
+
+		/**
+		 * @param p
+		 *            percentile, between 0 and 100
+		 * @return length in milliseconds of the completed sessions at the
+		 *         percentile
+		 */
+		public long getPercentile(double p) {
+			if (completed == 0)
+				return 0;
+			long[] sorted = Arrays.copyOf(lengths, completed);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(p / 100 * completed) - 1;
+			return sorted[Math.max(0, Math.min(completed - 1, index))];
+		}
+
+		/**
+		 * @return voters one booth serves in an hour, back to back
+		 */
+		public double getVotersPerHour() {
+			long total = 0;
+			for (int i = 0; i < completed; i++)
+				total += lengths[i];
+			return total == 0 ? 0 : completed * 3600000.0 / total;
+		}
+
+		/**
+		 * @param n
+		 *            number of states
+		 * @return the ids of the n states voters spend the most time in
+		 */
+		public int[] getHotStates(int n) {
+			Integer[] ids = new Integer[times.length];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = i;
+			Arrays.sort(ids, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return times[b] < times[a] ? -1 : times[b] > times[a] ? 1
+							: 0;
+				}
+			});
+			int[] hot = new int[Math.min(n, ids.length)];
+			for (int i = 0; i < hot.length; i++)
+				hot[i] = ids[i];
+			return hot;
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append("Sessions: " + (completed + abandoned) + " (" + completed
+					+ " completed, " + abandoned + " abandoned)\n");
+			s.append("Wall time: " + wallTime + " ms\n");
+			s.append("Missing clips: " + missingClips + "\n");
+			s.append(String.format("Voters per booth hour: %.1f\n",
+					getVotersPerHour()));
+			s.append("Session length (s): p50 " + getPercentile(50) / 1000
+					+ ", p90 " + getPercentile(90) / 1000 + ", p99 "
+					+ getPercentile(99) / 1000 + ", max "
+					+ getPercentile(100) / 1000 + "\n");
+			s.append("Hot states (id: total s, visits):\n");
+			for (int id : getHotStates(10))
+				s.append("  " + id + ": " + times[id] / 1000 + ", "
+						+ visits[id] + "\n");
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Builds the election graph and simulates random voters
+	 *
+	 * @param args
+	 *            properties file (with Ward, Language, ContentFolder and
+	 *            ElectionSpec), number of sessions, optional seed
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out
+					.println("Usage: Simulation <properties> <sessions> [seed]");
+			return;
+		}
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(args[0]);
+		try {
+			properties.load(in);
+		} catch (IOException e) {
+			System.out.println("Could not read " + args[0]);
+			return;
+		} finally {
+			in.close();
+		}
+		int sessions = Integer.parseInt(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+		VotingSession session = new VotingSession(properties);
+		Election election = new Election(
+				properties.getProperty("ContentFolder"),
+				properties.getProperty("ElectionSpec"), session);
+		election.setLanguage();
+		election.setWard();
+		election.constructFSM();
+		CompiledGraph graph = election.getFSM().freeze();
+
+		Simulation simulation = new Simulation(graph, new ClipDurations(2000),
+				session.getSoundSpeed());
+		Report report = simulation.run(sessions, seed, new VoterFactory() {
+			public VoterPolicy newVoter(int session) {
+				return new RandomVoter();
+			}
+		});
+		System.out.println(report);
+	}
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+package edu.gwu.election.sim;
+
+import java.util.Random;
+
+import edu.gwu.election.fsm.CompiledGraph;
+
+/**
+ * How a simulated voter behaves. A new policy is asked for each session, so
+ * a policy may keep state for the session it runs.
+ */
+public interface VoterPolicy {
+
+	/**
+	 * Returned by {@link #nextInput} when the voter walks away
+	 */
+	public static final int LEAVE = -1;
+
+	/**
+	 * @param graph
+	 *            the election graph
+	 * @param state
+	 *            the state the voter is in
+	 * @param random
+	 *            random numbers of the session
+	 * @return the key the voter presses, or LEAVE
+	 */
+	public int nextInput(CompiledGraph graph, int state, Random random);
+
+	/**
+	 * @param random
+	 *            random numbers of the session
+	 * @return the fraction of an interruptable message the voter listens to
+	 *         before pressing, between 0 and 1
+	 */
+	public double listenFraction(Random random);
+
+	/**
+	 * @param random
+	 *            random numbers of the session
+	 * @return milliseconds the voter takes to press the key once listening
+	 */
+	public long thinkTime(Random random);
+}
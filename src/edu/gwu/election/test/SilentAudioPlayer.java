@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import edu.gwu.audio.AudioPlayer;
+import edu.gwu.audio.AudioPlayerFactory;
+import edu.gwu.election.Clock;
+import edu.gwu.election.VotingSession;
+import edu.gwu.election.sim.ClipDurations;
+
+/**
+ * An audio player that plays nothing: it is "playing" for as long as the
+ * file (or the files of a state, when it joins them) lasts on the clock of
+ * the session, and writes down what it played. Its factory "records" a
+ * write-in as an empty wav file.
+ */
+public class SilentAudioPlayer implements AudioPlayer {
+
+	private Clock clock;
+	private ClipDurations durations;
+	private List<String> played;
+	private int speed;
+	private String filename;
+	private boolean speedOption;
+	private long started = -1;
+	// the players it plays back to back, if it joins several
+	private SilentAudioPlayer[] parts = null;
+
+	/**
+	 * Makes silent players for a session
+	 * 
+	 * @param durations
+	 *            where the lengths of the files are read
+	 * @param played
+	 *            list the players add the files they start playing to
+	 */
+	public static AudioPlayerFactory factory(final ClipDurations durations,
+			final List<String> played) {
+		return new AudioPlayerFactory() {
+			public AudioPlayer newAudioPlayer(String file,
+					boolean speedOption, VotingSession session) {
+				SilentAudioPlayer player = new SilentAudioPlayer(session
+						.getClock(), durations, played, session
+						.getSoundSpeed());
+				if (speedOption)
+					player.openFile(file);
+				else
+					player.openFileNoSpeedOption(file);
+				return player;
+			}
+
+			public AudioPlayer newPlaylist(AudioPlayer[] players,
+					VotingSession session) {
+				SilentAudioPlayer playlist = new SilentAudioPlayer(session
+						.getClock(), durations, played, session
+						.getSoundSpeed());
+				playlist.parts = new SilentAudioPlayer[players.length];
+				for (int i = 0; i < players.length; i++)
+					playlist.parts[i] = (SilentAudioPlayer) players[i];
+				return playlist;
+			}
+
+			public void record(int seconds, String file) throws IOException {
+				File recording = new File(file);
+				recording.getParentFile().mkdirs();
+				recording.createNewFile();
+			}
+		};
+	}
+
+	public SilentAudioPlayer(Clock clock, ClipDurations durations,
+			List<String> played, int speed) {
+		this.clock = clock;
+		this.durations = durations;
+		this.played = played;
+		this.speed = speed;
+	}
+
+	public void openFile(String filename) {
+		this.filename = filename;
+		speedOption = true;
+		started = -1;
+	}
+
+	public void openFileNoSpeedOption(String fileName) {
+		filename = fileName;
+		speedOption = false;
+		started = -1;
+	}
+
+	public void startPlaying() {
+		started = clock.currentTimeMillis();
+		if (parts == null)
+			played.add(filename);
+		else
+			for (SilentAudioPlayer part : parts)
+				played.add(part.filename);
+	}
+
+	public boolean isPlaying() {
+		return started >= 0
+				&& clock.currentTimeMillis() < started + getDuration();
+	}
+
+	public void stop() {
+		started = -1;
+	}
+
+	public void setFramePosition(int frame) {
+	}
+
+	public long getDuration() {
+		if (parts != null) {
+			long duration = 0;
+			for (SilentAudioPlayer part : parts)
+				duration += part.getDuration();
+			return duration;
+		}
+		// -1 finds no file with a speed suffix, only the file itself
+		return durations.getDuration("", filename, speedOption ? speed : -1);
+	}
+
+	public void releaseResources() {
+	}
+}
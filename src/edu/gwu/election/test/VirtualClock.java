@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.test;
+
+import java.util.PriorityQueue;
+import java.util.TimerTask;
+
+import edu.gwu.election.Clock;
+
+/**
+ * A clock that only moves when told to. Scheduled tasks run on the thread
+ * moving the clock, in time order, and sleeping just moves the clock, so a
+ * whole voting session runs on one thread in no time.
+ */
+public class VirtualClock implements Clock {
+
+	private long now = 0;
+	private long scheduled = 0;
+	private PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+
+	private static class Task implements Comparable<Task> {
+		long time;
+		long order;
+		TimerTask task;
+		VirtualSchedule schedule;
+
+		public int compareTo(Task other) {
+			if (time != other.time)
+				return time < other.time ? -1 : 1;
+			return order < other.order ? -1 : order > other.order ? 1 : 0;
+		}
+	}
+
+	private class VirtualSchedule implements Schedule {
+		volatile boolean cancelled = false;
+
+		public void schedule(TimerTask task, long delay) {
+			if (cancelled)
+				throw new IllegalStateException("Schedule already cancelled.");
+			if (delay < 0)
+				throw new IllegalArgumentException("Negative delay.");
+			Task t = new Task();
+			t.task = task;
+			t.schedule = this;
+			synchronized (VirtualClock.this) {
+				t.time = now + delay;
+				t.order = scheduled++;
+				tasks.add(t);
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	public synchronized long currentTimeMillis() {
+		return now;
+	}
+
+	/**
+	 * Moves the clock instead of waiting
+	 */
+	public void sleep(long millis) {
+		advance(millis);
+	}
+
+	public Schedule newSchedule() {
+		return new VirtualSchedule();
+	}
+
+	/**
+	 * Moves the clock forward, running the tasks that come due on the way
+	 * 
+	 * @param millis
+	 *            milliseconds to move
+	 */
+	public void advance(long millis) {
+		long until;
+		synchronized (this) {
+			until = now + millis;
+		}
+		while (true) {
+			Task next;
+			synchronized (this) {
+				next = tasks.peek();
+				if (next == null || next.time > until) {
+					now = Math.max(now, until);
+					return;
+				}
+				tasks.poll();
+				now = next.time;
+			}
+			if (!next.schedule.cancelled)
+				next.task.run();
+		}
+	}
+}
@@ -0,0 +1,455 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Alex Florescu, Jan Rubio, John Wittrock, Tyler Kaczmarek.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     DRE-interface contributors - initial API and implementation
+ ******************************************************************************/
+
+package edu.gwu.election.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.swing.JTextArea;
+
+import org.gwu.voting.standardFormat.basic.Answer;
+import org.gwu.voting.standardFormat.basic.Question;
+import org.gwu.voting.standardFormat.electionSpecification.ElectionSpecification;
+import org.gwu.voting.standardFormat.electionSpecification.exceptions.ESException;
+
+import edu.gwu.election.Election;
+import edu.gwu.election.Globals;
+import edu.gwu.election.Print;
+import edu.gwu.election.VotingSession;
+import edu.gwu.election.fsm.CompiledGraph;
+import edu.gwu.election.fsm.FiniteStateMachine;
+import edu.gwu.election.fsm.InvalidInputException;
+import edu.gwu.election.fsm.State;
+import edu.gwu.election.fsm.Transitionable;
+import edu.gwu.election.sim.ClipDurations;
+import edu.gwu.election.sim.RandomVoter;
+import edu.gwu.election.sim.VoterPolicy;
+
+/**
+ * Votes through an election in the same process, without sound or a screen:
+ * the keys go straight to {@link FiniteStateMachine#giveInput(int)}, the
+ * session runs on a {@link VirtualClock} with {@link SilentAudioPlayer}s and
+ * the text goes to a text area nobody sees. A ballot takes milliseconds, so
+ * whole sets of ballot paths can be checked on every change.
+ *
+ * Scripts have one key per line (a number, or * to go back), optionally
+ * followed by the milliseconds the voter waits before pressing it, and
+ * three kinds of checks:
+ *
+ * <pre>
+ * # vote for the second candidate of the first contest
+ * 11
+ * 11
+ * 2
+ * text You have selected
+ * 1
+ * votes 0 1
+ * </pre>
+ *
+ * "text" checks the text shown after the keys above it, "played" that a file
+ * ending with the given name was played right after them, "votes" the votes
+ * of a contest at the end. A key that leaves the election in the same state
+ * is counted as ignored; anything else the election throws fails the run.
+ *
+ * With the StubContent property set to true, the voters vote on empty sound
+ * files and on texts holding the name of each message, made from the
+ * election specification alone, so the scripts in the scripts folder next to
+ * this class can be checked without the recordings of the election.
+ */
+public class VoterHarness {
+
+	// virtual milliseconds to wait for a message before giving up on it
+	private static final long MAX_WAIT = 10 * 60 * 1000;
+
+	private VirtualClock clock = new VirtualClock();
+	private JTextArea textArea = new JTextArea();
+	private List<String> played = new ArrayList<String>();
+	private VotingSession session;
+	private Election election;
+
+	/**
+	 * What happened to one voter
+	 */
+	public static class Result {
+		public int[][] votes;
+		// text shown at the start and after each key
+		public List<String> texts = new ArrayList<String>();
+		public List<String> played;
+		// number of files started by the start and by each key
+		public List<Integer> playedCounts = new ArrayList<Integer>();
+		public int ignored = 0;
+		public boolean finished;
+		public long duration;
+	}
+
+	/**
+	 * Builds the election for the harness
+	 *
+	 * @param contentPath
+	 *            directory with the content of the election
+	 * @param specFile
+	 *            the election specification, relative to the ward directory
+	 * @param properties
+	 *            the properties of the booth (Ward, Language, ...)
+	 * @param durations
+	 *            lengths of the sound files
+	 */
+	public VoterHarness(String contentPath, String specFile,
+			Properties properties, ClipDurations durations)
+			throws ESException {
+		session = new VotingSession(properties);
+		session.setClock(clock);
+		session.setAudioPlayerFactory(SilentAudioPlayer.factory(durations,
+				played));
+		session.setTextArea(textArea);
+		election = new Election(contentPath, specFile, session);
+		election.setLanguage();
+		election.setWard();
+		election.constructFSM();
+		election.checkContent();
+	}
+
+	public Election getElection() {
+		return election;
+	}
+
+	/**
+	 * Votes once, from the start state
+	 *
+	 * @param keys
+	 *            the keys the voter presses, all given to the FSM; the ones
+	 *            that leave it in the same state are counted as ignored
+	 * @param waits
+	 *            milliseconds the voter waits before each key, once a message
+	 *            that can't be interrupted is over
+	 * @return what happened
+	 */
+	public Result vote(int[] keys, long[] waits) {
+		election.newSession();
+		played.clear();
+		textArea.setText("");
+		long begin = clock.currentTimeMillis();
+		FiniteStateMachine fsm = election.getFSM();
+		Result result = new Result();
+
+		fsm.begin();
+		result.texts.add(textArea.getText());
+		result.playedCounts.add(played.size());
+		for (int i = 0; i < keys.length && fsm.isRunning(); i++) {
+			if (!fsm.getCurrentState().isInterruptable())
+				waitWhilePlaying(fsm.getCurrentState());
+			clock.advance(waits[i]);
+			// every key goes to the FSM, which turns down the ones the state
+			// does not take; a state action that fails is a broken ballot
+			// path, not an ignored key, so it is not caught
+			int before = fsm.getCurrentState().getId();
+			try {
+				fsm.giveInput(keys[i]);
+			} catch (InvalidInputException e) {
+				Print.debug("Key " + keys[i] + " turned down: "
+						+ e.getMessage());
+			}
+			if (fsm.getCurrentState().getId() == before)
+				result.ignored++;
+			result.texts.add(textArea.getText());
+			result.playedCounts.add(played.size());
+		}
+		result.finished = !fsm.isRunning();
+		waitWhilePlaying(fsm.getCurrentState());
+		fsm.stop();
+
+		int[][] votes = election.getVotes();
+		result.votes = new int[votes.length][];
+		for (int q = 0; q < votes.length; q++)
+			result.votes[q] = votes[q].clone();
+		result.played = new ArrayList<String>(played);
+		result.duration = clock.currentTimeMillis() - begin;
+		return result;
+	}
+
+	private void waitWhilePlaying(Transitionable state) {
+		long waited = 0;
+		while (state.isPlaying() && waited < MAX_WAIT) {
+			clock.advance(Globals.OFFSET);
+			waited += Globals.OFFSET;
+		}
+	}
+
+	/**
+	 * Runs a script and checks it
+	 *
+	 * @param script
+	 *            the script file
+	 * @param wait
+	 *            milliseconds before the keys that don't give one
+	 * @return what is wrong, null if nothing
+	 */
+	public String check(File script, long wait) throws IOException {
+		List<Integer> keys = new ArrayList<Integer>();
+		List<Long> waits = new ArrayList<Long>();
+		List<String[]> checks = new ArrayList<String[]>();
+		BufferedReader in = new BufferedReader(new FileReader(script));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] parts = line.split("\\s+", 3);
+				if (parts[0].equals("text") || parts[0].equals("played")
+						|| parts[0].equals("votes")) {
+					// checked once the keys so far are pressed
+					checks.add(new String[] { parts[0],
+							Integer.toString(keys.size()),
+							line.substring(parts[0].length()).trim() });
+					continue;
+				}
+				keys.add(parts[0].equals("*") ? Globals.TO_GO_BACK : Integer
+						.parseInt(parts[0]));
+				waits.add(parts.length > 1 ? Long.parseLong(parts[1]) : wait);
+			}
+		} finally {
+			in.close();
+		}
+
+		int[] keyArray = new int[keys.size()];
+		long[] waitArray = new long[waits.size()];
+		for (int i = 0; i < keyArray.length; i++) {
+			keyArray[i] = keys.get(i);
+			waitArray[i] = waits.get(i);
+		}
+		Result result = vote(keyArray, waitArray);
+
+		for (String[] check : checks) {
+			int after = Integer.parseInt(check[1]);
+			if (check[0].equals("text")) {
+				String text = after < result.texts.size() ? result.texts
+						.get(after) : "";
+				if (!text.contains(check[2]))
+					return "after " + after + " keys, no \"" + check[2]
+							+ "\" in \"" + text.trim() + "\"";
+			} else if (check[0].equals("played")) {
+				List<String> files = playedAfter(result, after);
+				boolean found = false;
+				for (String file : files)
+					found |= file.endsWith(check[2]);
+				if (!found)
+					return "after " + after + " keys, no " + check[2]
+							+ " played in " + files;
+			} else {
+				String[] expected = check[2].split("\\s+", 2);
+				int question = Integer.parseInt(expected[0]);
+				int[] votes = result.votes[question];
+				String[] values = expected.length > 1 ? expected[1]
+						.split("[,\\s]+") : new String[0];
+				for (int i = 0; i < votes.length; i++) {
+					int value = i < values.length ? Integer
+							.parseInt(values[i]) : -1;
+					if (votes[i] != value)
+						return "contest " + question + " has votes "
+								+ Arrays.toString(votes) + ", expected "
+								+ check[2].substring(expected[0].length())
+										.trim();
+				}
+			}
+		}
+		return null;
+	}
+
+	// the files started by the last of the given number of keys (by the
+	// start for none)
+	private static List<String> playedAfter(Result result, int keys) {
+		if (keys >= result.playedCounts.size())
+			return new ArrayList<String>();
+		int start = keys == 0 ? 0 : result.playedCounts.get(keys - 1);
+		return result.played.subList(start, result.playedCounts.get(keys));
+	}
+
+	/**
+	 * Votes with random valid keys, walking the election graph, and makes sure
+	 * nothing breaks
+	 *
+	 * @param voters
+	 *            number of voters
+	 * @param seed
+	 *            seed of the random keys
+	 * @return how many voters reached the end
+	 */
+	public int randomVotes(int voters, long seed) {
+		CompiledGraph graph = election.getFSM().freeze();
+		int finished = 0;
+		for (int v = 0; v < voters; v++) {
+			Random random = new Random(seed + v);
+			VoterPolicy voter = new RandomVoter();
+			List<Integer> keys = new ArrayList<Integer>();
+			int state = graph.getStartId();
+			while (keys.size() < 200 && state != graph.getStopId()) {
+				int key = voter.nextInput(graph, state, random);
+				if (key == VoterPolicy.LEAVE)
+					break;
+				keys.add(key);
+				state = graph.getTransition(state, key);
+			}
+			int[] keyArray = new int[keys.size()];
+			long[] waits = new long[keys.size()];
+			for (int i = 0; i < keyArray.length; i++) {
+				keyArray[i] = keys.get(i);
+				waits[i] = voter.thinkTime(random);
+			}
+			if (vote(keyArray, waits).finished)
+				finished++;
+		}
+		return finished;
+	}
+
+	/**
+	 * Makes a content folder for an election from its specification only: an
+	 * empty sound file for every message of every state and every candidate,
+	 * and a text file holding the name of the message
+	 *
+	 * @param contentPath
+	 *            directory with the ward directory holding the specification
+	 * @param specFile
+	 *            the election specification, relative to the ward directory
+	 * @param properties
+	 *            the properties of the booth (Ward, Language, ...)
+	 * @return the new content folder, under the temporary directory
+	 */
+	public static String stubContent(String contentPath, String specFile,
+			Properties properties) throws IOException, ESException {
+		File folder = File.createTempFile("harness", "");
+		if (!folder.delete() || !folder.mkdir())
+			throw new IOException("Could not create " + folder);
+		String ward = properties.getProperty("Ward");
+		File spec = new File(folder, ward + File.separator + specFile);
+		spec.getParentFile().mkdirs();
+		Files.copy(new File(contentPath + ward + File.separator + specFile)
+				.toPath(), spec.toPath());
+
+		String stub = folder.getPath() + File.separator;
+		Election election = new Election(stub, specFile, new VotingSession(
+				properties));
+		election.setLanguage();
+		election.setWard();
+		election.constructFSM();
+		CompiledGraph graph = election.getFSM().freeze();
+		for (int id = 0; id < graph.size(); id++) {
+			if (!(graph.getState(id) instanceof State))
+				continue;
+			State state = (State) graph.getState(id);
+			for (String wav : state.getWavs())
+				if (wav != null && wav.length() >= 4)
+					stubMessage(new File(state.getDirectory() + wav));
+		}
+		String language = properties.getProperty("Language");
+		// copied for the contests nobody was voted for yet
+		stubMessage(new File(stub + language + "/extras/NoOne.mp3"));
+		// played by the write-in action
+		stubMessage(new File(stub + language + "/extras/NowRecord.mp3"));
+		stubMessage(new File(stub + language
+				+ "/extras/AlreadyHaveRecording.mp3"));
+		stubMessage(new File(stub + language + "/extras/beep.mp3"));
+		// the candidates, copied to the answer files of the ward when chosen
+		for (Question question : new ElectionSpecification(spec.getPath())
+				.getOrderedQuestions())
+			for (Answer answer : question.getOrderedAnswers())
+				stubMessage(new File(stub + ward + "/" + language + "/a"
+						+ question.getId() + "-" + answer.getId() + ".mp3"));
+		return stub;
+	}
+
+	// an empty sound file for each speed and a text with the name of the
+	// message next to each of them, as copyFile copies the text along
+	private static void stubMessage(File sound) throws IOException {
+		sound.getParentFile().mkdirs();
+		String path = sound.getPath();
+		String base = path.substring(0, path.length() - 4);
+		String extension = path.substring(path.length() - 4);
+		String name = new File(base).getName();
+		sound.createNewFile();
+		stubText(base, name);
+		for (int speed = Globals.MIN_SOUND_SPEED; speed <= Globals.MAX_SOUND_SPEED; speed++) {
+			new File(base + "_" + speed + extension).createNewFile();
+			stubText(base + "_" + speed, name);
+		}
+	}
+
+	private static void stubText(String base, String name) throws IOException {
+		FileWriter text = new FileWriter(base + ".txt");
+		try {
+			text.write(name + "\n");
+		} finally {
+			text.close();
+		}
+	}
+
+	/**
+	 * Checks scripts, or random voters, against an election
+	 *
+	 * @param args
+	 *            properties file (with Ward, Language, ContentFolder and
+	 *            ElectionSpec, and StubContent to vote without the recordings),
+	 *            then script files, or -random and a number of voters
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out
+					.println("Usage: VoterHarness <properties> <script>... | -random <voters>");
+			return;
+		}
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(args[0]);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		String contentPath = properties.getProperty("ContentFolder");
+		if ("true".equalsIgnoreCase(properties.getProperty("StubContent")))
+			contentPath = stubContent(contentPath, properties
+					.getProperty("ElectionSpec"), properties);
+		VoterHarness harness = new VoterHarness(contentPath, properties
+				.getProperty("ElectionSpec"), properties, new ClipDurations(
+				1000));
+
+		long start = System.currentTimeMillis();
+		int failures = 0;
+		if (args[1].equals("-random")) {
+			int voters = Integer.parseInt(args[2]);
+			int finished = harness.randomVotes(voters, 0);
+			System.out.println(finished + " of " + voters
+					+ " random voters finished");
+		} else
+			for (int i = 1; i < args.length; i++) {
+				String problem = harness.check(new File(args[i]), 1000);
+				if (problem == null)
+					System.out.println("PASS " + args[i]);
+				else {
+					System.out.println("FAIL " + args[i] + ": " + problem);
+					failures++;
+				}
+			}
+		System.out.println("Done in " + (System.currentTimeMillis() - start)
+				+ " ms");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}